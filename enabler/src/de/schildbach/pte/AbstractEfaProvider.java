@@ -49,7 +49,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
-import org.xmlpull.v1.XmlPullParserFactory;
 
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Strings;
@@ -112,8 +111,6 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider {
     private boolean useStringCoordListOutputFormat = true;
     private float fareCorrectionFactor = 1f;
 
-    private final XmlPullParserFactory parserFactory;
-
     private static final Logger log = LoggerFactory.getLogger(AbstractEfaProvider.class);
 
     @SuppressWarnings("serial")
@@ -164,13 +161,6 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider {
             final HttpUrl tripEndpoint, final HttpUrl stopFinderEndpoint, final HttpUrl coordEndpoint) {
         super(network);
 
-        try {
-            parserFactory = XmlPullParserFactory.newInstance(System.getProperty(XmlPullParserFactory.PROPERTY_NAME),
-                    null);
-        } catch (final XmlPullParserException x) {
-            throw new RuntimeException(x);
-        }
-
         this.departureMonitorEndpoint = departureMonitorEndpoint;
         this.tripEndpoint = tripEndpoint;
         this.stopFinderEndpoint = stopFinderEndpoint;
@@ -364,7 +354,7 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider {
             @Override
             public void onSuccessful(final CharSequence bodyPeek, final ResponseBody body) throws IOException {
                 try {
-                    final XmlPullParser pp = parserFactory.newPullParser();
+                    final XmlPullParser pp = XmlPullUtil.newPullParser();
                     pp.setInput(body.byteStream(), null); // Read encoding from XML declaration
                     final ResultHeader header = enterItdRequest(pp);
 
@@ -406,7 +396,7 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider {
             @Override
             public void onSuccessful(final CharSequence bodyPeek, final ResponseBody body) throws IOException {
                 try {
-                    final XmlPullParser pp = parserFactory.newPullParser();
+                    final XmlPullParser pp = XmlPullUtil.newPullParser();
                     pp.setInput(body.byteStream(), null); // Read encoding from XML declaration
                     final ResultHeader header = enterEfa(pp);
                     XmlPullUtil.optSkip(pp, "ers");
@@ -510,7 +500,7 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider {
             @Override
             public void onSuccessful(final CharSequence bodyPeek, final ResponseBody body) throws IOException {
                 try {
-                    final XmlPullParser pp = parserFactory.newPullParser();
+                    final XmlPullParser pp = XmlPullUtil.newPullParser();
                     pp.setInput(body.byteStream(), null); // Read encoding from XML declaration
                     final ResultHeader header = enterItdRequest(pp);
 
@@ -582,7 +572,7 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider {
             @Override
             public void onSuccessful(final CharSequence bodyPeek, final ResponseBody body) throws IOException {
                 try {
-                    final XmlPullParser pp = parserFactory.newPullParser();
+                    final XmlPullParser pp = XmlPullUtil.newPullParser();
                     pp.setInput(body.byteStream(), null); // Read encoding from XML declaration
                     final ResultHeader header = enterEfa(pp);
 
@@ -862,7 +852,7 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider {
             @Override
             public void onSuccessful(final CharSequence bodyPeek, final ResponseBody body) throws IOException {
                 try {
-                    final XmlPullParser pp = parserFactory.newPullParser();
+                    final XmlPullParser pp = XmlPullUtil.newPullParser();
                     pp.setInput(body.byteStream(), null); // Read encoding from XML declaration
                     final ResultHeader header = enterItdRequest(pp);
 
@@ -1463,7 +1453,7 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider {
             @Override
             public void onSuccessful(final CharSequence bodyPeek, final ResponseBody body) throws IOException {
                 try {
-                    final XmlPullParser pp = parserFactory.newPullParser();
+                    final XmlPullParser pp = XmlPullUtil.newPullParser();
                     pp.setInput(body.byteStream(), null); // Read encoding from XML declaration
                     final ResultHeader header = enterItdRequest(pp);
 
@@ -1615,7 +1605,7 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider {
             @Override
             public void onSuccessful(final CharSequence bodyPeek, final ResponseBody body) throws IOException {
                 try {
-                    final XmlPullParser pp = parserFactory.newPullParser();
+                    final XmlPullParser pp = XmlPullUtil.newPullParser();
                     pp.setInput(body.byteStream(), null); // Read encoding from XML declaration
                     final ResultHeader header = enterEfa(pp);
                     final QueryDeparturesResult r = new QueryDeparturesResult(header);
@@ -2082,7 +2072,9 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider {
             @Override
             public void onSuccessful(final CharSequence bodyPeek, final ResponseBody body) throws IOException {
                 try {
+                    final HttpClient.Phase phase = httpClient.startPhase("efa.itdTripRequest");
                     result.set(queryTrips(url.build(), body.byteStream()));
+                    phase.end();
                 } catch (final XmlPullParserException x) {
                     throw new ParserException("cannot parse xml: " + bodyPeek, x);
                 } catch (final RuntimeException x) {
@@ -2143,7 +2135,9 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider {
             @Override
             public void onSuccessful(final CharSequence bodyPeek, final ResponseBody body) throws IOException {
                 try {
+                    final HttpClient.Phase phase = httpClient.startPhase("efa.itdTripRequest");
                     result.set(queryTrips(url.build(), body.byteStream()));
+                    phase.end();
                 } catch (final XmlPullParserException x) {
                     throw new ParserException("cannot parse xml: " + bodyPeek, x);
                 } catch (final RuntimeException x) {
@@ -2185,7 +2179,7 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider {
 
     private QueryTripsResult queryTrips(final HttpUrl url, final InputStream is)
             throws XmlPullParserException, IOException {
-        final XmlPullParser pp = parserFactory.newPullParser();
+        final XmlPullParser pp = XmlPullUtil.newPullParser();
         pp.setInput(is, null); // Read encoding from XML declaration
         final ResultHeader header = enterItdRequest(pp);
         final Object context = header.context;
@@ -2670,7 +2664,7 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider {
 
     private QueryTripsResult queryTripsMobile(final HttpUrl url, final Location from, final @Nullable Location via,
             final Location to, final InputStream is) throws XmlPullParserException, IOException {
-        final XmlPullParser pp = parserFactory.newPullParser();
+        final XmlPullParser pp = XmlPullUtil.newPullParser();
         pp.setInput(is, null); // Read encoding from XML declaration
         final ResultHeader header = enterEfa(pp);
 
@@ -52,7 +52,6 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
-import org.xmlpull.v1.XmlPullParserFactory;
 
 import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
@@ -460,9 +459,7 @@ public abstract class AbstractHafasLegacyProvider extends AbstractHafasProvider
                 addCustomReplaces(reader);
 
                 try {
-                    final XmlPullParserFactory factory = XmlPullParserFactory
-                            .newInstance(System.getProperty(XmlPullParserFactory.PROPERTY_NAME), null);
-                    final XmlPullParser pp = factory.newPullParser();
+                    final XmlPullParser pp = XmlPullUtil.newPullParser();
                     pp.setInput(reader);
 
                     pp.nextTag();
@@ -796,9 +793,7 @@ public abstract class AbstractHafasLegacyProvider extends AbstractHafasProvider
             @Override
             public void onSuccessful(final CharSequence bodyPeek, final ResponseBody body) throws IOException {
                 try {
-                    final XmlPullParserFactory factory = XmlPullParserFactory
-                            .newInstance(System.getProperty(XmlPullParserFactory.PROPERTY_NAME), null);
-                    final XmlPullParser pp = factory.newPullParser();
+                    final XmlPullParser pp = XmlPullUtil.newPullParser();
                     pp.setInput(body.charStream());
 
                     XmlPullUtil.require(pp, "ResC");
@@ -1910,6 +1905,11 @@ public abstract class AbstractHafasLegacyProvider extends AbstractHafasProvider
                             trips.add(trip);
                     }
 
+                    // tables are decoded on demand while reading the trips
+                    httpClient.reportPhase("hafas.stringTable", strings.decodeNanos, strings.table.length);
+                    httpClient.reportPhase("hafas.stationTable", stations.decodeNanos, stations.table.length);
+                    httpClient.reportPhase("hafas.commentTable", comments.decodeNanos, comments.table.length);
+
                     // if result is only one single individual leg, don't query for more
                     final boolean canQueryMore = trips.size() != 1 || trips.get(0).legs.size() != 1
                             || !(trips.get(0).legs.get(0) instanceof Trip.Individual);
@@ -2078,6 +2078,7 @@ public abstract class AbstractHafasLegacyProvider extends AbstractHafasProvider
     private static class StringTable {
         private Charset encoding = Charsets.US_ASCII;
         private final byte[] table;
+        private long decodeNanos = 0;
 
         public StringTable(final DataInputStream is, final int stringTablePtr, final int length) throws IOException {
             is.reset();
@@ -2091,6 +2092,15 @@ public abstract class AbstractHafasLegacyProvider extends AbstractHafasProvider
         }
 
         public String read(final LittleEndianDataInputStream is) throws IOException {
+            final long startNanos = System.nanoTime();
+            try {
+                return decode(is);
+            } finally {
+                decodeNanos += System.nanoTime() - startNanos;
+            }
+        }
+
+        private String decode(final LittleEndianDataInputStream is) throws IOException {
             final int pointer = is.readShortReverse();
             if (pointer == 0)
                 return null;
@@ -2118,6 +2128,7 @@ public abstract class AbstractHafasLegacyProvider extends AbstractHafasProvider
     private static class CommentTable {
         private final StringTable strings;
         private final byte[] table;
+        private long decodeNanos = 0; // without decoding the strings
 
         public CommentTable(final DataInputStream is, final int commentTablePtr, final int length,
                 final StringTable strings) throws IOException {
@@ -2130,6 +2141,16 @@ public abstract class AbstractHafasLegacyProvider extends AbstractHafasProvider
         }
 
         public String[] read(final LittleEndianDataInputStream is) throws IOException {
+            final long startNanos = System.nanoTime();
+            final long startStringsNanos = strings.decodeNanos;
+            try {
+                return decode(is);
+            } finally {
+                decodeNanos += System.nanoTime() - startNanos - (strings.decodeNanos - startStringsNanos);
+            }
+        }
+
+        private String[] decode(final LittleEndianDataInputStream is) throws IOException {
             final int pointer = is.readShortReverse();
             if (pointer >= table.length)
                 throw new IllegalStateException(
@@ -2155,6 +2176,7 @@ public abstract class AbstractHafasLegacyProvider extends AbstractHafasProvider
     private class StationTable {
         private final StringTable strings;
         private final byte[] table;
+        private long decodeNanos = 0; // without decoding the strings
 
         public StationTable(final DataInputStream is, final int stationTablePtr, final int length,
                 final StringTable strings) throws IOException {
@@ -2167,6 +2189,16 @@ public abstract class AbstractHafasLegacyProvider extends AbstractHafasProvider
         }
 
         private Location read(final LittleEndianDataInputStream is) throws IOException {
+            final long startNanos = System.nanoTime();
+            final long startStringsNanos = strings.decodeNanos;
+            try {
+                return decode(is);
+            } finally {
+                decodeNanos += System.nanoTime() - startNanos - (strings.decodeNanos - startStringsNanos);
+            }
+        }
+
+        private Location decode(final LittleEndianDataInputStream is) throws IOException {
             final int index = is.readShortReverse();
             final int ptr = index * 14;
             if (ptr >= table.length)
@@ -33,6 +33,8 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -43,6 +45,8 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import com.google.common.base.Joiner;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 import de.schildbach.pte.dto.Departure;
 import de.schildbach.pte.dto.Fare;
@@ -78,6 +82,10 @@ public abstract class AbstractHafasMobileProvider extends AbstractHafasProvider
     @Nullable
     public String apiClient;
 
+    // locations without id, keyed by name or coordinate, resolved to the location that carries their mgate id
+    private final Cache<String, Location> identifiedLocations = CacheBuilder.newBuilder().maximumSize(1000)
+            .expireAfterWrite(1, TimeUnit.DAYS).build();
+
     public AbstractHafasMobileProvider(final NetworkId network, final HttpUrl apiBase, final Product[] productsMap) {
         super(network, productsMap);
         this.mgateEndpoint = apiBase.newBuilder().addPathSegment("mgate.exe").build();
@@ -360,41 +368,73 @@ public abstract class AbstractHafasMobileProvider extends AbstractHafasProvider
 
     private Location jsonTripSearchIdentify(final Location location) throws IOException {
         if (location.hasName()) {
+            final String key = "name|" + JOINER.join(location.place, location.name);
+            final Location cached = identifiedLocations.getIfPresent(key);
+            if (cached != null)
+                return cached;
             final List<Location> locations = jsonLocMatch(JOINER.join(location.place, location.name)).getLocations();
-            if (!locations.isEmpty())
+            if (!locations.isEmpty()) {
+                identifiedLocations.put(key, locations.get(0));
                 return locations.get(0);
+            }
         }
         if (location.hasLocation()) {
+            final String key = "coord|" + location.lat + "," + location.lon;
+            final Location cached = identifiedLocations.getIfPresent(key);
+            if (cached != null)
+                return cached;
             final List<Location> locations = jsonLocGeoPos(EnumSet.allOf(LocationType.class), location.lat,
                     location.lon).locations;
-            if (!locations.isEmpty())
+            if (!locations.isEmpty()) {
+                identifiedLocations.put(key, locations.get(0));
                 return locations.get(0);
+            }
         }
         return null;
     }
 
+    private Location[] jsonTripSearchIdentify(final Location... locations) throws IOException {
+        final Location[] identified = locations.clone();
+        final List<Integer> indices = new ArrayList<>(locations.length);
+        final List<Callable<Location>> lookups = new ArrayList<>(locations.length);
+        for (int i = 0; i < locations.length; i++) {
+            final Location location = locations[i];
+            if (location != null && !location.hasId()) {
+                indices.add(i);
+                lookups.add(new Callable<Location>() {
+                    @Override
+                    public Location call() throws IOException {
+                        return jsonTripSearchIdentify(location);
+                    }
+                });
+            }
+        }
+        final List<Location> results = lookUpConcurrently(lookups);
+        for (int i = 0; i < results.size(); i++)
+            identified[indices.get(i)] = results.get(i);
+        return identified;
+    }
+
     protected final QueryTripsResult jsonTripSearch(Location from, @Nullable Location via, Location to, final Date time,
             final boolean dep, final @Nullable Set<Product> products, final String moreContext) throws IOException {
-        if (!from.hasId()) {
-            from = jsonTripSearchIdentify(from);
-            if (from == null)
-                return new QueryTripsResult(new ResultHeader(network, SERVER_PRODUCT),
-                        QueryTripsResult.Status.UNKNOWN_FROM);
-        }
+        final Location[] identified = jsonTripSearchIdentify(from, via, to);
 
-        if (via != null && !via.hasId()) {
-            via = jsonTripSearchIdentify(via);
+        from = identified[0];
+        if (from == null)
+            return new QueryTripsResult(new ResultHeader(network, SERVER_PRODUCT),
+                    QueryTripsResult.Status.UNKNOWN_FROM);
+
+        if (via != null) {
+            via = identified[1];
             if (via == null)
                 return new QueryTripsResult(new ResultHeader(network, SERVER_PRODUCT),
                         QueryTripsResult.Status.UNKNOWN_VIA);
         }
 
-        if (!to.hasId()) {
-            to = jsonTripSearchIdentify(to);
-            if (to == null)
-                return new QueryTripsResult(new ResultHeader(network, SERVER_PRODUCT),
-                        QueryTripsResult.Status.UNKNOWN_TO);
-        }
+        to = identified[2];
+        if (to == null)
+            return new QueryTripsResult(new ResultHeader(network, SERVER_PRODUCT),
+                    QueryTripsResult.Status.UNKNOWN_TO);
 
         final Calendar c = new GregorianCalendar(timeZone);
         c.setTime(time);
@@ -28,6 +28,7 @@ import java.util.EnumSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 
@@ -37,7 +38,10 @@ import org.json.JSONObject;
 import org.json.JSONTokener;
 
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
+import de.schildbach.pte.dto.Area;
 import de.schildbach.pte.dto.Departure;
 import de.schildbach.pte.dto.Line;
 import de.schildbach.pte.dto.LineDestination;
@@ -79,6 +83,10 @@ public abstract class AbstractNavitiaProvider extends AbstractNetworkProvider {
     protected HttpUrl apiBase = HttpUrl.parse("https://api.navitia.io/").newBuilder().addPathSegment(SERVER_VERSION)
             .build();
 
+    // stop points rarely move between stop areas; the cache is filled by every parsed stop point
+    private final Cache<String, String> stopAreaIds = CacheBuilder.newBuilder().maximumSize(10000)
+            .expireAfterWrite(1, TimeUnit.DAYS).build();
+
     private enum PlaceType {
         ADDRESS, ADMINISTRATIVE_REGION, POI, STOP_POINT, STOP_AREA
     }
@@ -243,6 +251,11 @@ public abstract class AbstractNavitiaProvider extends AbstractNetworkProvider {
                 if (admin.length() > 0)
                     place = Strings.emptyToNull(admin.getJSONObject(0).optString("name"));
             }
+            if (placeType == PlaceType.STOP_POINT && location.has("stop_area")) {
+                final String stopAreaId = location.getJSONObject("stop_area").optString("id", null);
+                if (stopAreaId != null)
+                    stopAreaIds.put(id, stopAreaId);
+            }
             Set<Product> products = null;
             if (location.has("stop_area") && location.getJSONObject("stop_area").has("physical_modes")) {
                 products = EnumSet.noneOf(Product.class);
@@ -662,6 +675,10 @@ public abstract class AbstractNavitiaProvider extends AbstractNetworkProvider {
     }
 
     private String getStopAreaId(final String stopPointId) throws IOException {
+        final String cachedStopAreaId = stopAreaIds.getIfPresent(stopPointId);
+        if (cachedStopAreaId != null)
+            return cachedStopAreaId;
+
         final HttpUrl.Builder url = url().addPathSegment("stop_points").addPathSegment(stopPointId);
         url.addQueryParameter("depth", "1");
         final CharSequence page = httpClient.get(url.build());
@@ -671,7 +688,9 @@ public abstract class AbstractNavitiaProvider extends AbstractNetworkProvider {
             final JSONArray stopPoints = head.getJSONArray("stop_points");
             final JSONObject stopPoint = stopPoints.getJSONObject(0);
             final JSONObject stopArea = stopPoint.getJSONObject("stop_area");
-            return stopArea.getString("id");
+            final String stopAreaId = stopArea.getString("id");
+            stopAreaIds.put(stopPointId, stopAreaId);
+            return stopAreaId;
         } catch (final JSONException jsonExc) {
             throw new ParserException(jsonExc);
         }
@@ -1097,7 +1116,7 @@ public abstract class AbstractNavitiaProvider extends AbstractNetworkProvider {
     }
 
     @Override
-    public Point[] getArea() throws IOException {
+    protected Area queryArea() throws IOException {
         final HttpUrl.Builder url = url();
         final CharSequence page = httpClient.get(url.build());
 
@@ -1109,7 +1128,7 @@ public abstract class AbstractNavitiaProvider extends AbstractNetworkProvider {
             final String shape = regionInfo.getString("shape");
 
             // Parse string using JSON tokenizer for coordinates.
-            List<Point> pointList = new ArrayList<>();
+            final List<Point> pointList = new ArrayList<>();
             final JSONTokener shapeTokener = new JSONTokener(shape);
             shapeTokener.skipTo('(');
             shapeTokener.next();
@@ -1128,12 +1147,7 @@ public abstract class AbstractNavitiaProvider extends AbstractNetworkProvider {
                 pointList.add(Point.fromDouble(lat, lon));
             }
 
-            // Fill point array.
-            final Point[] pointArray = new Point[pointList.size()];
-            for (int i = 0; i < pointList.size(); ++i)
-                pointArray[i] = pointList.get(i);
-
-            return pointArray;
+            return new Area(pointList.toArray(new Point[pointList.size()]));
         } catch (final JSONException jsonExc) {
             throw new ParserException(jsonExc);
         }
@@ -17,13 +17,26 @@
 
 package de.schildbach.pte;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.Proxy;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -31,12 +44,17 @@ import javax.annotation.Nullable;
 
 import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import de.schildbach.pte.dto.Area;
 import de.schildbach.pte.dto.Point;
 import de.schildbach.pte.dto.Position;
 import de.schildbach.pte.dto.Product;
 import de.schildbach.pte.dto.Style;
 import de.schildbach.pte.util.HttpClient;
+import de.schildbach.pte.util.MetricsListener;
+
+import okhttp3.Interceptor;
 
 /**
  * @author Andreas Schildbach
@@ -48,7 +66,14 @@ public abstract class AbstractNetworkProvider implements NetworkProvider {
     protected Charset requestUrlEncoding = Charsets.ISO_8859_1;
     protected TimeZone timeZone = TimeZone.getTimeZone("CET");
     protected int numTripsRequested = 6;
-    private @Nullable Map<String, Style> styles = null;
+    private @Nullable StyleIndex styleIndex = null;
+    private final Object areaLock = new Object();
+    private volatile boolean areaQueried = false;
+    private @Nullable Area area = null;
+    private ExecutorService lookupExecutor = DEFAULT_LOOKUP_EXECUTOR;
+
+    private static final ExecutorService DEFAULT_LOOKUP_EXECUTOR = Executors.newFixedThreadPool(4,
+            new ThreadFactoryBuilder().setNameFormat("pte-lookup-%d").setDaemon(true).build());
 
     protected static final Set<Product> ALL_EXCEPT_HIGHSPEED = EnumSet
             .complementOf(EnumSet.of(Product.HIGH_SPEED_TRAIN));
@@ -88,6 +113,33 @@ public abstract class AbstractNetworkProvider implements NetworkProvider {
         return this;
     }
 
+    /**
+     * Routes all requests of this provider through the given OkHttp interceptor, e.g. to replay recorded responses in
+     * tests.
+     */
+    public AbstractNetworkProvider setInterceptor(final @Nullable Interceptor interceptor) {
+        httpClient.setInterceptor(interceptor);
+        return this;
+    }
+
+    /**
+     * Reports the timings of all HTTP exchanges of this provider. For per-operation metrics, wrap the provider with
+     * {@link InstrumentedNetworkProvider}.
+     */
+    public AbstractNetworkProvider setMetricsListener(final @Nullable MetricsListener metricsListener) {
+        httpClient.setMetricsListener(network, metricsListener);
+        return this;
+    }
+
+    /**
+     * Sets the executor for auxiliary lookups that a query issues concurrently, e.g. resolving several locations at
+     * once. Defaults to a small pool shared by all providers.
+     */
+    public AbstractNetworkProvider setLookupExecutor(final ExecutorService lookupExecutor) {
+        this.lookupExecutor = checkNotNull(lookupExecutor);
+        return this;
+    }
+
     protected AbstractNetworkProvider setRequestUrlEncoding(final Charset requestUrlEncoding) {
         this.requestUrlEncoding = requestUrlEncoding;
         return this;
@@ -104,7 +156,7 @@ public abstract class AbstractNetworkProvider implements NetworkProvider {
     }
 
     protected AbstractNetworkProvider setStyles(final Map<String, Style> styles) {
-        this.styles = styles;
+        this.styleIndex = new StyleIndex(styles);
         return this;
     }
 
@@ -118,52 +170,182 @@ public abstract class AbstractNetworkProvider implements NetworkProvider {
     @Override
     public Style lineStyle(final @Nullable String network, final @Nullable Product product,
             final @Nullable String label) {
-        final Map<String, Style> styles = this.styles;
-        if (styles != null && product != null) {
+        final StyleIndex styleIndex = this.styleIndex;
+        if (styleIndex != null && product != null) {
             if (network != null) {
-                // check for line match
-                final Style lineStyle = styles.get(network + STYLES_SEP + product.code + Strings.nullToEmpty(label));
-                if (lineStyle != null)
-                    return lineStyle;
-
-                // check for product match
-                final Style productStyle = styles.get(network + STYLES_SEP + product.code);
-                if (productStyle != null)
-                    return productStyle;
-
-                // check for night bus, as that's a common special case
-                if (product == Product.BUS && label != null && label.startsWith("N")) {
-                    final Style nightStyle = styles.get(network + STYLES_SEP + "BN");
-                    if (nightStyle != null)
-                        return nightStyle;
+                final Map<Product, Map<String, Style>> networkStyles = styleIndex.networkStyles.get(network);
+                if (networkStyles != null) {
+                    final Style style = lookupStyle(networkStyles, product, label);
+                    if (style != null)
+                        return style;
                 }
             }
 
-            // check for line match
-            final String string = product.code + Strings.nullToEmpty(label);
-            final Style lineStyle = styles.get(string);
-            if (lineStyle != null)
-                return lineStyle;
-
-            // check for product match
-            final Style productStyle = styles.get(Character.toString(product.code));
-            if (productStyle != null)
-                return productStyle;
-
-            // check for night bus, as that's a common special case
-            if (product == Product.BUS && label != null && label.startsWith("N")) {
-                final Style nightStyle = styles.get("BN");
-                if (nightStyle != null)
-                    return nightStyle;
-            }
+            final Style style = lookupStyle(styleIndex.styles, product, label);
+            if (style != null)
+                return style;
         }
 
         // standard colors
         return Standard.STYLES.get(product);
     }
 
+    private static Style lookupStyle(final Map<Product, Map<String, Style>> styles, final Product product,
+            final @Nullable String label) {
+        final Map<String, Style> productStyles = styles.get(product);
+        if (productStyles == null)
+            return null;
+
+        // check for line match
+        final Style lineStyle = productStyles.get(Strings.nullToEmpty(label));
+        if (lineStyle != null)
+            return lineStyle;
+
+        // check for product match
+        final Style productStyle = productStyles.get("");
+        if (productStyle != null)
+            return productStyle;
+
+        // check for night bus, as that's a common special case
+        if (product == Product.BUS && label != null && label.startsWith("N"))
+            return productStyles.get("N");
+
+        return null;
+    }
+
+    /**
+     * Styles from {@link #setStyles(Map)}, split up by network, product and label so that lookups don't need to
+     * build keys.
+     */
+    private static final class StyleIndex {
+        final Map<String, Map<Product, Map<String, Style>>> networkStyles = new HashMap<>();
+        final Map<Product, Map<String, Style>> styles = new EnumMap<>(Product.class);
+
+        StyleIndex(final Map<String, Style> styles) {
+            for (final Map.Entry<String, Style> entry : styles.entrySet()) {
+                final String key = entry.getKey();
+                final int sep = key.indexOf(STYLES_SEP);
+                final Map<Product, Map<String, Style>> productStyles;
+                if (sep >= 0) {
+                    final String network = key.substring(0, sep);
+                    Map<Product, Map<String, Style>> networkStyles = this.networkStyles.get(network);
+                    if (networkStyles == null) {
+                        networkStyles = new EnumMap<>(Product.class);
+                        this.networkStyles.put(network, networkStyles);
+                    }
+                    productStyles = networkStyles;
+                } else {
+                    productStyles = this.styles;
+                }
+
+                final String productAndLabel = key.substring(sep + 1);
+                if (productAndLabel.isEmpty())
+                    continue;
+                final Product product;
+                try {
+                    product = Product.fromCode(productAndLabel.charAt(0));
+                } catch (final IllegalArgumentException x) {
+                    // can never match a line
+                    continue;
+                }
+                Map<String, Style> labelStyles = productStyles.get(product);
+                if (labelStyles == null) {
+                    labelStyles = new HashMap<>();
+                    productStyles.put(product, labelStyles);
+                }
+                labelStyles.put(productAndLabel.substring(1), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Runs the given lookups concurrently on the lookup executor and waits for all of them. A single lookup is run on
+     * the calling thread. If any lookup fails, the outstanding ones are cancelled and its exception is rethrown.
+     * 
+     * @return results in the order of the lookups
+     */
+    protected final <T> List<T> lookUpConcurrently(final List<? extends Callable<T>> lookups) throws IOException {
+        if (lookups.isEmpty())
+            return Collections.emptyList();
+        if (lookups.size() == 1)
+            return Collections.singletonList(call(lookups.get(0)));
+
+        final String operation = HttpClient.getOperation();
+        final List<Future<T>> futures = new ArrayList<>(lookups.size());
+        try {
+            for (final Callable<T> lookup : lookups) {
+                futures.add(lookupExecutor.submit(new Callable<T>() {
+                    @Override
+                    public T call() throws Exception {
+                        final String previousOperation = HttpClient.setOperation(operation);
+                        try {
+                            return lookup.call();
+                        } finally {
+                            HttpClient.setOperation(previousOperation);
+                        }
+                    }
+                }));
+            }
+            final List<T> results = new ArrayList<>(lookups.size());
+            for (final Future<T> future : futures)
+                results.add(future.get());
+            return results;
+        } catch (final InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (final ExecutionException x) {
+            throw propagate(x.getCause());
+        } finally {
+            for (final Future<T> future : futures)
+                future.cancel(true);
+        }
+    }
+
+    private static <T> T call(final Callable<T> lookup) throws IOException {
+        try {
+            return lookup.call();
+        } catch (final Exception x) {
+            throw propagate(x);
+        }
+    }
+
+    private static IOException propagate(final Throwable x) throws IOException {
+        if (x instanceof IOException)
+            throw (IOException) x;
+        if (x instanceof RuntimeException)
+            throw (RuntimeException) x;
+        if (x instanceof Error)
+            throw (Error) x;
+        throw new RuntimeException(x);
+    }
+
     @Override
     public Point[] getArea() throws IOException {
+        final Area area = area();
+        return area != null ? area.getPoints() : null;
+    }
+
+    /**
+     * Gets the primary covered area of the network. It is queried only once; later calls return the same instance.
+     * 
+     * @return area, or {@code null} if the network doesn't have one
+     */
+    public final @Nullable Area area() throws IOException {
+        if (!areaQueried) {
+            synchronized (areaLock) {
+                if (!areaQueried) {
+                    area = queryArea();
+                    areaQueried = true;
+                }
+            }
+        }
+        return area;
+    }
+
+    /**
+     * Override to provide the area of the network, see {@link #area()}.
+     */
+    protected @Nullable Area queryArea() throws IOException {
         return null;
     }
 
@@ -25,6 +25,7 @@ import java.util.regex.Pattern;
 
 import com.google.common.collect.Sets;
 
+import de.schildbach.pte.dto.Area;
 import de.schildbach.pte.dto.Fare;
 import de.schildbach.pte.dto.Line;
 import de.schildbach.pte.dto.Line.Attr;
@@ -40,6 +41,8 @@ import okhttp3.HttpUrl;
  */
 public final class BvgProvider extends AbstractHafasMobileProvider {
     private static final HttpUrl API_BASE = HttpUrl.parse("https://bvg-apps.hafas.de/bin/");
+    private static final Area AREA = new Area(Point.fromDouble(52.674189, 13.074604),
+            Point.fromDouble(52.341100, 13.757130));
     private static final Product[] PRODUCTS_MAP = { Product.SUBURBAN_TRAIN, Product.SUBWAY, Product.TRAM, Product.BUS,
             Product.FERRY, Product.HIGH_SPEED_TRAIN, Product.REGIONAL_TRAIN, Product.ON_DEMAND, null, null };
 
@@ -263,7 +266,7 @@ public final class BvgProvider extends AbstractHafasMobileProvider {
     }
 
     @Override
-    public Point[] getArea() {
-        return new Point[] { Point.fromDouble(52.674189, 13.074604), Point.fromDouble(52.341100, 13.757130) };
+    protected Area queryArea() {
+        return AREA;
     }
 }
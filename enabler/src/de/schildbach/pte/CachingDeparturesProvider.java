@@ -0,0 +1,284 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Throwables;
+
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.dto.StationDepartures;
+
+/**
+ * Caches {@link #queryDepartures(String, Date, int, boolean)} for a short time. Entries are keyed by station, equivs
+ * flag and time bucket; a result fetched for more departures also serves requests for fewer. Within the TTL results
+ * are served as is; after that and up to the stale limit they are still served while one background refresh per key
+ * is running. Concurrent misses for the same key share a single upstream call.
+ */
+public class CachingDeparturesProvider extends ForwardingNetworkProvider {
+    private final Executor executor;
+    private final long ttlMillis;
+    private final long staleMillis;
+    private final long timeBucketMillis;
+    private final int maxEntries;
+
+    private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Key, Load> loads = new ConcurrentHashMap<>();
+
+    private static final Logger log = LoggerFactory.getLogger(CachingDeparturesProvider.class);
+
+    public CachingDeparturesProvider(final NetworkProvider delegate, final Executor executor) {
+        this(delegate, executor, TimeUnit.SECONDS.toMillis(30), TimeUnit.MINUTES.toMillis(2),
+                TimeUnit.MINUTES.toMillis(1), 10000);
+    }
+
+    /**
+     * @param executor
+     *            runs background refreshes
+     * @param ttlMillis
+     *            age up to which a cached result is served without refresh
+     * @param staleMillis
+     *            age up to which a cached result is served while being refreshed
+     * @param timeBucketMillis
+     *            granularity of explicit query times
+     * @param maxEntries
+     *            number of cached stations after which expired entries are dropped
+     */
+    public CachingDeparturesProvider(final NetworkProvider delegate, final Executor executor, final long ttlMillis,
+            final long staleMillis, final long timeBucketMillis, final int maxEntries) {
+        super(delegate);
+        checkArgument(ttlMillis <= staleMillis, "ttlMillis must not exceed staleMillis");
+        checkArgument(timeBucketMillis > 0, "timeBucketMillis must be positive");
+        checkArgument(maxEntries > 0, "maxEntries must be positive");
+        this.executor = checkNotNull(executor);
+        this.ttlMillis = ttlMillis;
+        this.staleMillis = staleMillis;
+        this.timeBucketMillis = timeBucketMillis;
+        this.maxEntries = maxEntries;
+    }
+
+    @Override
+    public QueryDeparturesResult queryDepartures(final String stationId, final @Nullable Date time,
+            final int maxDepartures, final boolean equivs) throws IOException {
+        final Key key = new Key(stationId, equivs, time != null ? time.getTime() / timeBucketMillis : null);
+        final long now = System.currentTimeMillis();
+
+        final Entry entry = entries.get(key);
+        if (entry != null && entry.covers(maxDepartures)) {
+            final long age = now - entry.time;
+            if (age <= ttlMillis)
+                return entry.truncate(maxDepartures);
+            if (age <= staleMillis) {
+                refresh(key, stationId, time, entry.maxDepartures, equivs);
+                return entry.truncate(maxDepartures);
+            }
+        }
+
+        final int loadMaxDepartures = entry != null ? widen(entry.maxDepartures, maxDepartures) : maxDepartures;
+        final Load load = load(key, stationId, time, loadMaxDepartures, equivs);
+        if (load.covers(maxDepartures))
+            return truncate(await(load), maxDepartures);
+        else
+            return fetch(key, stationId, time, maxDepartures, equivs);
+    }
+
+    private void refresh(final Key key, final String stationId, final @Nullable Date time, final int maxDepartures,
+            final boolean equivs) {
+        final Load load = new Load(key, stationId, time, maxDepartures, equivs);
+        if (loads.putIfAbsent(key, load) != null)
+            return;
+        try {
+            executor.execute(load);
+        } catch (final RejectedExecutionException x) {
+            loads.remove(key, load);
+        }
+    }
+
+    private Load load(final Key key, final String stationId, final @Nullable Date time, final int maxDepartures,
+            final boolean equivs) {
+        final Load load = new Load(key, stationId, time, maxDepartures, equivs);
+        final Load existing = loads.putIfAbsent(key, load);
+        if (existing != null)
+            return existing;
+        load.run();
+        return load;
+    }
+
+    private QueryDeparturesResult await(final Load load) throws IOException {
+        try {
+            return load.get();
+        } catch (final InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for departures", x);
+        } catch (final ExecutionException x) {
+            Throwables.propagateIfPossible(x.getCause(), IOException.class);
+            throw new RuntimeException(x.getCause());
+        }
+    }
+
+    private QueryDeparturesResult fetch(final Key key, final String stationId, final @Nullable Date time,
+            final int maxDepartures, final boolean equivs) throws IOException {
+        final QueryDeparturesResult result = delegate.queryDepartures(stationId, time, maxDepartures, equivs);
+        if (result.status == QueryDeparturesResult.Status.OK) {
+            if (entries.size() >= maxEntries)
+                evict();
+            entries.put(key, new Entry(result, maxDepartures, System.currentTimeMillis()));
+        }
+        return result;
+    }
+
+    private void evict() {
+        final long now = System.currentTimeMillis();
+        for (final Iterator<Entry> i = entries.values().iterator(); i.hasNext();)
+            if (now - i.next().time > staleMillis)
+                i.remove();
+        if (entries.size() >= maxEntries)
+            entries.clear();
+    }
+
+    private static boolean covers(final int cachedMaxDepartures, final int maxDepartures) {
+        // 0 means provider default, which can't be compared with explicit limits
+        if (cachedMaxDepartures == 0 || maxDepartures == 0)
+            return cachedMaxDepartures == maxDepartures;
+        return maxDepartures <= cachedMaxDepartures;
+    }
+
+    private static int widen(final int cachedMaxDepartures, final int maxDepartures) {
+        if (cachedMaxDepartures == 0 || maxDepartures == 0)
+            return maxDepartures;
+        return Math.max(cachedMaxDepartures, maxDepartures);
+    }
+
+    private static QueryDeparturesResult truncate(final QueryDeparturesResult result, final int maxDepartures) {
+        if (result.status != QueryDeparturesResult.Status.OK || maxDepartures == 0)
+            return result;
+        boolean needsTruncation = false;
+        for (final StationDepartures stationDepartures : result.stationDepartures)
+            if (stationDepartures.departures.size() > maxDepartures)
+                needsTruncation = true;
+        if (!needsTruncation)
+            return result;
+
+        final QueryDeparturesResult truncated = new QueryDeparturesResult(result.header);
+        for (final StationDepartures stationDepartures : result.stationDepartures)
+            truncated.stationDepartures.add(stationDepartures.departures.size() > maxDepartures
+                    ? new StationDepartures(stationDepartures.location,
+                            stationDepartures.departures.subList(0, maxDepartures), stationDepartures.lines)
+                    : stationDepartures);
+        return truncated;
+    }
+
+    private final class Load extends FutureTask<QueryDeparturesResult> {
+        private final Key key;
+        private final int maxDepartures;
+
+        public Load(final Key key, final String stationId, final @Nullable Date time, final int maxDepartures,
+                final boolean equivs) {
+            super(new Callable<QueryDeparturesResult>() {
+                @Override
+                public QueryDeparturesResult call() throws IOException {
+                    return fetch(key, stationId, time, maxDepartures, equivs);
+                }
+            });
+            this.key = key;
+            this.maxDepartures = maxDepartures;
+        }
+
+        public boolean covers(final int maxDepartures) {
+            return CachingDeparturesProvider.covers(this.maxDepartures, maxDepartures);
+        }
+
+        @Override
+        protected void done() {
+            loads.remove(key, this);
+        }
+
+        @Override
+        protected void setException(final Throwable t) {
+            log.info("loading departures for {} failed: {}", key.stationId, t.toString());
+            super.setException(t);
+        }
+    }
+
+    private static final class Entry {
+        private final QueryDeparturesResult result;
+        private final int maxDepartures;
+        private final long time;
+
+        public Entry(final QueryDeparturesResult result, final int maxDepartures, final long time) {
+            this.result = result;
+            this.maxDepartures = maxDepartures;
+            this.time = time;
+        }
+
+        public boolean covers(final int maxDepartures) {
+            return CachingDeparturesProvider.covers(this.maxDepartures, maxDepartures);
+        }
+
+        public QueryDeparturesResult truncate(final int maxDepartures) {
+            return CachingDeparturesProvider.truncate(result, maxDepartures);
+        }
+    }
+
+    private static final class Key {
+        private final String stationId;
+        private final boolean equivs;
+        private final @Nullable Long timeBucket;
+
+        public Key(final String stationId, final boolean equivs, final @Nullable Long timeBucket) {
+            this.stationId = checkNotNull(stationId);
+            this.equivs = equivs;
+            this.timeBucket = timeBucket;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (o == this)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            final Key other = (Key) o;
+            return this.stationId.equals(other.stationId) && this.equivs == other.equivs
+                    && Objects.equal(this.timeBucket, other.timeBucket);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(stationId, equivs, timeBucket);
+        }
+    }
+}
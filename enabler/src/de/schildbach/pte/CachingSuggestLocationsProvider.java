@@ -0,0 +1,231 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.SuggestLocationsResult;
+import de.schildbach.pte.dto.SuggestedLocation;
+
+/**
+ * Caches {@link #suggestLocations(CharSequence)} in a prefix trie of normalized queries. A query is answered from
+ * the cache if it has been seen before, or if a shorter query it extends has been seen before; in the latter case the
+ * cached suggestions are filtered by the longer query. Either way, stale or derived answers are revalidated upstream
+ * in the background, so the cache converges to what the upstream would have returned.
+ */
+public class CachingSuggestLocationsProvider extends ForwardingNetworkProvider {
+    private final Executor executor;
+    private final long freshMillis;
+    private final long maxAgeMillis;
+    private final int maxEntries;
+
+    private volatile Node root = new Node();
+    private final AtomicInteger numEntries = new AtomicInteger();
+    private final Set<String> revalidating = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private static final Pattern P_WORD_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private static final Logger log = LoggerFactory.getLogger(CachingSuggestLocationsProvider.class);
+
+    public CachingSuggestLocationsProvider(final NetworkProvider delegate, final Executor executor) {
+        this(delegate, executor, TimeUnit.MINUTES.toMillis(10), TimeUnit.DAYS.toMillis(1), 10000);
+    }
+
+    /**
+     * @param executor
+     *            runs background revalidations
+     * @param freshMillis
+     *            age up to which a cached answer is served without revalidation
+     * @param maxAgeMillis
+     *            age after which a cached answer is not served at all anymore
+     * @param maxEntries
+     *            number of cached queries after which the cache is flushed
+     */
+    public CachingSuggestLocationsProvider(final NetworkProvider delegate, final Executor executor,
+            final long freshMillis, final long maxAgeMillis, final int maxEntries) {
+        super(delegate);
+        checkArgument(freshMillis <= maxAgeMillis, "freshMillis must not exceed maxAgeMillis");
+        checkArgument(maxEntries > 0, "maxEntries must be positive");
+        this.executor = checkNotNull(executor);
+        this.freshMillis = freshMillis;
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxEntries = maxEntries;
+    }
+
+    @Override
+    public SuggestLocationsResult suggestLocations(final CharSequence constraint) throws IOException {
+        final String key = normalize(constraint);
+        if (key.isEmpty())
+            return delegate.suggestLocations(constraint);
+
+        final long now = System.currentTimeMillis();
+        Node node = root;
+        Entry prefixEntry = null;
+        for (int i = 0; node != null; i++) {
+            final Entry entry = node.entry;
+            if (entry != null && now - entry.time <= maxAgeMillis)
+                prefixEntry = entry;
+            if (i == key.length())
+                break;
+            node = node.children.get(key.charAt(i));
+        }
+
+        if (prefixEntry != null) {
+            if (prefixEntry.key.equals(key)) {
+                if (now - prefixEntry.time > freshMillis)
+                    revalidate(key, constraint);
+                return prefixEntry.result;
+            }
+
+            final SuggestLocationsResult filtered = filter(prefixEntry.result, key);
+            if (filtered != null) {
+                revalidate(key, constraint);
+                return filtered;
+            }
+        }
+
+        return fetch(key, constraint);
+    }
+
+    private SuggestLocationsResult fetch(final String key, final CharSequence constraint) throws IOException {
+        final SuggestLocationsResult result = delegate.suggestLocations(constraint);
+        if (result.status == SuggestLocationsResult.Status.OK)
+            put(key, result);
+        return result;
+    }
+
+    private void revalidate(final String key, final CharSequence constraint) {
+        if (!revalidating.add(key))
+            return;
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        fetch(key, constraint);
+                    } catch (final IOException | RuntimeException x) {
+                        log.info("revalidating suggestions for '{}' failed: {}", key, x.toString());
+                    } finally {
+                        revalidating.remove(key);
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException x) {
+            revalidating.remove(key);
+        }
+    }
+
+    private void put(final String key, final SuggestLocationsResult result) {
+        if (numEntries.get() >= maxEntries) {
+            root = new Node();
+            numEntries.set(0);
+        }
+
+        Node node = root;
+        for (int i = 0; i < key.length(); i++) {
+            final Character c = key.charAt(i);
+            Node child = node.children.get(c);
+            if (child == null) {
+                final Node newChild = new Node();
+                child = node.children.putIfAbsent(c, newChild);
+                if (child == null)
+                    child = newChild;
+            }
+            node = child;
+        }
+        if (node.entry == null)
+            numEntries.incrementAndGet();
+        node.entry = new Entry(key, result, System.currentTimeMillis());
+    }
+
+    /**
+     * Keeps the suggestions where every word of the query is a prefix of some word of the location's place or name.
+     * Returns {@code null} if none are left.
+     */
+    private static @Nullable SuggestLocationsResult filter(final SuggestLocationsResult result, final String key) {
+        final String[] queryWords = P_WORD_SEPARATOR.split(key);
+        final List<SuggestedLocation> filtered = new ArrayList<>();
+        for (final SuggestedLocation suggestedLocation : result.suggestedLocations) {
+            final Location location = suggestedLocation.location;
+            final String text = normalize((location.place != null ? location.place + ' ' : "")
+                    + (location.name != null ? location.name : ""));
+            if (matches(queryWords, P_WORD_SEPARATOR.split(text)))
+                filtered.add(suggestedLocation);
+        }
+        return !filtered.isEmpty() ? new SuggestLocationsResult(result.header, filtered) : null;
+    }
+
+    private static boolean matches(final String[] queryWords, final String[] words) {
+        for (final String queryWord : queryWords) {
+            if (queryWord.isEmpty())
+                continue;
+            boolean found = false;
+            for (final String word : words) {
+                if (word.startsWith(queryWord)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found)
+                return false;
+        }
+        return true;
+    }
+
+    private static String normalize(final CharSequence constraint) {
+        return constraint.toString().trim().replaceAll("\\s+", " ").toLowerCase(Locale.ENGLISH);
+    }
+
+    private static final class Node {
+        private final ConcurrentMap<Character, Node> children = new ConcurrentHashMap<>(4);
+        private volatile @Nullable Entry entry;
+    }
+
+    private static final class Entry {
+        private final String key;
+        private final SuggestLocationsResult result;
+        private final long time;
+
+        public Entry(final String key, final SuggestLocationsResult result, final long time) {
+            this.key = key;
+            this.result = result;
+            this.time = time;
+        }
+    }
+}
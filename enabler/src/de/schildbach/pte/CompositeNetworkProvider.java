@@ -0,0 +1,390 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import de.schildbach.pte.dto.Departure;
+import de.schildbach.pte.dto.LineDestination;
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.NearbyLocationsResult;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.dto.ResultHeader;
+import de.schildbach.pte.dto.StationDepartures;
+import de.schildbach.pte.dto.SuggestLocationsResult;
+import de.schildbach.pte.dto.SuggestedLocation;
+
+/**
+ * Queries several providers of overlapping networks at once. {@link #suggestLocations(CharSequence)} and
+ * {@link #queryNearbyLocations(EnumSet, Location, int, int)} are fanned out in parallel with a shared deadline;
+ * whatever has arrived by then is merged, with locations deduped by name and proximity. Earlier providers win when
+ * deduping.
+ * 
+ * <p>
+ * Station ids are specific to a network, so {@link #queryDepartures(String, Date, int, boolean)} and nearby queries
+ * for locations without coordinates take ids of the first provider. Nearby queries by id go to the first provider
+ * only. The other providers are only asked for departures if the station can be found near its coordinates in their
+ * network, under their own id, within the same deadline. All other calls go to the first provider.
+ * </p>
+ */
+public class CompositeNetworkProvider extends ForwardingNetworkProvider {
+    private final List<NetworkProvider> providers;
+    private final ExecutorService executor;
+    private final long timeoutMillis;
+    // station ids of the first provider to those of the other providers, or to "" if there is none
+    private final Cache<String, String> stationIds = CacheBuilder.newBuilder().maximumSize(1000)
+            .expireAfterWrite(1, TimeUnit.DAYS).build();
+
+    private static final int SAME_LOCATION_DISTANCE = 200; // meters
+
+    private static final Logger log = LoggerFactory.getLogger(CompositeNetworkProvider.class);
+
+    /**
+     * @param providers
+     *            providers to query, in order of preference
+     * @param executor
+     *            runs the queries, should allow at least as many concurrent tasks as there are providers
+     * @param timeoutMillis
+     *            deadline for each call, after which outstanding queries are cancelled
+     */
+    public CompositeNetworkProvider(final List<? extends NetworkProvider> providers, final ExecutorService executor,
+            final long timeoutMillis) {
+        super(providers.get(0));
+        checkArgument(timeoutMillis > 0, "timeoutMillis must be positive");
+        this.providers = new ArrayList<>(providers);
+        this.executor = checkNotNull(executor);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public SuggestLocationsResult suggestLocations(final CharSequence constraint) throws IOException {
+        final List<SuggestLocationsResult> results = fanOut(providers, new Query<SuggestLocationsResult>() {
+            @Override
+            public SuggestLocationsResult query(final NetworkProvider provider) throws IOException {
+                return provider.suggestLocations(constraint);
+            }
+        }, deadline());
+
+        ResultHeader header = null;
+        boolean ok = false;
+        final List<SuggestedLocation> merged = new ArrayList<>();
+        final List<Location> seen = new ArrayList<>();
+        for (final SuggestLocationsResult result : results) {
+            if (result == null || result.status != SuggestLocationsResult.Status.OK)
+                continue;
+            if (!ok)
+                header = result.header;
+            ok = true;
+            for (final SuggestedLocation suggestedLocation : result.suggestedLocations)
+                if (addIfNew(seen, suggestedLocation.location))
+                    merged.add(suggestedLocation);
+        }
+        if (!ok)
+            return new SuggestLocationsResult(null, SuggestLocationsResult.Status.SERVICE_DOWN);
+        return new SuggestLocationsResult(header, merged);
+    }
+
+    @Override
+    public NearbyLocationsResult queryNearbyLocations(final EnumSet<LocationType> types, final Location location,
+            final int maxDistance, final int maxLocations) throws IOException {
+        // an id is only valid in the network of the first provider
+        final List<NetworkProvider> queried = location.hasLocation() ? providers : providers.subList(0, 1);
+        final List<NearbyLocationsResult> results = fanOut(queried, new Query<NearbyLocationsResult>() {
+            @Override
+            public NearbyLocationsResult query(final NetworkProvider provider) throws IOException {
+                return provider.queryNearbyLocations(types, location, maxDistance, maxLocations);
+            }
+        }, deadline());
+
+        ResultHeader header = null;
+        boolean ok = false;
+        boolean invalidId = false;
+        final List<Location> merged = new ArrayList<>();
+        for (final NearbyLocationsResult result : results) {
+            if (result == null)
+                continue;
+            if (result.status == NearbyLocationsResult.Status.INVALID_ID)
+                invalidId = true;
+            if (result.status != NearbyLocationsResult.Status.OK)
+                continue;
+            if (!ok)
+                header = result.header;
+            ok = true;
+            for (final Location nearbyLocation : result.locations)
+                addIfNew(merged, nearbyLocation);
+        }
+        if (!ok)
+            return new NearbyLocationsResult(null, invalidId ? NearbyLocationsResult.Status.INVALID_ID
+                    : NearbyLocationsResult.Status.SERVICE_DOWN);
+        if (location.hasLocation())
+            sortByDistance(merged, location);
+        return new NearbyLocationsResult(header, limit(merged, maxLocations));
+    }
+
+    @Override
+    public QueryDeparturesResult queryDepartures(final String stationId, final @Nullable Date time,
+            final int maxDepartures, final boolean equivs) throws IOException {
+        final long deadline = deadline();
+        final QueryDeparturesResult ownResult = fanOut(providers.subList(0, 1), new Query<QueryDeparturesResult>() {
+            @Override
+            public QueryDeparturesResult query(final NetworkProvider provider) throws IOException {
+                return provider.queryDepartures(stationId, time, maxDepartures, equivs);
+            }
+        }, deadline).get(0);
+        if (ownResult == null)
+            return new QueryDeparturesResult(null, QueryDeparturesResult.Status.SERVICE_DOWN);
+        if (ownResult.status != QueryDeparturesResult.Status.OK || ownResult.stationDepartures.isEmpty()
+                || providers.size() == 1)
+            return ownResult;
+        final Location ownStation = ownResult.stationDepartures.get(0).location;
+        if (!ownStation.hasLocation())
+            return ownResult;
+
+        final List<QueryDeparturesResult> results = new ArrayList<>();
+        results.add(ownResult);
+        try {
+            results.addAll(fanOut(providers.subList(1, providers.size()), new Query<QueryDeparturesResult>() {
+                @Override
+                public QueryDeparturesResult query(final NetworkProvider provider) throws IOException {
+                    final String id = resolveStationId(provider, stationId, ownStation);
+                    return id != null ? provider.queryDepartures(id, time, maxDepartures, equivs) : null;
+                }
+            }, deadline));
+        } catch (final IOException x) {
+            // the other providers only add to what we already have
+        }
+
+        final List<MergedStation> stations = new ArrayList<>();
+        for (final QueryDeparturesResult result : results) {
+            if (result == null || result.status != QueryDeparturesResult.Status.OK)
+                continue;
+            for (final StationDepartures stationDepartures : result.stationDepartures) {
+                MergedStation station = null;
+                for (final MergedStation mergedStation : stations) {
+                    if (isSame(mergedStation.location, stationDepartures.location)) {
+                        station = mergedStation;
+                        break;
+                    }
+                }
+                if (station == null) {
+                    station = new MergedStation(stationDepartures.location);
+                    stations.add(station);
+                }
+                for (final Departure departure : stationDepartures.departures)
+                    if (station.keys.add(departureKey(departure)))
+                        station.departures.add(departure);
+                if (stationDepartures.lines != null) {
+                    if (station.lines == null)
+                        station.lines = new LinkedHashSet<>();
+                    station.lines.addAll(stationDepartures.lines);
+                }
+            }
+        }
+
+        final QueryDeparturesResult merged = new QueryDeparturesResult(ownResult.header);
+        for (final MergedStation station : stations) {
+            Collections.sort(station.departures, Departure.TIME_COMPARATOR);
+            merged.stationDepartures.add(new StationDepartures(station.location,
+                    limit(station.departures, maxDepartures),
+                    station.lines != null ? new ArrayList<>(station.lines) : null));
+        }
+        return merged;
+    }
+
+    /**
+     * Finds the id of the given station of the first provider in the network of another provider.
+     * 
+     * @return id, or {@code null} if the other network doesn't have the station
+     */
+    private @Nullable String resolveStationId(final NetworkProvider provider, final String stationId,
+            final Location station) throws IOException {
+        final String key = provider.id() + "|" + stationId;
+        final String cachedId = stationIds.getIfPresent(key);
+        if (cachedId != null)
+            return Strings.emptyToNull(cachedId);
+
+        final NearbyLocationsResult result = provider.queryNearbyLocations(EnumSet.of(LocationType.STATION),
+                station, SAME_LOCATION_DISTANCE, 0);
+        if (result.status != NearbyLocationsResult.Status.OK)
+            return null; // maybe temporary, so don't remember
+        String id = null;
+        for (final Location location : result.locations) {
+            if (location.hasId() && isSame(station, location)) {
+                id = location.id;
+                break;
+            }
+        }
+        stationIds.put(key, Strings.nullToEmpty(id));
+        return id;
+    }
+
+    private interface Query<T> {
+        T query(NetworkProvider provider) throws IOException;
+    }
+
+    private long deadline() {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * Runs the query against the given providers and waits for them until the deadline, as of
+     * {@link System#nanoTime()}. The results are in provider order, with {@code null} for providers that failed or
+     * didn't make it in time.
+     */
+    private <T> List<T> fanOut(final List<NetworkProvider> providers, final Query<T> query, final long deadline)
+            throws IOException {
+        final long remainingNanos = deadline - System.nanoTime();
+        if (remainingNanos <= 0)
+            return new ArrayList<>(Collections.<T> nCopies(providers.size(), null));
+
+        final List<Callable<T>> tasks = new ArrayList<>(providers.size());
+        for (final NetworkProvider provider : providers) {
+            tasks.add(new Callable<T>() {
+                @Override
+                public T call() throws IOException {
+                    return query.query(provider);
+                }
+            });
+        }
+
+        final List<Future<T>> futures;
+        try {
+            futures = executor.invokeAll(tasks, remainingNanos, TimeUnit.NANOSECONDS);
+        } catch (final InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while querying providers", x);
+        }
+
+        final List<T> results = new ArrayList<>(futures.size());
+        IOException firstException = null;
+        for (int i = 0; i < futures.size(); i++) {
+            final NetworkId network = providers.get(i).id();
+            try {
+                results.add(futures.get(i).get());
+            } catch (final CancellationException x) {
+                log.info("{} didn't answer within {} ms", network, timeoutMillis);
+                results.add(null);
+            } catch (final ExecutionException x) {
+                final Throwable cause = x.getCause();
+                log.info("{} failed: {}", network, cause.toString());
+                if (firstException == null && cause instanceof IOException)
+                    firstException = (IOException) cause;
+                results.add(null);
+            } catch (final InterruptedException x) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while querying providers", x);
+            }
+        }
+
+        // only fail if no provider was able to answer
+        if (firstException != null && Collections.frequency(results, null) == results.size())
+            throw firstException;
+        return results;
+    }
+
+    private static <T> List<T> limit(final List<T> list, final int max) {
+        return max > 0 && list.size() > max ? new ArrayList<>(list.subList(0, max)) : list;
+    }
+
+    private static boolean addIfNew(final List<Location> locations, final Location location) {
+        for (final Location other : locations)
+            if (isSame(location, other))
+                return false;
+        locations.add(location);
+        return true;
+    }
+
+    /**
+     * Locations from different networks are the same if they have the same type and name, and are close to each other
+     * if both have coordinates.
+     */
+    private static boolean isSame(final Location location1, final Location location2) {
+        if (location1.type != location2.type)
+            return false;
+        if (!normalizeName(location1.name).equals(normalizeName(location2.name)))
+            return false;
+        if (location1.hasLocation() && location2.hasLocation())
+            return LocationUtils.computeApproximateDistance(location1.lat, location1.lon, location2.lat,
+                    location2.lon) <= SAME_LOCATION_DISTANCE;
+        return normalizeName(location1.place).equals(normalizeName(location2.place));
+    }
+
+    private static String normalizeName(final @Nullable String name) {
+        return Strings.nullToEmpty(name).trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    private static String departureKey(final Departure departure) {
+        final Date time = departure.plannedTime != null ? departure.plannedTime : departure.predictedTime;
+        return departure.line.product + "|" + departure.line.label + "|" + time.getTime() + "|"
+                + (departure.destination != null ? normalizeName(departure.destination.name) : "");
+    }
+
+    private static void sortByDistance(final List<Location> locations, final Location center) {
+        Collections.sort(locations, new Comparator<Location>() {
+            @Override
+            public int compare(final Location l1, final Location l2) {
+                return Float.compare(distance(l1), distance(l2));
+            }
+
+            private float distance(final Location location) {
+                return location.hasLocation() ? LocationUtils.computeApproximateDistance(center.lat, center.lon,
+                        location.lat, location.lon) : Float.MAX_VALUE;
+            }
+        });
+    }
+
+    private static final class MergedStation {
+        private final Location location;
+        private final List<Departure> departures = new ArrayList<>();
+        private final Set<String> keys = new HashSet<>();
+        private Set<LineDestination> lines = null;
+
+        public MergedStation(final Location location) {
+            this.location = location;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.schildbach.pte.dto.Area;
+import de.schildbach.pte.dto.Point;
+
+/**
+ * Immutable index of the areas covered by networks, as reported by {@link NetworkProvider#getArea()}, to find the
+ * networks that can serve a coordinate. Polygons are tested by bounding box first and then by ray casting, optionally
+ * after simplifying them. Areas of two points are taken as the opposite corners of a rectangle, and areas of a single
+ * point as a circle of a configurable radius around it.
+ */
+public final class CoverageIndex {
+    private final Region[] regions;
+
+    private static final Logger log = LoggerFactory.getLogger(CoverageIndex.class);
+
+    private CoverageIndex(final List<Region> regions) {
+        this.regions = regions.toArray(new Region[regions.size()]);
+    }
+
+    /**
+     * Builds an index from the areas of the given providers, without simplifying them.
+     * 
+     * @see #fromProviders(Iterable, int, int)
+     */
+    public static CoverageIndex fromProviders(final Iterable<? extends NetworkProvider> providers,
+            final int centerRadius) {
+        return fromProviders(providers, centerRadius, 0);
+    }
+
+    /**
+     * Builds an index from the areas of the given providers. Providers without area are left out, as are those whose
+     * area cannot be fetched. Areas of an {@link AbstractNetworkProvider} are taken from
+     * {@link AbstractNetworkProvider#area()}, so that they are fetched and simplified only once even if the index is
+     * rebuilt.
+     * 
+     * @param centerRadius
+     *            radius in meters for areas that consist of just a center point
+     * @param tolerance
+     *            in meters, see {@link Area#simplify(int)}
+     */
+    public static CoverageIndex fromProviders(final Iterable<? extends NetworkProvider> providers,
+            final int centerRadius, final int tolerance) {
+        final Builder builder = new Builder(centerRadius, tolerance);
+        for (final NetworkProvider provider : providers) {
+            try {
+                if (provider instanceof AbstractNetworkProvider) {
+                    final Area area = ((AbstractNetworkProvider) provider).area();
+                    if (area != null)
+                        builder.add(provider.id(), area);
+                } else {
+                    final Point[] area = provider.getArea();
+                    if (area != null)
+                        builder.add(provider.id(), area);
+                }
+            } catch (final IOException x) {
+                log.warn("cannot get area of {}: {}", provider.id(), x.toString());
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the networks whose area contains the given coordinate
+     */
+    public Set<NetworkId> networksAt(final int lat, final int lon) {
+        final Set<NetworkId> networks = EnumSet.noneOf(NetworkId.class);
+        for (final Region region : regions)
+            if (region.contains(lat, lon))
+                networks.add(region.network);
+        return networks;
+    }
+
+    public Set<NetworkId> networksAt(final Point point) {
+        return networksAt(point.lat, point.lon);
+    }
+
+    public static final class Builder {
+        private final int centerRadius;
+        private final int tolerance;
+        private final List<Region> regions = new ArrayList<>();
+
+        public Builder(final int centerRadius) {
+            this(centerRadius, 0);
+        }
+
+        /**
+         * @param tolerance
+         *            in meters by which polygons may be simplified, see {@link Area#simplify(int)}
+         */
+        public Builder(final int centerRadius, final int tolerance) {
+            checkArgument(centerRadius >= 0, "centerRadius cannot be negative");
+            checkArgument(tolerance >= 0, "tolerance cannot be negative");
+            this.centerRadius = centerRadius;
+            this.tolerance = tolerance;
+        }
+
+        public Builder add(final NetworkId network, final Point[] area) {
+            return add(network, new Area(area));
+        }
+
+        public Builder add(final NetworkId network, final Area area) {
+            checkNotNull(network);
+            if (area.size() == 1) {
+                regions.add(new Region(network, area.getPoint(0), centerRadius));
+            } else if (area.size() == 2) {
+                final Point a = area.getPoint(0), b = area.getPoint(1);
+                regions.add(new Region(network, new Area(a, new Point(a.lat, b.lon), b, new Point(b.lat, a.lon))));
+            } else {
+                regions.add(new Region(network, area.simplify(tolerance)));
+            }
+            return this;
+        }
+
+        public CoverageIndex build() {
+            return new CoverageIndex(regions);
+        }
+    }
+
+    private static final class Region {
+        private final NetworkId network;
+        private final Area bounds;
+        private final int[] lats, lons; // polygon vertices, or just the center if radius is set
+        private final int radius;
+
+        public Region(final NetworkId network, final Area polygon) {
+            this.network = network;
+            this.radius = 0;
+            final int n = polygon.size();
+            this.lats = new int[n];
+            this.lons = new int[n];
+            for (int i = 0; i < n; i++) {
+                final Point point = polygon.getPoint(i);
+                lats[i] = point.lat;
+                lons[i] = point.lon;
+            }
+            this.bounds = polygon;
+        }
+
+        public Region(final NetworkId network, final Point center, final int radius) {
+            this.network = network;
+            this.radius = radius;
+            this.lats = new int[] { center.lat };
+            this.lons = new int[] { center.lon };
+            final int latSpan = LocationUtils.latitudeSpan(radius);
+            final int lonSpan = LocationUtils.longitudeSpan(center.lat, radius);
+            this.bounds = new Area(new Point(center.lat - latSpan, center.lon - lonSpan),
+                    new Point(center.lat + latSpan, center.lon + lonSpan));
+        }
+
+        public boolean contains(final int lat, final int lon) {
+            if (!bounds.boundingBoxContains(lat, lon))
+                return false;
+            if (radius > 0)
+                return LocationUtils.computeApproximateDistance(lats[0], lons[0], lat, lon) <= radius;
+
+            // even-odd rule, casting a ray towards increasing longitude
+            boolean inside = false;
+            for (int i = 0, j = lats.length - 1; i < lats.length; j = i++) {
+                final int latI = lats[i], latJ = lats[j];
+                if ((latI > lat) != (latJ > lat)) {
+                    final double crossingLon = lons[i]
+                            + (double) (lons[j] - lons[i]) * (lat - latI) / (latJ - latI);
+                    if (lon < crossingLon)
+                        inside = !inside;
+                }
+            }
+            return inside;
+        }
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Objects;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import de.schildbach.pte.dto.Departure;
+import de.schildbach.pte.dto.DeparturesDiff;
+import de.schildbach.pte.dto.LineDestination;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.dto.StationDepartures;
+
+/**
+ * Polls the departure board of a station and reports only what changed since the previous poll. The boards of all
+ * stations returned for the query are combined. The poll interval adapts: it is reset to the minimum whenever the
+ * board changed, and grows towards the maximum while it doesn't or while the upstream fails.
+ */
+public class DeparturesSubscription implements Closeable {
+    public interface Listener {
+        /**
+         * Called after each successful poll; the first diff lists the whole board as added.
+         */
+        void onDepartures(DeparturesSubscription subscription, DeparturesDiff diff);
+
+        void onFailure(DeparturesSubscription subscription, QueryDeparturesResult.Status status);
+    }
+
+    private final NetworkProvider provider;
+    private final String stationId;
+    private final int maxDepartures;
+    private final boolean equivs;
+    private final ScheduledExecutorService scheduler;
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+    private volatile Executor pollExecutor = MoreExecutors.directExecutor();
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    // guards the board along with delivering diffs of it, so that listeners get them in order
+    private final Object deliveryLock = new Object();
+    private volatile List<Departure> departures = Collections.emptyList();
+    private volatile long intervalMillis;
+    private volatile boolean closed = false;
+    private @Nullable Future<?> scheduled = null;
+
+    private static final Logger log = LoggerFactory.getLogger(DeparturesSubscription.class);
+
+    public DeparturesSubscription(final NetworkProvider provider, final String stationId, final int maxDepartures,
+            final boolean equivs, final ScheduledExecutorService scheduler) {
+        this(provider, stationId, maxDepartures, equivs, scheduler, TimeUnit.SECONDS.toMillis(30),
+                TimeUnit.MINUTES.toMillis(2));
+    }
+
+    public DeparturesSubscription(final NetworkProvider provider, final String stationId, final int maxDepartures,
+            final boolean equivs, final ScheduledExecutorService scheduler, final long minIntervalMillis,
+            final long maxIntervalMillis) {
+        checkArgument(minIntervalMillis > 0 && minIntervalMillis <= maxIntervalMillis, "invalid interval");
+        this.provider = checkNotNull(provider);
+        this.stationId = checkNotNull(stationId);
+        this.maxDepartures = maxDepartures;
+        this.equivs = equivs;
+        this.scheduler = checkNotNull(scheduler);
+        this.minIntervalMillis = minIntervalMillis;
+        this.maxIntervalMillis = maxIntervalMillis;
+        this.intervalMillis = minIntervalMillis;
+    }
+
+    /**
+     * Runs the polls on the given executor rather than on the scheduler, which then only keeps time. If the executor
+     * rejects a poll, it is retried later as if the upstream had failed.
+     */
+    public DeparturesSubscription setPollExecutor(final Executor pollExecutor) {
+        this.pollExecutor = checkNotNull(pollExecutor);
+        return this;
+    }
+
+    public String stationId() {
+        return stationId;
+    }
+
+    public void addListener(final Listener listener) {
+        listeners.add(checkNotNull(listener));
+    }
+
+    /**
+     * Adds a listener that first receives the current board, if there is one yet, as a diff listing all departures as
+     * added. Diffs of later polls are delivered after it, and none of them is missed.
+     * 
+     * @return {@code false} if the subscription has been closed, in which case the listener is not added
+     */
+    public boolean addListenerWithBoard(final Listener listener) {
+        checkNotNull(listener);
+        synchronized (deliveryLock) {
+            if (closed)
+                return false;
+            listeners.add(listener);
+            if (!departures.isEmpty())
+                listener.onDepartures(this, new DeparturesDiff(new Date(), departures,
+                        Collections.<Departure> emptyList(), Collections.<Departure> emptyList()));
+            return true;
+        }
+    }
+
+    public void removeListener(final Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public int numListeners() {
+        return listeners.size();
+    }
+
+    /**
+     * @return the board as of the last successful poll
+     */
+    public List<Departure> departures() {
+        return departures;
+    }
+
+    public long intervalMillis() {
+        return intervalMillis;
+    }
+
+    /**
+     * Polls immediately and then keeps polling until closed.
+     */
+    public synchronized void start() {
+        checkArgument(scheduled == null, "already started");
+        schedule(0);
+    }
+
+    /**
+     * Closes the subscription if it has no listeners left. This cannot interleave with
+     * {@link #addListenerWithBoard(Listener)}.
+     * 
+     * @return {@code true} if the subscription is closed
+     */
+    public boolean closeIfUnused() {
+        synchronized (deliveryLock) {
+            if (!listeners.isEmpty())
+                return false;
+            close();
+            return true;
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (scheduled != null)
+            scheduled.cancel(false);
+    }
+
+    private synchronized void schedule(final long delayMillis) {
+        if (closed)
+            return;
+        try {
+            scheduled = scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        pollExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                poll();
+                            }
+                        });
+                    } catch (final RejectedExecutionException x) {
+                        log.info("cannot poll departures for {}: {}", stationId, x.toString());
+                        intervalMillis = Math.min(intervalMillis * 2, maxIntervalMillis);
+                        schedule(intervalMillis);
+                    }
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException x) {
+            log.info("cannot schedule polling departures for {}: {}", stationId, x.toString());
+        }
+    }
+
+    private void poll() {
+        if (closed)
+            return;
+
+        QueryDeparturesResult.Status status;
+        List<Departure> current = null;
+        try {
+            final QueryDeparturesResult result = provider.queryDepartures(stationId, null, maxDepartures, equivs);
+            status = result.status;
+            if (status == QueryDeparturesResult.Status.OK) {
+                current = new ArrayList<>();
+                for (final StationDepartures stationDepartures : result.stationDepartures)
+                    current.addAll(stationDepartures.departures);
+                Collections.sort(current, Departure.TIME_COMPARATOR);
+            }
+        } catch (final IOException | RuntimeException x) {
+            log.info("polling departures for {} failed: {}", stationId, x.toString());
+            status = QueryDeparturesResult.Status.SERVICE_DOWN;
+        }
+
+        if (current != null) {
+            synchronized (deliveryLock) {
+                final DeparturesDiff diff = diff(departures, current, new Date());
+                departures = Collections.unmodifiableList(current);
+                intervalMillis = diff.isEmpty() ? Math.min(intervalMillis * 3 / 2, maxIntervalMillis)
+                        : minIntervalMillis;
+                for (final Listener listener : listeners) {
+                    try {
+                        listener.onDepartures(this, diff);
+                    } catch (final RuntimeException x) {
+                        log.warn("listener failed", x);
+                    }
+                }
+            }
+        } else {
+            intervalMillis = Math.min(intervalMillis * 2, maxIntervalMillis);
+            for (final Listener listener : listeners) {
+                try {
+                    listener.onFailure(this, status);
+                } catch (final RuntimeException x) {
+                    log.warn("listener failed", x);
+                }
+            }
+        }
+
+        schedule(intervalMillis);
+    }
+
+    /**
+     * Compares two boards, identifying departures by line, destination and planned time.
+     */
+    public static DeparturesDiff diff(final List<Departure> previous, final List<Departure> current,
+            final Date time) {
+        final Map<Key, Departure> previousByKey = new LinkedHashMap<>();
+        for (final Departure departure : previous)
+            previousByKey.put(new Key(departure), departure);
+
+        final List<Departure> added = new ArrayList<>();
+        final List<Departure> changed = new ArrayList<>();
+        for (final Departure departure : current) {
+            final Departure previousDeparture = previousByKey.remove(new Key(departure));
+            if (previousDeparture == null)
+                added.add(departure);
+            else if (!Objects.equal(previousDeparture.predictedTime, departure.predictedTime)
+                    || !Objects.equal(previousDeparture.position, departure.position)
+                    || !Objects.equal(previousDeparture.message, departure.message))
+                changed.add(departure);
+        }
+        final List<Departure> removed = new ArrayList<>(previousByKey.values());
+        return new DeparturesDiff(time, added, removed, changed);
+    }
+
+    private static final class Key {
+        private final LineDestination lineDestination;
+        private final @Nullable Date plannedTime;
+
+        public Key(final Departure departure) {
+            this.lineDestination = new LineDestination(departure.line, departure.destination);
+            this.plannedTime = departure.plannedTime != null ? departure.plannedTime : departure.predictedTime;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (o == this)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            final Key other = (Key) o;
+            return lineDestination.equals(other.lineDestination) && Objects.equal(plannedTime, other.plannedTime);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(lineDestination, plannedTime);
+        }
+    }
+}
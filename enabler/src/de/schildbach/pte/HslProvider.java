@@ -37,7 +37,6 @@ import javax.annotation.Nullable;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
-import org.xmlpull.v1.XmlPullParserFactory;
 
 import com.google.common.base.Joiner;
 
@@ -75,8 +74,6 @@ public class HslProvider extends AbstractNetworkProvider {
     private static final int EARLIER_TRIPS_MINUTE_OFFSET = 5;
     private static final int EARLIER_TRIPS_MINIMUM = 3;
 
-    private final XmlPullParserFactory parserFactory;
-
     private String user;
     private String pass;
 
@@ -85,13 +82,6 @@ public class HslProvider extends AbstractNetworkProvider {
 
         this.user = user;
         this.pass = pass;
-
-        try {
-            parserFactory = XmlPullParserFactory.newInstance(System.getProperty(XmlPullParserFactory.PROPERTY_NAME),
-                    null);
-        } catch (final XmlPullParserException x) {
-            throw new RuntimeException(x);
-        }
     }
 
     @Override
@@ -147,7 +137,7 @@ public class HslProvider extends AbstractNetworkProvider {
             @Override
             public void onSuccessful(final CharSequence bodyPeek, final ResponseBody body) throws IOException {
                 try {
-                    final XmlPullParser pp = parserFactory.newPullParser();
+                    final XmlPullParser pp = XmlPullUtil.newPullParser();
                     pp.setInput(body.charStream());
 
                     XmlPullUtil.enter(pp, "response");
@@ -190,7 +180,7 @@ public class HslProvider extends AbstractNetworkProvider {
             @Override
             public void onSuccessful(final CharSequence bodyPeek, final ResponseBody body) throws IOException {
                 try {
-                    final XmlPullParser pp = parserFactory.newPullParser();
+                    final XmlPullParser pp = XmlPullUtil.newPullParser();
                     pp.setInput(body.charStream());
 
                     final List<Location> stations = new ArrayList<>();
@@ -268,7 +258,7 @@ public class HslProvider extends AbstractNetworkProvider {
             @Override
             public void onSuccessful(final CharSequence bodyPeek, final ResponseBody body) throws IOException {
                 try {
-                    final XmlPullParser pp = parserFactory.newPullParser();
+                    final XmlPullParser pp = XmlPullUtil.newPullParser();
                     pp.setInput(body.charStream());
 
                     XmlPullUtil.enter(pp, "response");
@@ -350,7 +340,7 @@ public class HslProvider extends AbstractNetworkProvider {
                     final ResultHeader header = new ResultHeader(network, SERVER_PRODUCT);
                     final List<SuggestedLocation> locations = new ArrayList<>();
 
-                    final XmlPullParser pp = parserFactory.newPullParser();
+                    final XmlPullParser pp = XmlPullUtil.newPullParser();
                     pp.setInput(body.charStream());
 
                     XmlPullUtil.enter(pp, "response");
@@ -556,7 +546,7 @@ public class HslProvider extends AbstractNetworkProvider {
             @Override
             public void onSuccessful(final CharSequence bodyPeek, final ResponseBody body) throws IOException {
                 try {
-                    final XmlPullParser pp = parserFactory.newPullParser();
+                    final XmlPullParser pp = XmlPullUtil.newPullParser();
                     pp.setInput(body.charStream());
 
                     XmlPullUtil.enter(pp, "response");
@@ -0,0 +1,173 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.NearbyLocationsResult;
+import de.schildbach.pte.dto.ResultHeader;
+import de.schildbach.pte.dto.SuggestLocationsResult;
+import de.schildbach.pte.dto.SuggestedLocation;
+
+/**
+ * Answers {@link #queryNearbyLocations(EnumSet, Location, int, int)} from a {@link LocationIndex} where possible. The
+ * index is fed with every location that passes through this provider, and can be bulk-filled upfront.
+ * 
+ * <p>
+ * The index only knows what it has been fed, so a query is answered locally only if the index yields any locations
+ * and has been declared complete, or if an earlier upstream answer covered the query: every location of the requested
+ * types within the circle that the local answer needs must have been part of that answer. Otherwise, it goes upstream.
+ * </p>
+ */
+public class IndexedNearbyLocationsProvider extends ForwardingNetworkProvider {
+    private final LocationIndex index;
+    private volatile boolean complete = false;
+    private final Deque<Coverage> coverages = new ArrayDeque<>();
+
+    private static final String SERVER_PRODUCT = "index";
+    private static final int MAX_COVERAGES = 256;
+
+    public IndexedNearbyLocationsProvider(final NetworkProvider delegate) {
+        this(delegate, new LocationIndex());
+    }
+
+    public IndexedNearbyLocationsProvider(final NetworkProvider delegate, final LocationIndex index) {
+        super(delegate);
+        this.index = checkNotNull(index);
+    }
+
+    /**
+     * Bulk-fills the index, e.g. from a stop list.
+     * 
+     * @param complete
+     *            whether the index now contains all locations of the network, so that local answers can be trusted
+     *            even if they are short
+     */
+    public void importLocations(final Iterable<Location> locations, final boolean complete) {
+        index.addAll(locations);
+        if (complete)
+            this.complete = true;
+    }
+
+    public LocationIndex index() {
+        return index;
+    }
+
+    @Override
+    public NearbyLocationsResult queryNearbyLocations(final EnumSet<LocationType> types, final Location location,
+            final int maxDistance, final int maxLocations) throws IOException {
+        if (location.hasLocation() && maxDistance > 0) {
+            final List<Location> locations = index.nearby(types, location.lat, location.lon, maxDistance,
+                    maxLocations);
+            if ((complete && !locations.isEmpty()) || isCovered(types, location, maxDistance, maxLocations, locations))
+                return new NearbyLocationsResult(new ResultHeader(id(), SERVER_PRODUCT), locations);
+        }
+
+        final NearbyLocationsResult result = delegate.queryNearbyLocations(types, location, maxDistance,
+                maxLocations);
+        if (result.status == NearbyLocationsResult.Status.OK) {
+            index.addAll(result.locations);
+            if (location.hasLocation())
+                addCoverage(types, location, maxDistance, maxLocations, result.locations);
+        }
+        return result;
+    }
+
+    private boolean isCovered(final Set<LocationType> types, final Location location, final int maxDistance,
+            final int maxLocations, final List<Location> locations) {
+        // if the local answer is full, only the circle up to its farthest location needs to be known
+        float radius = maxDistance;
+        if (maxLocations > 0 && locations.size() >= maxLocations) {
+            final Location farthest = locations.get(locations.size() - 1);
+            radius = Math.min(radius, LocationUtils.computeApproximateDistance(location.lat, location.lon,
+                    farthest.lat, farthest.lon));
+        }
+        synchronized (coverages) {
+            for (final Coverage coverage : coverages)
+                if (coverage.covers(types, location.lat, location.lon, radius))
+                    return true;
+        }
+        return false;
+    }
+
+    private void addCoverage(final Set<LocationType> types, final Location location, final int maxDistance,
+            final int maxLocations, final List<Location> locations) {
+        // locations the index can't hold would be missing from local answers
+        for (final Location l : locations)
+            if (types.contains(l.type) && (!l.hasId() || !l.hasLocation()))
+                return;
+
+        float radius;
+        if (maxDistance > 0 && maxLocations > 0 && locations.size() < maxLocations) {
+            radius = maxDistance;
+        } else {
+            // the answer may have been cut short, so it only tells about the circle up to its farthest location
+            radius = 0;
+            for (final Location l : locations)
+                if (types.contains(l.type))
+                    radius = Math.max(radius,
+                            LocationUtils.computeApproximateDistance(location.lat, location.lon, l.lat, l.lon));
+            if (maxDistance > 0)
+                radius = Math.min(radius, maxDistance);
+            if (radius == 0)
+                return;
+        }
+        synchronized (coverages) {
+            if (coverages.size() >= MAX_COVERAGES)
+                coverages.removeFirst();
+            coverages.addLast(new Coverage(types, location.lat, location.lon, radius));
+        }
+    }
+
+    @Override
+    public SuggestLocationsResult suggestLocations(final CharSequence constraint) throws IOException {
+        final SuggestLocationsResult result = delegate.suggestLocations(constraint);
+        if (result.status == SuggestLocationsResult.Status.OK)
+            for (final SuggestedLocation suggestedLocation : result.suggestedLocations)
+                index.add(suggestedLocation.location);
+        return result;
+    }
+
+    private static final class Coverage {
+        private final Set<LocationType> types;
+        private final int lat, lon;
+        private final float radius;
+
+        public Coverage(final Set<LocationType> types, final int lat, final int lon, final float radius) {
+            this.types = EnumSet.copyOf(types);
+            this.lat = lat;
+            this.lon = lon;
+            this.radius = radius;
+        }
+
+        public boolean covers(final Set<LocationType> types, final int lat, final int lon, final float radius) {
+            if (!this.types.containsAll(types))
+                return false;
+            return LocationUtils.computeApproximateDistance(this.lat, this.lon, lat, lon) + radius <= this.radius;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.NearbyLocationsResult;
+import de.schildbach.pte.dto.Point;
+import de.schildbach.pte.dto.Product;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.dto.QueryTripsContext;
+import de.schildbach.pte.dto.QueryTripsResult;
+import de.schildbach.pte.dto.StationDepartures;
+import de.schildbach.pte.dto.SuggestLocationsResult;
+import de.schildbach.pte.util.HttpClient;
+import de.schildbach.pte.util.MetricsListener;
+
+/**
+ * Reports duration, result count and failure of each operation to a {@link MetricsListener}. HTTP exchanges made
+ * during an operation are tagged with the operation name.
+ */
+public class InstrumentedNetworkProvider extends ForwardingNetworkProvider {
+    public static final String SUGGEST_LOCATIONS = "suggestLocations";
+    public static final String QUERY_NEARBY_LOCATIONS = "queryNearbyLocations";
+    public static final String QUERY_DEPARTURES = "queryDepartures";
+    public static final String QUERY_TRIPS = "queryTrips";
+    public static final String QUERY_MORE_TRIPS = "queryMoreTrips";
+    public static final String GET_AREA = "getArea";
+
+    private final MetricsListener listener;
+
+    /**
+     * If the delegate is an {@link AbstractNetworkProvider}, its HTTP exchanges are reported to the listener as well.
+     */
+    public InstrumentedNetworkProvider(final NetworkProvider delegate, final MetricsListener listener) {
+        super(delegate);
+        this.listener = checkNotNull(listener);
+        if (delegate instanceof AbstractNetworkProvider)
+            ((AbstractNetworkProvider) delegate).setMetricsListener(listener);
+    }
+
+    @Override
+    public NearbyLocationsResult queryNearbyLocations(final EnumSet<LocationType> types, final Location location,
+            final int maxDistance, final int maxLocations) throws IOException {
+        final Operation operation = new Operation(QUERY_NEARBY_LOCATIONS);
+        try {
+            final NearbyLocationsResult result = super.queryNearbyLocations(types, location, maxDistance,
+                    maxLocations);
+            operation.done(size(result.locations));
+            return result;
+        } catch (final IOException | RuntimeException x) {
+            operation.failed(x);
+            throw x;
+        }
+    }
+
+    @Override
+    public QueryDeparturesResult queryDepartures(final String stationId, final @Nullable Date time,
+            final int maxDepartures, final boolean equivs) throws IOException {
+        final Operation operation = new Operation(QUERY_DEPARTURES);
+        try {
+            final QueryDeparturesResult result = super.queryDepartures(stationId, time, maxDepartures, equivs);
+            int count = 0;
+            for (final StationDepartures stationDepartures : result.stationDepartures)
+                count += size(stationDepartures.departures);
+            operation.done(count);
+            return result;
+        } catch (final IOException | RuntimeException x) {
+            operation.failed(x);
+            throw x;
+        }
+    }
+
+    @Override
+    public SuggestLocationsResult suggestLocations(final CharSequence constraint) throws IOException {
+        final Operation operation = new Operation(SUGGEST_LOCATIONS);
+        try {
+            final SuggestLocationsResult result = super.suggestLocations(constraint);
+            operation.done(size(result.suggestedLocations));
+            return result;
+        } catch (final IOException | RuntimeException x) {
+            operation.failed(x);
+            throw x;
+        }
+    }
+
+    @Override
+    public QueryTripsResult queryTrips(final Location from, final @Nullable Location via, final Location to,
+            final Date date, final boolean dep, final @Nullable Set<Product> products,
+            final @Nullable Optimize optimize, final @Nullable WalkSpeed walkSpeed,
+            final @Nullable Accessibility accessibility, final @Nullable Set<Option> options) throws IOException {
+        final Operation operation = new Operation(QUERY_TRIPS);
+        try {
+            final QueryTripsResult result = super.queryTrips(from, via, to, date, dep, products, optimize,
+                    walkSpeed, accessibility, options);
+            operation.done(size(result.trips));
+            return result;
+        } catch (final IOException | RuntimeException x) {
+            operation.failed(x);
+            throw x;
+        }
+    }
+
+    @Override
+    public QueryTripsResult queryMoreTrips(final QueryTripsContext context, final boolean later) throws IOException {
+        final Operation operation = new Operation(QUERY_MORE_TRIPS);
+        try {
+            final QueryTripsResult result = super.queryMoreTrips(context, later);
+            operation.done(size(result.trips));
+            return result;
+        } catch (final IOException | RuntimeException x) {
+            operation.failed(x);
+            throw x;
+        }
+    }
+
+    @Override
+    public Point[] getArea() throws IOException {
+        final Operation operation = new Operation(GET_AREA);
+        try {
+            final Point[] area = super.getArea();
+            operation.done(area != null ? area.length : 0);
+            return area;
+        } catch (final IOException | RuntimeException x) {
+            operation.failed(x);
+            throw x;
+        }
+    }
+
+    private static int size(final @Nullable List<?> list) {
+        return list != null ? list.size() : 0;
+    }
+
+    private final class Operation {
+        private final String name;
+        private final long startNanos;
+        private final @Nullable String previous;
+
+        public Operation(final String name) {
+            this.name = name;
+            this.previous = HttpClient.setOperation(name);
+            this.startNanos = System.nanoTime();
+        }
+
+        public void done(final int resultCount) {
+            finish(resultCount, null);
+        }
+
+        public void failed(final Throwable failure) {
+            finish(-1, failure);
+        }
+
+        private void finish(final int resultCount, final @Nullable Throwable failure) {
+            final long durationNanos = System.nanoTime() - startNanos;
+            HttpClient.setOperation(previous);
+            listener.onOperation(id(), name, durationNanos, resultCount, failure);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+
+/**
+ * In-memory spatial index of identified locations, organized as a uniform grid over microdegree coordinates. Locations
+ * are replaced by type and ID, so the index can be fed repeatedly from upstream results. All methods are thread-safe;
+ * queries run concurrently.
+ */
+public final class LocationIndex {
+    private static final int APPROXIMATION_LIMIT = 100000; // meters
+
+    private final int cellSize;
+    private final Map<Long, List<Location>> cells = new HashMap<>();
+    private final Map<String, Location> locationsById = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public LocationIndex() {
+        this(10000); // roughly 1 km
+    }
+
+    /**
+     * @param cellSize
+     *            edge length of the grid cells in microdegrees
+     */
+    public LocationIndex(final int cellSize) {
+        checkArgument(cellSize > 0, "cellSize must be positive");
+        this.cellSize = cellSize;
+    }
+
+    /**
+     * Adds or replaces a location. Locations without ID or coordinates are ignored.
+     */
+    public void add(final Location location) {
+        if (!location.hasId() || !location.hasLocation())
+            return;
+        lock.writeLock().lock();
+        try {
+            final Location previous = locationsById.put(key(location), location);
+            if (previous != null) {
+                final long previousCellKey = cellKeyOf(previous);
+                final List<Location> previousCell = cells.get(previousCellKey);
+                previousCell.remove(previous);
+                if (previousCell.isEmpty())
+                    cells.remove(previousCellKey);
+            }
+            final long cellKey = cellKeyOf(location);
+            List<Location> cell = cells.get(cellKey);
+            if (cell == null) {
+                cell = new ArrayList<>(4);
+                cells.put(cellKey, cell);
+            }
+            cell.add(location);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void addAll(final Iterable<Location> locations) {
+        for (final Location location : locations)
+            add(location);
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return locationsById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the locations of the given types within a distance, nearest first.
+     * 
+     * @param maxDistance
+     *            maximum distance in meters
+     * @param maxLocations
+     *            maximum number of locations, or 0 for no limit
+     */
+    public List<Location> nearby(final Set<LocationType> types, final int lat, final int lon, final int maxDistance,
+            final int maxLocations) {
+        final int latSpan = LocationUtils.latitudeSpan(maxDistance);
+        final int lonSpan = LocationUtils.longitudeSpan(lat, maxDistance);
+        final int minLatCell = cell(lat - latSpan), maxLatCell = cell(lat + latSpan);
+        final int minLonCell = cell(lon - lonSpan), maxLonCell = cell(lon + lonSpan);
+
+        final List<Hit> hits = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            final long numCells = (long) (maxLatCell - minLatCell + 1) * (maxLonCell - minLonCell + 1);
+            if (numCells > cells.size()) {
+                // the query area is large compared to the index, so rather visit every occupied cell
+                for (final List<Location> cell : cells.values())
+                    collect(cell, types, lat, lon, latSpan, lonSpan, maxDistance, hits);
+            } else {
+                for (int latCell = minLatCell; latCell <= maxLatCell; latCell++) {
+                    for (int lonCell = minLonCell; lonCell <= maxLonCell; lonCell++) {
+                        final List<Location> cell = cells.get(cellKey(latCell, lonCell));
+                        if (cell != null)
+                            collect(cell, types, lat, lon, latSpan, lonSpan, maxDistance, hits);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        Collections.sort(hits);
+        final int size = maxLocations > 0 ? Math.min(hits.size(), maxLocations) : hits.size();
+        final List<Location> locations = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            locations.add(hits.get(i).location);
+        return locations;
+    }
+
+    private static void collect(final List<Location> cell, final Set<LocationType> types, final int lat,
+            final int lon, final int latSpan, final int lonSpan, final int maxDistance, final List<Hit> hits) {
+        for (final Location location : cell) {
+            if (!types.contains(location.type))
+                continue;
+            if (Math.abs(location.lat - lat) > latSpan || Math.abs((long) location.lon - lon) > lonSpan)
+                continue;
+            final float distance = maxDistance <= APPROXIMATION_LIMIT
+                    ? LocationUtils.computeApproximateDistance(lat, lon, location.lat, location.lon)
+                    : LocationUtils.computeHaversineDistance(lat, lon, location.lat, location.lon);
+            if (distance <= maxDistance)
+                hits.add(new Hit(location, distance));
+        }
+    }
+
+    private int cell(final int coord) {
+        // floor division, so that cells don't straddle the equator or prime meridian
+        final int cell = coord / cellSize;
+        return coord < 0 && cell * cellSize != coord ? cell - 1 : cell;
+    }
+
+    private long cellKeyOf(final Location location) {
+        return cellKey(cell(location.lat), cell(location.lon));
+    }
+
+    private static long cellKey(final int latCell, final int lonCell) {
+        return ((long) latCell << 32) | (lonCell & 0xffffffffL);
+    }
+
+    private static String key(final Location location) {
+        return location.type.name() + ':' + location.id;
+    }
+
+    private static final class Hit implements Comparable<Hit> {
+        private final Location location;
+        private final float distance;
+
+        public Hit(final Location location, final float distance) {
+            this.location = location;
+            this.distance = distance;
+        }
+
+        @Override
+        public int compareTo(final Hit other) {
+            return Float.compare(this.distance, other.distance);
+        }
+    }
+}
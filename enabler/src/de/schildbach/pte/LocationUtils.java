@@ -21,6 +21,10 @@ package de.schildbach.pte;
  * @author Andreas Schildbach
  */
 public final class LocationUtils {
+    private static final double EARTH_RADIUS = 6371008.8; // mean radius in meters
+    private static final double RADIANS_PER_MICRODEGREE = Math.PI / 180E6;
+    private static final double METERS_PER_MICRODEGREE = EARTH_RADIUS * RADIANS_PER_MICRODEGREE;
+
     /**
      * @param lat1
      *            latitude of origin point in decimal degrees
@@ -107,4 +111,72 @@ public final class LocationUtils {
 
         return (float) (b * A * (sigma - deltaSigma));
     }
+
+    /**
+     * Equirectangular approximation of the distance between two points given in microdegrees. It costs a single
+     * cosine and is accurate to a fraction of a percent over the distances relevant for nearby searches, so it is
+     * suitable for ranking and filtering. Use {@link #computeDistance(double, double, double, double)} where
+     * precision matters.
+     * 
+     * @return distance in meters
+     */
+    public static float computeApproximateDistance(final int lat1, final int lon1, final int lat2, final int lon2) {
+        final double cosLat = Math.cos(((long) lat1 + lat2) / 2 * RADIANS_PER_MICRODEGREE);
+        return approximateDistance(lat2 - lat1, lon2 - lon1, cosLat);
+    }
+
+    /**
+     * Haversine distance between two points given in microdegrees, assuming a spherical earth. Accurate to about half
+     * a percent at any distance.
+     * 
+     * @return distance in meters
+     */
+    public static float computeHaversineDistance(final int lat1, final int lon1, final int lat2, final int lon2) {
+        final double sinHalfDLat = Math.sin((lat2 - lat1) * RADIANS_PER_MICRODEGREE / 2);
+        final double sinHalfDLon = Math.sin(((long) lon2 - lon1) * RADIANS_PER_MICRODEGREE / 2);
+        final double h = sinHalfDLat * sinHalfDLat + Math.cos(lat1 * RADIANS_PER_MICRODEGREE)
+                * Math.cos(lat2 * RADIANS_PER_MICRODEGREE) * sinHalfDLon * sinHalfDLon;
+        return (float) (2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(h))));
+    }
+
+    /**
+     * Computes the approximate distances from one origin to many points, all given in microdegrees. The cosine is
+     * evaluated once at the origin latitude, so this is meant for points near the origin.
+     * 
+     * @param distances
+     *            receives the distances in meters, must be at least as long as the coordinate arrays
+     */
+    public static void computeApproximateDistances(final int lat, final int lon, final int[] lats, final int[] lons,
+            final float[] distances) {
+        final int length = lats.length;
+        if (lons.length != length || distances.length < length)
+            throw new IllegalArgumentException("array lengths don't match");
+        final double cosLat = Math.cos(lat * RADIANS_PER_MICRODEGREE);
+        for (int i = 0; i < length; i++)
+            distances[i] = approximateDistance(lats[i] - lat, lons[i] - lon, cosLat);
+    }
+
+    private static float approximateDistance(final int dLat, final int dLon, final double cosLat) {
+        final double x = dLon * cosLat;
+        return (float) (Math.sqrt(x * x + (double) dLat * dLat) * METERS_PER_MICRODEGREE);
+    }
+
+    /**
+     * @return half the height in microdegrees of a bounding box that contains all points within the given distance
+     */
+    public static int latitudeSpan(final int distance) {
+        return (int) Math.min(Math.ceil(distance / METERS_PER_MICRODEGREE), 180000000);
+    }
+
+    /**
+     * @return half the width in microdegrees of a bounding box around the given latitude that contains all points
+     *         within the given distance
+     */
+    public static int longitudeSpan(final int lat, final int distance) {
+        final int latSpan = latitudeSpan(distance);
+        // the box is widest at its pole-facing edge
+        final int farLat = Math.min(Math.abs(lat) + latSpan, 90000000);
+        final double cosLat = Math.cos(farLat * RADIANS_PER_MICRODEGREE);
+        return cosLat > 1E-6 ? (int) Math.min(Math.ceil(latSpan / cosLat), 180000000) : 180000000;
+    }
 }
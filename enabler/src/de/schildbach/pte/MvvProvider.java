@@ -24,6 +24,7 @@ import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
 
+import de.schildbach.pte.dto.Area;
 import de.schildbach.pte.dto.Line;
 import de.schildbach.pte.dto.Point;
 import de.schildbach.pte.dto.Position;
@@ -37,6 +38,7 @@ import okhttp3.HttpUrl;
  */
 public class MvvProvider extends AbstractEfaProvider {
     private static final HttpUrl API_BASE = HttpUrl.parse("https://efa.mvv-muenchen.de/mobile/");
+    private static final Area AREA = new Area(Point.fromDouble(48.140377, 11.560643));
 
     public MvvProvider() {
         this(API_BASE);
@@ -136,7 +138,7 @@ public class MvvProvider extends AbstractEfaProvider {
     }
 
     @Override
-    public Point[] getArea() {
-        return new Point[] { Point.fromDouble(48.140377, 11.560643) };
+    protected Area queryArea() {
+        return AREA;
     }
 }
@@ -0,0 +1,170 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.NearbyLocationsResult;
+import de.schildbach.pte.dto.Product;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.dto.QueryTripsResult;
+import de.schildbach.pte.exception.NotFoundException;
+
+/**
+ * Remembers queries that failed because of what was asked, rather than because of the upstream: departures of invalid
+ * stations, nearby locations of invalid ids, trips with unknown endpoints or without any connection, and lookups
+ * answered with {@link NotFoundException}. Repeating such a query within the time-to-live returns the cached outcome
+ * without going upstream. Unknown trip endpoints are remembered regardless of the date, while trip queries without any
+ * connection are keyed by the minute of their date, so that clients asking for "now" share entries.
+ */
+public class NegativeResultCachingProvider extends ForwardingNetworkProvider {
+    private static final Set<QueryTripsResult.Status> UNKNOWN_ENDPOINT_STATUSES = EnumSet.of(
+            QueryTripsResult.Status.UNKNOWN_FROM, QueryTripsResult.Status.UNKNOWN_VIA,
+            QueryTripsResult.Status.UNKNOWN_TO, QueryTripsResult.Status.UNKNOWN_LOCATION);
+
+    private final Cache<String, Object> cache;
+
+    public NegativeResultCachingProvider(final NetworkProvider delegate) {
+        this(delegate, TimeUnit.MINUTES.toMillis(5), 10000);
+    }
+
+    /**
+     * @param ttlMillis
+     *            time for which a negative outcome is served from the cache
+     * @param maxEntries
+     *            number of negative outcomes to keep at most
+     */
+    public NegativeResultCachingProvider(final NetworkProvider delegate, final long ttlMillis, final int maxEntries) {
+        super(delegate);
+        this.cache = CacheBuilder.newBuilder().expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .maximumSize(maxEntries).build();
+    }
+
+    @Override
+    public NearbyLocationsResult queryNearbyLocations(final EnumSet<LocationType> types, final Location location,
+            final int maxDistance, final int maxLocations) throws IOException {
+        // only queries by id can refer to an invalid id
+        if (!location.hasId())
+            return super.queryNearbyLocations(types, location, maxDistance, maxLocations);
+
+        final String key = "nearby|" + key(location);
+        final NearbyLocationsResult cached = (NearbyLocationsResult) getIfPresent(key);
+        if (cached != null)
+            return cached;
+        try {
+            final NearbyLocationsResult result = super.queryNearbyLocations(types, location, maxDistance,
+                    maxLocations);
+            if (result.status == NearbyLocationsResult.Status.INVALID_ID)
+                cache.put(key, result);
+            return result;
+        } catch (final NotFoundException x) {
+            cache.put(key, new NotFound(x));
+            throw x;
+        }
+    }
+
+    @Override
+    public QueryDeparturesResult queryDepartures(final String stationId, final @Nullable Date time,
+            final int maxDepartures, final boolean equivs) throws IOException {
+        final String key = "departures|" + stationId;
+        final QueryDeparturesResult cached = (QueryDeparturesResult) getIfPresent(key);
+        if (cached != null)
+            return cached;
+        try {
+            final QueryDeparturesResult result = super.queryDepartures(stationId, time, maxDepartures, equivs);
+            if (result.status == QueryDeparturesResult.Status.INVALID_STATION)
+                cache.put(key, result);
+            return result;
+        } catch (final NotFoundException x) {
+            cache.put(key, new NotFound(x));
+            throw x;
+        }
+    }
+
+    @Override
+    public QueryTripsResult queryTrips(final Location from, final @Nullable Location via, final Location to,
+            final Date date, final boolean dep, final @Nullable Set<Product> products,
+            final @Nullable Optimize optimize, final @Nullable WalkSpeed walkSpeed,
+            final @Nullable Accessibility accessibility, final @Nullable Set<Option> options) throws IOException {
+        // unknown endpoints stay unknown at any time of day, while connections depend on the date
+        final String undatedKey = "trips|" + key(from) + '|' + (via != null ? key(via) : "") + '|' + key(to) + '|'
+                + dep + '|' + products + '|' + optimize + '|' + walkSpeed + '|' + accessibility + '|' + options;
+        final String key = undatedKey + '|' + TimeUnit.MILLISECONDS.toMinutes(date.getTime());
+        QueryTripsResult cached = (QueryTripsResult) getIfPresent(undatedKey);
+        if (cached == null)
+            cached = (QueryTripsResult) getIfPresent(key);
+        if (cached != null)
+            return cached;
+        try {
+            final QueryTripsResult result = super.queryTrips(from, via, to, date, dep, products, optimize,
+                    walkSpeed, accessibility, options);
+            if (UNKNOWN_ENDPOINT_STATUSES.contains(result.status))
+                cache.put(undatedKey, result);
+            else if (result.status == QueryTripsResult.Status.NO_TRIPS)
+                cache.put(key, result);
+            return result;
+        } catch (final NotFoundException x) {
+            cache.put(key, new NotFound(x));
+            throw x;
+        }
+    }
+
+    /**
+     * Returns the cached result for the key, or throws a new exception for a cached {@link NotFoundException}.
+     */
+    private @Nullable Object getIfPresent(final String key) throws NotFoundException {
+        final Object cached = cache.getIfPresent(key);
+        if (cached instanceof NotFound)
+            throw ((NotFound) cached).newException();
+        return cached;
+    }
+
+    /**
+     * Marks a query answered with {@link NotFoundException}. Each caller gets an exception of its own, so that stack
+     * traces and suppressed exceptions don't pile up on a shared instance.
+     */
+    private static final class NotFound {
+        private final NotFoundException exception;
+
+        public NotFound(final NotFoundException exception) {
+            this.exception = exception;
+        }
+
+        public NotFoundException newException() {
+            final NotFoundException x = new NotFoundException(exception.getUrl(), exception.getBodyPeek());
+            x.initCause(exception);
+            return x;
+        }
+    }
+
+    private static String key(final Location location) {
+        return location.type + ":" + location.id + ":" + location.lat + "," + location.lon + ":" + location.place + ":"
+                + location.name;
+    }
+}
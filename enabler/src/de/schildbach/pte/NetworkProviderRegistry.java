@@ -0,0 +1,194 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Splitter;
+
+/**
+ * Registry of network providers, keyed by {@link NetworkId}. Providers are instantiated lazily on first use and then
+ * shared by all callers, so a single process can serve any number of networks while only paying for those that are
+ * actually requested. All methods are thread-safe.
+ * 
+ * <p>
+ * A registry can be configured from {@link Properties} using keys of the form {@code <NETWORKID>.class} (the fully
+ * qualified provider class name) and optionally {@code <NETWORKID>.args} (a comma separated list of constructor
+ * arguments, e.g. API keys). The global key {@code userAgent} sets the user agent for all providers.
+ * </p>
+ */
+public final class NetworkProviderRegistry {
+    public interface Factory {
+        NetworkProvider create();
+    }
+
+    /**
+     * Supplies the executor that a provider uses for its concurrent lookups, see
+     * {@link AbstractNetworkProvider#setLookupExecutor(ExecutorService)}.
+     */
+    public interface LookupExecutors {
+        ExecutorService get(NetworkId network);
+    }
+
+    private static final String KEY_CLASS_SUFFIX = ".class";
+    private static final String KEY_ARGS_SUFFIX = ".args";
+    private static final String KEY_USER_AGENT = "userAgent";
+
+    private final ConcurrentMap<NetworkId, Holder> holders = new ConcurrentHashMap<>();
+    private volatile @Nullable String userAgent = null;
+    private volatile @Nullable LookupExecutors lookupExecutors = null;
+
+    public static NetworkProviderRegistry fromProperties(final Properties properties) {
+        final NetworkProviderRegistry registry = new NetworkProviderRegistry();
+        registry.setUserAgent(properties.getProperty(KEY_USER_AGENT));
+        for (final String key : properties.stringPropertyNames()) {
+            if (!key.endsWith(KEY_CLASS_SUFFIX))
+                continue;
+            final String prefix = key.substring(0, key.length() - KEY_CLASS_SUFFIX.length());
+            final NetworkId network = NetworkId.valueOf(prefix.toUpperCase(Locale.ENGLISH));
+            final String className = properties.getProperty(key).trim();
+            final String args = properties.getProperty(prefix + KEY_ARGS_SUFFIX);
+            final String[] constructorArgs = args != null
+                    ? Splitter.on(',').trimResults().splitToList(args).toArray(new String[0]) : new String[0];
+            try {
+                registry.register(network, Class.forName(className).asSubclass(NetworkProvider.class),
+                        constructorArgs);
+            } catch (final ClassNotFoundException | ClassCastException x) {
+                throw new IllegalArgumentException("cannot use " + className + " for " + network, x);
+            }
+        }
+        return registry;
+    }
+
+    /**
+     * Sets the user agent that is applied to providers instantiated from now on.
+     */
+    public void setUserAgent(final @Nullable String userAgent) {
+        this.userAgent = userAgent;
+    }
+
+    /**
+     * Sets where providers instantiated from now on run their concurrent lookups. By default, they share a small pool.
+     */
+    public void setLookupExecutors(final @Nullable LookupExecutors lookupExecutors) {
+        this.lookupExecutors = lookupExecutors;
+    }
+
+    /**
+     * Registers a factory for the given network. A provider that has already been instantiated for that network is
+     * replaced on next access.
+     */
+    public NetworkProviderRegistry register(final NetworkId network, final Factory factory) {
+        holders.put(checkNotNull(network), new Holder(checkNotNull(factory)));
+        return this;
+    }
+
+    /**
+     * Registers a provider class for the given network. The class needs a public constructor taking as many
+     * {@link String} parameters as there are arguments given; it is resolved immediately but invoked lazily.
+     */
+    public NetworkProviderRegistry register(final NetworkId network, final Class<? extends NetworkProvider> clazz,
+            final String... args) {
+        final Class<?>[] parameterTypes = new Class<?>[args.length];
+        Arrays.fill(parameterTypes, String.class);
+        final Constructor<? extends NetworkProvider> constructor;
+        try {
+            constructor = clazz.getConstructor(parameterTypes);
+        } catch (final NoSuchMethodException x) {
+            throw new IllegalArgumentException(
+                    clazz.getName() + " has no public constructor taking " + args.length + " string arguments", x);
+        }
+        final String[] constructorArgs = args.clone();
+        return register(network, new Factory() {
+            @Override
+            public NetworkProvider create() {
+                try {
+                    return constructor.newInstance((Object[]) constructorArgs);
+                } catch (final InvocationTargetException x) {
+                    throw new RuntimeException("cannot instantiate " + clazz.getName(), x.getCause());
+                } catch (final ReflectiveOperationException x) {
+                    throw new RuntimeException("cannot instantiate " + clazz.getName(), x);
+                }
+            }
+        });
+    }
+
+    public boolean contains(final NetworkId network) {
+        return holders.containsKey(network);
+    }
+
+    public Set<NetworkId> networks() {
+        return holders.isEmpty() ? EnumSet.noneOf(NetworkId.class) : EnumSet.copyOf(holders.keySet());
+    }
+
+    /**
+     * Returns the shared provider for the given network, instantiating it if this is the first access.
+     * 
+     * @throws IllegalArgumentException
+     *             if no provider is registered for the network
+     */
+    public NetworkProvider get(final NetworkId network) {
+        final Holder holder = holders.get(network);
+        checkArgument(holder != null, "no provider registered for %s", network);
+        return holder.get();
+    }
+
+    private final class Holder {
+        private final Factory factory;
+        private volatile NetworkProvider provider;
+
+        public Holder(final Factory factory) {
+            this.factory = factory;
+        }
+
+        public NetworkProvider get() {
+            NetworkProvider provider = this.provider;
+            if (provider == null) {
+                synchronized (this) {
+                    provider = this.provider;
+                    if (provider == null) {
+                        provider = checkNotNull(factory.create());
+                        final String userAgent = NetworkProviderRegistry.this.userAgent;
+                        if (userAgent != null && provider instanceof AbstractNetworkProvider)
+                            ((AbstractNetworkProvider) provider).setUserAgent(userAgent);
+                        final LookupExecutors lookupExecutors = NetworkProviderRegistry.this.lookupExecutors;
+                        if (lookupExecutors != null && provider instanceof AbstractNetworkProvider)
+                            ((AbstractNetworkProvider) provider)
+                                    .setLookupExecutor(lookupExecutors.get(provider.id()));
+                        this.provider = provider;
+                    }
+                }
+            }
+            return provider;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.Product;
+import de.schildbach.pte.dto.QueryTripsContext;
+import de.schildbach.pte.dto.QueryTripsResult;
+
+/**
+ * Speculatively fetches the next page of trips. Whenever a trip query returns a context that can query later, the
+ * later page is requested in the background and kept against that context instance, so that a subsequent
+ * {@link #queryMoreTrips(QueryTripsContext, boolean)} for later trips returns without waiting for the upstream.
+ * By default only the next page is prefetched; with a higher depth, prefetched pages are themselves prefetched for, up
+ * to that number of pages in a row.
+ */
+public class PrefetchingTripsProvider extends ForwardingNetworkProvider {
+    private final ExecutorService executor;
+    private final int maxDepth;
+    private final Cache<QueryTripsContext, Prefetch> prefetches;
+
+    private static final Logger log = LoggerFactory.getLogger(PrefetchingTripsProvider.class);
+
+    public PrefetchingTripsProvider(final NetworkProvider delegate, final ExecutorService executor) {
+        this(delegate, executor, 1, TimeUnit.MINUTES.toMillis(5), 1000);
+    }
+
+    /**
+     * @param maxDepth
+     *            number of pages to prefetch in a row without the user asking for them
+     * @param expiryMillis
+     *            time after which an unused prefetched page is dropped
+     * @param maxPrefetches
+     *            number of prefetched pages to keep at most
+     */
+    public PrefetchingTripsProvider(final NetworkProvider delegate, final ExecutorService executor,
+            final int maxDepth, final long expiryMillis, final int maxPrefetches) {
+        super(delegate);
+        this.executor = checkNotNull(executor);
+        this.maxDepth = maxDepth;
+        // contexts don't implement equals(), and weak keys are compared by identity anyway
+        this.prefetches = CacheBuilder.newBuilder().weakKeys().expireAfterWrite(expiryMillis, TimeUnit.MILLISECONDS)
+                .maximumSize(maxPrefetches).build();
+    }
+
+    @Override
+    public QueryTripsResult queryTrips(final Location from, final @Nullable Location via, final Location to,
+            final Date date, final boolean dep, final @Nullable Set<Product> products,
+            final @Nullable Optimize optimize, final @Nullable WalkSpeed walkSpeed,
+            final @Nullable Accessibility accessibility, final @Nullable Set<Option> options) throws IOException {
+        final QueryTripsResult result = delegate.queryTrips(from, via, to, date, dep, products, optimize, walkSpeed,
+                accessibility, options);
+        prefetch(result, 1);
+        return result;
+    }
+
+    @Override
+    public QueryTripsResult queryMoreTrips(final QueryTripsContext context, final boolean later) throws IOException {
+        final Prefetch prefetch = prefetches.getIfPresent(context);
+        if (prefetch != null) {
+            prefetches.invalidate(context);
+            if (later) {
+                final QueryTripsResult result = prefetch.await();
+                if (result != null) {
+                    prefetch(result, 1);
+                    return result;
+                }
+            } else {
+                // contexts may carry upstream session state, so don't use them concurrently
+                prefetch.await();
+            }
+        }
+
+        final QueryTripsResult result = delegate.queryMoreTrips(context, later);
+        if (later)
+            prefetch(result, 1);
+        return result;
+    }
+
+    private void prefetch(final QueryTripsResult result, final int depth) {
+        final QueryTripsContext context = result.context;
+        if (depth > maxDepth || result.status != QueryTripsResult.Status.OK || context == null
+                || !context.canQueryLater())
+            return;
+        // register before running, so that a concurrent queryMoreTrips() waits for the prefetch instead of using the
+        // same context alongside it
+        final FutureTask<QueryTripsResult> future = new FutureTask<>(new Callable<QueryTripsResult>() {
+            @Override
+            public QueryTripsResult call() throws IOException {
+                final QueryTripsResult next = delegate.queryMoreTrips(context, true);
+                prefetch(next, depth + 1);
+                return next;
+            }
+        });
+        final Prefetch prefetch = new Prefetch(future);
+        if (prefetches.asMap().putIfAbsent(context, prefetch) != null)
+            return; // already prefetched as part of a chain
+
+        try {
+            executor.execute(future);
+        } catch (final RejectedExecutionException x) {
+            // prefetching is best effort; release anyone who already waits for it
+            prefetches.asMap().remove(context, prefetch);
+            future.cancel(false);
+        }
+    }
+
+    private static final class Prefetch {
+        private final Future<QueryTripsResult> future;
+
+        public Prefetch(final Future<QueryTripsResult> future) {
+            this.future = future;
+        }
+
+        /**
+         * @return the prefetched page, or {@code null} if prefetching failed or never ran
+         */
+        public @Nullable QueryTripsResult await() throws IOException {
+            try {
+                return future.get();
+            } catch (final InterruptedException x) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while waiting for prefetched trips", x);
+            } catch (final ExecutionException x) {
+                log.info("prefetching trips failed: {}", x.getCause().toString());
+                return null;
+            } catch (final CancellationException x) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import de.schildbach.pte.dto.Trip;
+
+public final class TripUtils {
+    /**
+     * Merge a page of trips as returned by {@link NetworkProvider#queryMoreTrips} into the trips seen so far.
+     * Trips are deduplicated by their {@link Trip#getId() id}, in linear time. Of duplicate trips, the one
+     * already seen wins.
+     * 
+     * @param trips
+     *            trips seen so far
+     * @param moreTrips
+     *            page of trips to merge
+     * @param later
+     *            {@code true} if the page contains later trips, {@code false} for earlier trips
+     * @return new list of merged trips, earliest page first
+     */
+    public static List<Trip> mergeTrips(final List<Trip> trips, final List<Trip> moreTrips, final boolean later) {
+        final Set<Trip> merged = new LinkedHashSet<>(trips.size() + moreTrips.size());
+        if (later) {
+            merged.addAll(trips);
+            merged.addAll(moreTrips);
+        } else {
+            final Set<Trip> seen = new HashSet<>(trips);
+            for (final Trip trip : moreTrips)
+                if (!seen.contains(trip))
+                    merged.add(trip);
+            merged.addAll(trips);
+        }
+        return new ArrayList<>(merged);
+    }
+}
@@ -38,6 +38,8 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -50,7 +52,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
+import de.schildbach.pte.dto.Area;
 import de.schildbach.pte.dto.Departure;
 import de.schildbach.pte.dto.Fare;
 import de.schildbach.pte.dto.Line;
@@ -82,6 +87,12 @@ public class VrsProvider extends AbstractNetworkProvider {
 
     private static final Logger log = LoggerFactory.getLogger(VrsProvider.class);
 
+    private static final Area AREA = new Area(new Point(50937531, 6960279));
+
+    // lines served per station change with the timetable period at most
+    private final Cache<String, List<LineDestination>> linesForStation = CacheBuilder.newBuilder()
+            .maximumSize(5000).expireAfterWrite(1, TimeUnit.DAYS).build();
+
     @SuppressWarnings("serial")
     private static class Context implements QueryTripsContext {
         private boolean canQueryLater = true;
@@ -458,6 +469,9 @@ public class VrsProvider extends AbstractNetworkProvider {
             if (timetable.length() == 0) {
                 return new QueryDeparturesResult(header, QueryDeparturesResult.Status.INVALID_STATION);
             }
+            final List<Location> locations = new ArrayList<Location>();
+            final List<List<Departure>> departuresPerStation = new ArrayList<List<Departure>>();
+            final List<List<LineDestination>> linesPerStation = new ArrayList<List<LineDestination>>();
             for (int iStation = 0; iStation < timetable.length(); iStation++) {
                 final List<Departure> departures = new ArrayList<Departure>();
                 final JSONObject station = timetable.getJSONObject(iStation);
@@ -503,9 +517,18 @@ public class VrsProvider extends AbstractNetworkProvider {
                     departures.add(d);
                 }
 
-                queryLinesForStation(location.id, lines);
+                locations.add(location);
+                departuresPerStation.add(departures);
+                linesPerStation.add(lines);
+            }
 
-                result.stationDepartures.add(new StationDepartures(location, departures, lines));
+            final Map<String, List<LineDestination>> servedLines = queryLinesForStations(locations);
+            for (int iStation = 0; iStation < locations.size(); iStation++) {
+                final Location location = locations.get(iStation);
+                final List<LineDestination> lines = linesPerStation.get(iStation);
+                addServedLines(lines, servedLines.get(location.id));
+                result.stationDepartures
+                        .add(new StationDepartures(location, departuresPerStation.get(iStation), lines));
             }
 
             return result;
@@ -516,17 +539,43 @@ public class VrsProvider extends AbstractNetworkProvider {
         }
     }
 
-    private void queryLinesForStation(String stationId, List<LineDestination> lineDestinations) throws IOException {
-        Set<String> lineNumbersAlreadyKnown = new HashSet<String>();
-        for (LineDestination lineDestionation : lineDestinations) {
-            lineNumbersAlreadyKnown.add(lineDestionation.line.label);
+    private Map<String, List<LineDestination>> queryLinesForStations(final List<Location> stations)
+            throws IOException {
+        final Map<String, List<LineDestination>> servedLines = new HashMap<String, List<LineDestination>>();
+        final List<String> missingStationIds = new ArrayList<String>();
+        final List<Callable<List<LineDestination>>> lookups = new ArrayList<Callable<List<LineDestination>>>();
+        for (final Location station : stations) {
+            final String stationId = station.id;
+            if (stationId == null || servedLines.containsKey(stationId) || missingStationIds.contains(stationId))
+                continue;
+            final List<LineDestination> cached = linesForStation.getIfPresent(stationId);
+            if (cached != null) {
+                servedLines.put(stationId, cached);
+            } else {
+                missingStationIds.add(stationId);
+                lookups.add(new Callable<List<LineDestination>>() {
+                    @Override
+                    public List<LineDestination> call() throws IOException {
+                        return queryLinesForStation(stationId);
+                    }
+                });
+            }
         }
+
+        final List<List<LineDestination>> results = lookUpConcurrently(lookups);
+        for (int i = 0; i < missingStationIds.size(); i++)
+            servedLines.put(missingStationIds.get(i), results.get(i));
+        return servedLines;
+    }
+
+    private List<LineDestination> queryLinesForStation(final String stationId) throws IOException {
         final HttpUrl.Builder url = API_BASE.newBuilder();
         url.addQueryParameter("eID", "tx_vrsinfo_his_info");
         url.addQueryParameter("i", stationId);
 
         final CharSequence page = httpClient.get(url.build());
 
+        final List<LineDestination> lineDestinations = new ArrayList<LineDestination>();
         try {
             final JSONObject head = new JSONObject(page.toString());
             final JSONObject his = head.optJSONObject("his");
@@ -536,9 +585,6 @@ public class VrsProvider extends AbstractNetworkProvider {
                     for (int iLine = 0; iLine < lines.length(); iLine++) {
                         final JSONObject line = lines.getJSONObject(iLine);
                         final String number = processLineNumber(line.getString("number"));
-                        if (lineNumbersAlreadyKnown.contains(number)) {
-                            continue;
-                        }
                         final Product product = productFromLineNumber(number);
                         String direction = null;
                         final JSONArray postings = line.optJSONArray("postings");
@@ -562,6 +608,21 @@ public class VrsProvider extends AbstractNetworkProvider {
         } catch (final JSONException x) {
             throw new RuntimeException("cannot parse: '" + page + "' on " + url, x);
         }
+        final List<LineDestination> result = Collections.unmodifiableList(lineDestinations);
+        linesForStation.put(stationId, result);
+        return result;
+    }
+
+    private static void addServedLines(final List<LineDestination> lineDestinations,
+            @Nullable final List<LineDestination> servedLines) {
+        if (servedLines != null) {
+            final Set<String> lineNumbersAlreadyKnown = new HashSet<String>();
+            for (final LineDestination lineDestination : lineDestinations)
+                lineNumbersAlreadyKnown.add(lineDestination.line.label);
+            for (final LineDestination servedLine : servedLines)
+                if (!lineNumbersAlreadyKnown.contains(servedLine.line.label))
+                    lineDestinations.add(servedLine);
+        }
         Collections.sort(lineDestinations, new LineDestinationComparator());
     }
 
@@ -968,8 +1029,8 @@ public class VrsProvider extends AbstractNetworkProvider {
     }
 
     @Override
-    public Point[] getArea() throws IOException {
-        return new Point[] { new Point(50937531, 6960279) };
+    protected Area queryArea() {
+        return AREA;
     }
 
     private static Product productFromLineNumber(String number) {
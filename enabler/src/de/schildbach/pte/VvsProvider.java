@@ -21,6 +21,7 @@ import javax.annotation.Nullable;
 
 import com.google.common.base.Charsets;
 
+import de.schildbach.pte.dto.Area;
 import de.schildbach.pte.dto.Line;
 import de.schildbach.pte.dto.Point;
 import de.schildbach.pte.dto.Product;
@@ -32,6 +33,7 @@ import okhttp3.HttpUrl;
  */
 public class VvsProvider extends AbstractEfaProvider {
     private static final HttpUrl API_BASE = HttpUrl.parse("http://www2.vvs.de/vvs/");
+    private static final Area AREA = new Area(Point.fromDouble(48.784068, 9.181713));
 
     public VvsProvider() {
         this(API_BASE);
@@ -46,8 +48,8 @@ public class VvsProvider extends AbstractEfaProvider {
     }
 
     @Override
-    public Point[] getArea() {
-        return new Point[] { Point.fromDouble(48.784068, 9.181713) };
+    protected Area queryArea() {
+        return AREA;
     }
 
     @Override
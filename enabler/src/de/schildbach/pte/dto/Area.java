@@ -0,0 +1,170 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.dto;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import de.schildbach.pte.LocationUtils;
+
+/**
+ * Immutable area covered by a network: the points of a polygon, or just a center point, along with its bounding box.
+ * Simplified variants of the polygon are computed once per tolerance and then kept.
+ */
+public final class Area {
+    private final Point[] points;
+    public final int minLat, maxLat, minLon, maxLon;
+    private final ConcurrentMap<Integer, Area> simplified = new ConcurrentHashMap<>();
+
+    public Area(final Point... points) {
+        checkArgument(points.length > 0, "empty area");
+        this.points = points.clone();
+        int minLat = Integer.MAX_VALUE, maxLat = Integer.MIN_VALUE;
+        int minLon = Integer.MAX_VALUE, maxLon = Integer.MIN_VALUE;
+        for (final Point point : this.points) {
+            checkNotNull(point);
+            minLat = Math.min(minLat, point.lat);
+            maxLat = Math.max(maxLat, point.lat);
+            minLon = Math.min(minLon, point.lon);
+            maxLon = Math.max(maxLon, point.lon);
+        }
+        this.minLat = minLat;
+        this.maxLat = maxLat;
+        this.minLon = minLon;
+        this.maxLon = maxLon;
+    }
+
+    /**
+     * @return a copy of the points, in the format of {@link de.schildbach.pte.NetworkProvider#getArea()}
+     */
+    public Point[] getPoints() {
+        return points.clone();
+    }
+
+    public int size() {
+        return points.length;
+    }
+
+    public Point getPoint(final int index) {
+        return points[index];
+    }
+
+    public boolean boundingBoxContains(final int lat, final int lon) {
+        return lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon;
+    }
+
+    /**
+     * Simplifies the polygon using the Douglas-Peucker algorithm. No point of this area lies farther than the
+     * tolerance from the outline of the result. Areas of less than four points are returned as they are.
+     * 
+     * @param tolerance
+     *            in meters
+     */
+    public Area simplify(final int tolerance) {
+        checkArgument(tolerance >= 0, "tolerance cannot be negative");
+        if (tolerance == 0 || points.length < 4)
+            return this;
+        final Area cached = simplified.get(tolerance);
+        if (cached != null)
+            return cached;
+        final Area area = douglasPeucker(tolerance);
+        final Area previous = simplified.putIfAbsent(tolerance, area);
+        return previous != null ? previous : area;
+    }
+
+    private Area douglasPeucker(final int tolerance) {
+        final int n = points.length;
+        // project to a plane in which both axes are in latitude microdegrees
+        final double cosLat = Math.cos(((long) minLat + maxLat) / 2 * Math.PI / 180E6);
+        final double maxDistance = LocationUtils.latitudeSpan(tolerance);
+        final boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[n - 1] = true;
+        final int[] stack = new int[2 * n];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = n - 1;
+        while (top > 0) {
+            final int last = stack[--top];
+            final int first = stack[--top];
+            double farthestDistance = -1;
+            int farthest = -1;
+            for (int i = first + 1; i < last; i++) {
+                final double distance = segmentDistance(points[i], points[first], points[last], cosLat);
+                if (distance > farthestDistance) {
+                    farthestDistance = distance;
+                    farthest = i;
+                }
+            }
+            if (farthest >= 0 && farthestDistance > maxDistance) {
+                keep[farthest] = true;
+                stack[top++] = first;
+                stack[top++] = farthest;
+                stack[top++] = farthest;
+                stack[top++] = last;
+            }
+        }
+
+        int count = 0;
+        for (final boolean k : keep)
+            if (k)
+                count++;
+        // a polygon needs at least three distinct corners, plus the closing point if there is one
+        if (count < (points[0].equals(points[n - 1]) ? 4 : 3))
+            return this;
+        final Point[] result = new Point[count];
+        for (int i = 0, j = 0; i < n; i++)
+            if (keep[i])
+                result[j++] = points[i];
+        return new Area(result);
+    }
+
+    private static double segmentDistance(final Point p, final Point a, final Point b, final double cosLat) {
+        final double px = p.lon * cosLat, py = p.lat;
+        final double ax = a.lon * cosLat, ay = a.lat;
+        final double dx = b.lon * cosLat - ax, dy = b.lat - ay;
+        final double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared > 0 ? ((px - ax) * dx + (py - ay) * dy) / lengthSquared : 0;
+        t = Math.max(0, Math.min(1, t));
+        final double x = px - (ax + t * dx), y = py - (ay + t * dy);
+        return Math.sqrt(x * x + y * y);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (o == this)
+            return true;
+        if (!(o instanceof Area))
+            return false;
+        return Arrays.equals(this.points, ((Area) o).points);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(points);
+    }
+
+    @Override
+    public String toString() {
+        return "Area[" + points.length + " points, " + minLat + "/" + minLon + " - " + maxLat + "/" + maxLon + "]";
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.dto;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.List;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Changes of a departure board between two polls. Departures are identified by line, destination and planned time;
+ * {@link #changed} holds the new state of departures whose prediction, position or message differs.
+ */
+@SuppressWarnings("serial")
+public final class DeparturesDiff implements Serializable {
+    public final Date time;
+    public final List<Departure> added;
+    public final List<Departure> removed;
+    public final List<Departure> changed;
+
+    public DeparturesDiff(final Date time, final List<Departure> added, final List<Departure> removed,
+            final List<Departure> changed) {
+        this.time = checkNotNull(time);
+        this.added = checkNotNull(added);
+        this.removed = checkNotNull(removed);
+        this.changed = checkNotNull(changed);
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this).add("added", added.size()).add("removed", removed.size())
+                .add("changed", changed.size()).toString();
+    }
+}
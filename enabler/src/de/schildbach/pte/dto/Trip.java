@@ -46,6 +46,7 @@ public final class Trip implements Serializable {
     public final List<Fare> fares;
     public final int[] capacity;
     public final Integer numChanges;
+    private transient Summary summary;
 
     public Trip(final String id, final Location from, final Location to, final List<Leg> legs, final List<Fare> fares,
             final int[] capacity, final Integer numChanges) {
@@ -130,24 +131,12 @@ public final class Trip implements Serializable {
 
     /** Minimum time occurring in this trip. */
     public Date getMinTime() {
-        Date minTime = null;
-
-        for (final Leg leg : legs)
-            if (minTime == null || leg.getMinTime().before(minTime))
-                minTime = leg.getMinTime();
-
-        return minTime;
+        return summary().minTime;
     }
 
     /** Maximum time occurring in this trip. */
     public Date getMaxTime() {
-        Date maxTime = null;
-
-        for (final Leg leg : legs)
-            if (maxTime == null || leg.getMaxTime().after(maxTime))
-                maxTime = leg.getMaxTime();
-
-        return maxTime;
+        return summary().maxTime;
     }
 
     /**
@@ -164,41 +153,15 @@ public final class Trip implements Serializable {
      */
     @Nullable
     public Integer getNumChanges() {
-        if (numChanges == null) {
-            Integer numCount = null;
-
-            for (final Leg leg : legs) {
-                if (leg instanceof Public) {
-                    if (numCount == null) {
-                        numCount = 0;
-                    } else {
-                        numCount++;
-                    }
-                }
-            }
-            return numCount;
-        } else {
+        if (numChanges == null)
+            return summary().numPublicLegChanges;
+        else
             return numChanges;
-        }
     }
 
     /** Returns true if no legs overlap, false otherwise. */
     public boolean isTravelable() {
-        Date time = null;
-
-        for (final Leg leg : legs) {
-            final Date departureTime = leg.getDepartureTime();
-            if (time != null && departureTime.before(time))
-                return false;
-            time = departureTime;
-
-            final Date arrivalTime = leg.getArrivalTime();
-            if (time != null && arrivalTime.before(time))
-                return false;
-            time = arrivalTime;
-        }
-
-        return true;
+        return summary().travelable;
     }
 
     /** If an individual leg overlaps, try to adjust so that it doesn't. */
@@ -217,21 +180,20 @@ public final class Trip implements Serializable {
                     legs.set(i, ((Trip.Individual) leg).movedClone(previous.getArrivalTime()));
             }
         }
+
+        summary = null;
     }
 
     public Set<Product> products() {
-        final Set<Product> products = EnumSet.noneOf(Product.class);
-
-        for (final Leg leg : legs)
-            if (leg instanceof Public)
-                products.add(((Public) leg).line.product);
-
-        return products;
+        return EnumSet.copyOf(summary().products);
     }
 
     public String getId() {
-        if (id == null)
+        String id = this.id;
+        if (id == null) {
             id = buildSubstituteId();
+            this.id = id;
+        }
 
         return id;
     }
@@ -279,7 +241,7 @@ public final class Trip implements Serializable {
 
     @Override
     public int hashCode() {
-        return Objects.hashCode(getId());
+        return getId().hashCode();
     }
 
     @Override
@@ -295,6 +257,68 @@ public final class Trip implements Serializable {
         return helper.toString();
     }
 
+    private Summary summary() {
+        Summary summary = this.summary;
+        if (summary == null) {
+            summary = new Summary(legs);
+            this.summary = summary;
+        }
+        return summary;
+    }
+
+    /**
+     * Values derived from the legs, computed on first use. Immutable, so it can be shared between threads
+     * without synchronization; at worst it gets computed more than once.
+     */
+    private static final class Summary {
+        final Date minTime;
+        final Date maxTime;
+        final @Nullable Integer numPublicLegChanges;
+        final EnumSet<Product> products;
+        final boolean travelable;
+
+        Summary(final List<Leg> legs) {
+            Date minTime = null;
+            Date maxTime = null;
+            int numPublicLegs = 0;
+            final EnumSet<Product> products = EnumSet.noneOf(Product.class);
+            boolean travelable = true;
+            Date time = null;
+
+            for (final Leg leg : legs) {
+                final Date legMinTime = leg.getMinTime();
+                if (minTime == null || legMinTime.before(minTime))
+                    minTime = legMinTime;
+                final Date legMaxTime = leg.getMaxTime();
+                if (maxTime == null || legMaxTime.after(maxTime))
+                    maxTime = legMaxTime;
+
+                if (leg instanceof Public) {
+                    numPublicLegs++;
+                    final Product product = ((Public) leg).line.product;
+                    if (product != null)
+                        products.add(product);
+                }
+
+                final Date departureTime = leg.getDepartureTime();
+                if (time != null && departureTime.before(time))
+                    travelable = false;
+                time = departureTime;
+
+                final Date arrivalTime = leg.getArrivalTime();
+                if (arrivalTime.before(time))
+                    travelable = false;
+                time = arrivalTime;
+            }
+
+            this.minTime = minTime;
+            this.maxTime = maxTime;
+            this.numPublicLegChanges = numPublicLegs > 0 ? numPublicLegs - 1 : null;
+            this.products = products;
+            this.travelable = travelable;
+        }
+    }
+
     public abstract static class Leg implements Serializable {
         private static final long serialVersionUID = 8498461220084523265L;
 
@@ -0,0 +1,1000 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.dto.Departure;
+import de.schildbach.pte.dto.Fare;
+import de.schildbach.pte.dto.Line;
+import de.schildbach.pte.dto.LineDestination;
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.NearbyLocationsResult;
+import de.schildbach.pte.dto.Point;
+import de.schildbach.pte.dto.Position;
+import de.schildbach.pte.dto.Product;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.dto.QueryTripsContext;
+import de.schildbach.pte.dto.QueryTripsResult;
+import de.schildbach.pte.dto.ResultHeader;
+import de.schildbach.pte.dto.StationDepartures;
+import de.schildbach.pte.dto.Stop;
+import de.schildbach.pte.dto.Style;
+import de.schildbach.pte.dto.SuggestLocationsResult;
+import de.schildbach.pte.dto.SuggestedLocation;
+import de.schildbach.pte.dto.Trip;
+
+/**
+ * Compact binary encoding of the result DTOs, meant as a faster and smaller alternative to Java serialization
+ * for caching them.
+ *
+ * <p>
+ * Strings are written once and referenced by index afterwards, locations and styles are deduplicated by
+ * identity, and timestamps and coordinates are written as zig-zag varints relative to the previous one. Query
+ * trips contexts are mostly private to their providers, so they are embedded as Java serialized blobs.
+ * </p>
+ *
+ * <p>
+ * Encoded data starts with a magic and a format version. Data written by other versions is refused rather than
+ * misinterpreted.
+ * </p>
+ */
+public final class BinaryCodec {
+    public static final int VERSION = 1;
+
+    private static final byte[] MAGIC = { 'P', 'T', 'E' };
+
+    private static final int TYPE_LOCATION = 1;
+    private static final int TYPE_LINE = 2;
+    private static final int TYPE_DEPARTURE = 3;
+    private static final int TYPE_TRIP = 4;
+    private static final int TYPE_QUERY_TRIPS_RESULT = 5;
+    private static final int TYPE_QUERY_DEPARTURES_RESULT = 6;
+    private static final int TYPE_SUGGEST_LOCATIONS_RESULT = 7;
+    private static final int TYPE_NEARBY_LOCATIONS_RESULT = 8;
+    private static final int TYPE_QUERY_TRIPS_CONTEXT = 9;
+
+    private static final int REF_NULL = 0;
+    private static final int REF_NEW = 1;
+    private static final int REF_OFFSET = 2;
+
+    private static final int LINE_INLINE = REF_NEW;
+    private static final Line[] WELL_KNOWN_LINES = { Line.FOOTWAY, Line.TRANSFER, Line.SECURE_CONNECTION,
+            Line.DO_NOT_CHANGE };
+
+    private static final int OPAQUE_STRING = 1;
+    private static final int OPAQUE_SERIALIZED = 2;
+
+    private BinaryCodec() {
+    }
+
+    /**
+     * Encode one of {@link Location}, {@link Line}, {@link Departure}, {@link Trip}, {@link QueryTripsResult},
+     * {@link QueryDeparturesResult}, {@link SuggestLocationsResult}, {@link NearbyLocationsResult} or
+     * {@link QueryTripsContext}.
+     */
+    public static void encode(final Object dto, final OutputStream os) throws IOException {
+        checkNotNull(dto);
+        final Writer writer = new Writer(os);
+        writer.write(MAGIC);
+        writer.writeVarint(VERSION);
+        if (dto instanceof Location) {
+            writer.writeVarint(TYPE_LOCATION);
+            writer.writeLocation((Location) dto);
+        } else if (dto instanceof Line) {
+            writer.writeVarint(TYPE_LINE);
+            writer.writeLine((Line) dto);
+        } else if (dto instanceof Departure) {
+            writer.writeVarint(TYPE_DEPARTURE);
+            writer.writeDeparture((Departure) dto);
+        } else if (dto instanceof Trip) {
+            writer.writeVarint(TYPE_TRIP);
+            writer.writeTrip((Trip) dto);
+        } else if (dto instanceof QueryTripsResult) {
+            writer.writeVarint(TYPE_QUERY_TRIPS_RESULT);
+            writer.writeQueryTripsResult((QueryTripsResult) dto);
+        } else if (dto instanceof QueryDeparturesResult) {
+            writer.writeVarint(TYPE_QUERY_DEPARTURES_RESULT);
+            writer.writeQueryDeparturesResult((QueryDeparturesResult) dto);
+        } else if (dto instanceof SuggestLocationsResult) {
+            writer.writeVarint(TYPE_SUGGEST_LOCATIONS_RESULT);
+            writer.writeSuggestLocationsResult((SuggestLocationsResult) dto);
+        } else if (dto instanceof NearbyLocationsResult) {
+            writer.writeVarint(TYPE_NEARBY_LOCATIONS_RESULT);
+            writer.writeNearbyLocationsResult((NearbyLocationsResult) dto);
+        } else if (dto instanceof QueryTripsContext) {
+            writer.writeVarint(TYPE_QUERY_TRIPS_CONTEXT);
+            writer.writeSerializable((QueryTripsContext) dto);
+        } else {
+            throw new IllegalArgumentException("cannot encode: " + dto.getClass().getName());
+        }
+        writer.flush();
+    }
+
+    public static byte[] encode(final Object dto) {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream(1024);
+        try {
+            encode(dto, os);
+        } catch (final IOException x) {
+            throw new RuntimeException(x); // cannot happen
+        }
+        return os.toByteArray();
+    }
+
+    /**
+     * Decode a DTO written by {@link #encode(Object, OutputStream)}. The stream is consumed up to its end.
+     */
+    public static Object decode(final InputStream is) throws IOException {
+        return decode(ByteStreams.toByteArray(is));
+    }
+
+    public static <T> T decode(final byte[] bytes, final Class<T> type) throws IOException {
+        final Object dto = decode(bytes);
+        if (!type.isInstance(dto))
+            throw new StreamCorruptedException("expected " + type.getName() + ", got " + dto.getClass().getName());
+        return type.cast(dto);
+    }
+
+    private static Object decode(final byte[] bytes) throws IOException {
+        final Reader reader = new Reader(bytes);
+        for (final byte b : MAGIC)
+            if (reader.readByte() != b)
+                throw new StreamCorruptedException("bad magic");
+        final int version = reader.readVarint();
+        if (version != VERSION)
+            throw new StreamCorruptedException("unsupported version: " + version);
+        final int type = reader.readVarint();
+        switch (type) {
+        case TYPE_LOCATION:
+            return reader.readLocation();
+        case TYPE_LINE:
+            return reader.readLine();
+        case TYPE_DEPARTURE:
+            return reader.readDeparture();
+        case TYPE_TRIP:
+            return reader.readTrip();
+        case TYPE_QUERY_TRIPS_RESULT:
+            return reader.readQueryTripsResult();
+        case TYPE_QUERY_DEPARTURES_RESULT:
+            return reader.readQueryDeparturesResult();
+        case TYPE_SUGGEST_LOCATIONS_RESULT:
+            return reader.readSuggestLocationsResult();
+        case TYPE_NEARBY_LOCATIONS_RESULT:
+            return reader.readNearbyLocationsResult();
+        case TYPE_QUERY_TRIPS_CONTEXT:
+            return reader.readSerializable();
+        default:
+            throw new StreamCorruptedException("unknown type: " + type);
+        }
+    }
+
+    private static long zigZag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class Writer {
+        private final OutputStream os;
+        private byte[] buf = new byte[1024];
+        private int pos = 0;
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final Map<Location, Integer> locations = new IdentityHashMap<>();
+        private final Map<Style, Integer> styles = new IdentityHashMap<>();
+        private long lastTime = 0;
+        private int lastLat = 0, lastLon = 0;
+
+        private Writer(final OutputStream os) {
+            this.os = os;
+        }
+
+        private void ensureCapacity(final int size) {
+            if (pos + size > buf.length)
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + size));
+        }
+
+        private void write(final int b) {
+            ensureCapacity(1);
+            buf[pos++] = (byte) b;
+        }
+
+        private void write(final byte[] bytes) {
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        private void flush() throws IOException {
+            os.write(buf, 0, pos);
+            pos = 0;
+        }
+
+        private void writeVarint(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7fL) != 0) {
+                buf[pos++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buf[pos++] = (byte) value;
+        }
+
+        private void writeSignedVarint(final long value) {
+            writeVarint(zigZag(value));
+        }
+
+        private void writeFixedInt(final int value) {
+            ensureCapacity(4);
+            buf[pos++] = (byte) (value >>> 24);
+            buf[pos++] = (byte) (value >>> 16);
+            buf[pos++] = (byte) (value >>> 8);
+            buf[pos++] = (byte) value;
+        }
+
+        private void writeBoolean(final boolean value) {
+            write(value ? 1 : 0);
+        }
+
+        private void writeString(final @Nullable String string) throws IOException {
+            if (string == null) {
+                writeVarint(REF_NULL);
+                return;
+            }
+            final Integer index = strings.get(string);
+            if (index != null) {
+                writeVarint(index + REF_OFFSET);
+                return;
+            }
+            strings.put(string, strings.size());
+            writeVarint(REF_NEW);
+            final byte[] bytes = string.getBytes(Charsets.UTF_8);
+            writeVarint(bytes.length);
+            write(bytes);
+        }
+
+        private void writeTime(final Date time) throws IOException {
+            final long t = time.getTime();
+            writeSignedVarint(t - lastTime);
+            lastTime = t;
+        }
+
+        private void writeCoord(final int lat, final int lon) throws IOException {
+            writeSignedVarint(lat - lastLat);
+            writeSignedVarint(lon - lastLon);
+            lastLat = lat;
+            lastLon = lon;
+        }
+
+        private void writeSize(final @Nullable List<?> list) throws IOException {
+            writeVarint(list != null ? list.size() + 1 : 0);
+        }
+
+        private <E extends Enum<E>> void writeEnumSet(final Set<E> set) throws IOException {
+            long bits = 0;
+            for (final E e : set)
+                bits |= 1L << e.ordinal();
+            writeVarint(bits);
+        }
+
+        private void writeIntArray(final @Nullable int[] array) throws IOException {
+            if (array == null) {
+                writeVarint(0);
+                return;
+            }
+            writeVarint(array.length + 1);
+            for (final int i : array)
+                writeSignedVarint(i);
+        }
+
+        private void writeLocation(final @Nullable Location location) throws IOException {
+            if (location == null) {
+                writeVarint(REF_NULL);
+                return;
+            }
+            final Integer index = locations.get(location);
+            if (index != null) {
+                writeVarint(index + REF_OFFSET);
+                return;
+            }
+            locations.put(location, locations.size());
+            writeVarint(REF_NEW);
+            writeVarint(location.type.ordinal());
+            writeString(location.id);
+            writeString(location.place);
+            writeString(location.name);
+            final int flags = (location.hasLocation() ? 1 : 0) | (location.products != null ? 2 : 0);
+            writeVarint(flags);
+            if (location.hasLocation())
+                writeCoord(location.lat, location.lon);
+            if (location.products != null)
+                writeEnumSet(location.products);
+        }
+
+        private void writeLocations(final @Nullable List<Location> locations) throws IOException {
+            writeSize(locations);
+            if (locations != null)
+                for (final Location location : locations)
+                    writeLocation(location);
+        }
+
+        private void writePath(final @Nullable List<Point> path) throws IOException {
+            writeSize(path);
+            if (path != null)
+                for (final Point point : path)
+                    writeCoord(point.lat, point.lon);
+        }
+
+        private void writeStyle(final @Nullable Style style) throws IOException {
+            if (style == null) {
+                writeVarint(REF_NULL);
+                return;
+            }
+            final Integer index = styles.get(style);
+            if (index != null) {
+                writeVarint(index + REF_OFFSET);
+                return;
+            }
+            styles.put(style, styles.size());
+            writeVarint(REF_NEW);
+            writeVarint(style.shape.ordinal());
+            writeFixedInt(style.backgroundColor);
+            writeFixedInt(style.backgroundColor2);
+            writeFixedInt(style.foregroundColor);
+            writeFixedInt(style.borderColor);
+        }
+
+        private void writeLine(final Line line) throws IOException {
+            for (int i = 0; i < WELL_KNOWN_LINES.length; i++) {
+                if (line == WELL_KNOWN_LINES[i]) {
+                    writeVarint(LINE_INLINE + 1 + i);
+                    return;
+                }
+            }
+            writeVarint(LINE_INLINE);
+            writeString(line.id);
+            writeString(line.network);
+            writeVarint(line.product != null ? line.product.ordinal() + 1 : 0);
+            writeString(line.label);
+            writeString(line.name);
+            writeStyle(line.style);
+            writeVarint(line.attrs != null ? 1 : 0);
+            if (line.attrs != null)
+                writeEnumSet(line.attrs);
+            writeString(line.message);
+        }
+
+        private void writePosition(final @Nullable Position position) throws IOException {
+            if (position == null) {
+                writeString(null);
+                return;
+            }
+            writeString(position.name);
+            writeString(position.section);
+        }
+
+        private void writeStop(final Stop stop) throws IOException {
+            writeLocation(stop.location);
+            final int flags = (stop.plannedArrivalTime != null ? 1 : 0) //
+                    | (stop.predictedArrivalTime != null ? 2 : 0) //
+                    | (stop.arrivalCancelled ? 4 : 0) //
+                    | (stop.plannedDepartureTime != null ? 8 : 0) //
+                    | (stop.predictedDepartureTime != null ? 16 : 0) //
+                    | (stop.departureCancelled ? 32 : 0);
+            writeVarint(flags);
+            if (stop.plannedArrivalTime != null)
+                writeTime(stop.plannedArrivalTime);
+            if (stop.predictedArrivalTime != null)
+                writeTime(stop.predictedArrivalTime);
+            writePosition(stop.plannedArrivalPosition);
+            writePosition(stop.predictedArrivalPosition);
+            if (stop.plannedDepartureTime != null)
+                writeTime(stop.plannedDepartureTime);
+            if (stop.predictedDepartureTime != null)
+                writeTime(stop.predictedDepartureTime);
+            writePosition(stop.plannedDeparturePosition);
+            writePosition(stop.predictedDeparturePosition);
+        }
+
+        private void writeDeparture(final Departure departure) throws IOException {
+            final int flags = (departure.plannedTime != null ? 1 : 0) | (departure.predictedTime != null ? 2 : 0);
+            writeVarint(flags);
+            if (departure.plannedTime != null)
+                writeTime(departure.plannedTime);
+            if (departure.predictedTime != null)
+                writeTime(departure.predictedTime);
+            writeLine(departure.line);
+            writePosition(departure.position);
+            writeLocation(departure.destination);
+            writeIntArray(departure.capacity);
+            writeString(departure.message);
+        }
+
+        private void writeFare(final Fare fare) throws IOException {
+            writeString(fare.network);
+            writeVarint(fare.type.ordinal());
+            writeString(fare.currency.getCurrencyCode());
+            writeFixedInt(Float.floatToIntBits(fare.fare));
+            writeString(fare.unitName);
+            writeString(fare.units);
+        }
+
+        private void writeTrip(final Trip trip) throws IOException {
+            writeString(trip.getId());
+            writeLocation(trip.from);
+            writeLocation(trip.to);
+            writeVarint(trip.legs.size());
+            for (final Trip.Leg leg : trip.legs) {
+                if (leg instanceof Trip.Public) {
+                    final Trip.Public publicLeg = (Trip.Public) leg;
+                    writeVarint(0);
+                    writeLine(publicLeg.line);
+                    writeLocation(publicLeg.destination);
+                    writeStop(publicLeg.departureStop);
+                    writeStop(publicLeg.arrivalStop);
+                    writeSize(publicLeg.intermediateStops);
+                    if (publicLeg.intermediateStops != null)
+                        for (final Stop stop : publicLeg.intermediateStops)
+                            writeStop(stop);
+                    writeString(publicLeg.message);
+                } else if (leg instanceof Trip.Individual) {
+                    final Trip.Individual individualLeg = (Trip.Individual) leg;
+                    writeVarint(1);
+                    writeVarint(individualLeg.type.ordinal());
+                    writeLocation(individualLeg.departure);
+                    writeTime(individualLeg.departureTime);
+                    writeLocation(individualLeg.arrival);
+                    writeTime(individualLeg.arrivalTime);
+                    writeSignedVarint(individualLeg.distance);
+                } else {
+                    throw new IllegalArgumentException("cannot encode: " + leg.getClass().getName());
+                }
+                writePath(leg.path);
+            }
+            writeSize(trip.fares);
+            if (trip.fares != null)
+                for (final Fare fare : trip.fares)
+                    writeFare(fare);
+            writeIntArray(trip.capacity);
+            writeVarint(trip.numChanges != null ? zigZag(trip.numChanges) + 1 : 0);
+        }
+
+        private void writeSerializable(final @Nullable Serializable object) throws IOException {
+            if (object == null) {
+                writeVarint(0);
+                return;
+            }
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (final ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+                oos.writeObject(object);
+            }
+            writeVarint(bytes.size() + 1);
+            write(bytes.toByteArray());
+        }
+
+        private void writeHeader(final @Nullable ResultHeader header) throws IOException {
+            writeBoolean(header != null);
+            if (header == null)
+                return;
+            writeString(header.network.name());
+            writeString(header.serverProduct);
+            writeString(header.serverVersion);
+            writeString(header.serverName);
+            writeSignedVarint(header.serverTime);
+            final Object context = header.context;
+            if (context == null) {
+                writeVarint(REF_NULL);
+            } else if (context instanceof String) {
+                writeVarint(OPAQUE_STRING);
+                writeString((String) context);
+            } else if (context instanceof Serializable) {
+                writeVarint(OPAQUE_SERIALIZED);
+                writeSerializable((Serializable) context);
+            } else {
+                throw new IllegalArgumentException("cannot encode: " + context.getClass().getName());
+            }
+        }
+
+        private void writeQueryTripsResult(final QueryTripsResult result) throws IOException {
+            writeHeader(result.header);
+            writeVarint(result.status.ordinal());
+            if (result.status == QueryTripsResult.Status.OK) {
+                writeString(result.queryUri);
+                writeLocation(result.from);
+                writeLocation(result.via);
+                writeLocation(result.to);
+                writeSerializable(result.context);
+                writeVarint(result.trips.size());
+                for (final Trip trip : result.trips)
+                    writeTrip(trip);
+            } else if (result.status == QueryTripsResult.Status.AMBIGUOUS) {
+                writeLocations(result.ambiguousFrom);
+                writeLocations(result.ambiguousVia);
+                writeLocations(result.ambiguousTo);
+            }
+        }
+
+        private void writeQueryDeparturesResult(final QueryDeparturesResult result) throws IOException {
+            writeHeader(result.header);
+            writeVarint(result.status.ordinal());
+            writeVarint(result.stationDepartures.size());
+            for (final StationDepartures stationDepartures : result.stationDepartures) {
+                writeLocation(stationDepartures.location);
+                writeVarint(stationDepartures.departures.size());
+                for (final Departure departure : stationDepartures.departures)
+                    writeDeparture(departure);
+                writeSize(stationDepartures.lines);
+                if (stationDepartures.lines != null) {
+                    for (final LineDestination lineDestination : stationDepartures.lines) {
+                        writeLine(lineDestination.line);
+                        writeLocation(lineDestination.destination);
+                    }
+                }
+            }
+        }
+
+        private void writeSuggestLocationsResult(final SuggestLocationsResult result) throws IOException {
+            writeHeader(result.header);
+            writeVarint(result.status.ordinal());
+            writeSize(result.suggestedLocations);
+            if (result.suggestedLocations != null) {
+                for (final SuggestedLocation suggestedLocation : result.suggestedLocations) {
+                    writeLocation(suggestedLocation.location);
+                    writeSignedVarint(suggestedLocation.priority);
+                }
+            }
+        }
+
+        private void writeNearbyLocationsResult(final NearbyLocationsResult result) throws IOException {
+            writeHeader(result.header);
+            writeVarint(result.status.ordinal());
+            writeLocations(result.locations);
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] buf;
+        private int pos = 0;
+        private final List<String> strings = new ArrayList<>();
+        private final List<Location> locations = new ArrayList<>();
+        private final List<Style> styles = new ArrayList<>();
+        private long lastTime = 0;
+        private int lastLat = 0, lastLon = 0;
+
+        private Reader(final byte[] buf) {
+            this.buf = buf;
+        }
+
+        private byte readByte() throws IOException {
+            if (pos >= buf.length)
+                throw new EOFException();
+            return buf[pos++];
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final byte b = readByte();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new StreamCorruptedException("varint too long");
+        }
+
+        private int readVarint() throws IOException {
+            return (int) readVarLong();
+        }
+
+        private long readSignedVarint() throws IOException {
+            return unZigZag(readVarLong());
+        }
+
+        private int readFixedInt() throws IOException {
+            return (readByte() & 0xff) << 24 | (readByte() & 0xff) << 16 | (readByte() & 0xff) << 8
+                    | (readByte() & 0xff);
+        }
+
+        private boolean readBoolean() throws IOException {
+            return readByte() != 0;
+        }
+
+        private int skip(final int size) throws IOException {
+            if (size < 0 || pos + size > buf.length)
+                throw new EOFException();
+            final int offset = pos;
+            pos += size;
+            return offset;
+        }
+
+        private String readString() throws IOException {
+            final int ref = readVarint();
+            if (ref == REF_NULL)
+                return null;
+            if (ref != REF_NEW)
+                return lookup(strings, ref);
+            final int size = readVarint();
+            final String string = new String(buf, skip(size), size, Charsets.UTF_8);
+            strings.add(string);
+            return string;
+        }
+
+        private static <T> T lookup(final List<T> table, final int ref) throws IOException {
+            final int index = ref - REF_OFFSET;
+            if (index < 0 || index >= table.size())
+                throw new StreamCorruptedException("dangling reference: " + ref);
+            return table.get(index);
+        }
+
+        private static <E extends Enum<E>> E readEnum(final E[] values, final int ordinal) throws IOException {
+            if (ordinal < 0 || ordinal >= values.length)
+                throw new StreamCorruptedException("unknown ordinal: " + ordinal);
+            return values[ordinal];
+        }
+
+        private Date readTime() throws IOException {
+            lastTime += readSignedVarint();
+            return new Date(lastTime);
+        }
+
+        private Point readPoint() throws IOException {
+            lastLat += (int) readSignedVarint();
+            lastLon += (int) readSignedVarint();
+            return new Point(lastLat, lastLon);
+        }
+
+        private int readSize() throws IOException {
+            return readVarint() - 1;
+        }
+
+        private <E extends Enum<E>> Set<E> readEnumSet(final Class<E> type) throws IOException {
+            final long bits = readVarLong();
+            final Set<E> set = EnumSet.noneOf(type);
+            for (final E e : type.getEnumConstants())
+                if ((bits & (1L << e.ordinal())) != 0)
+                    set.add(e);
+            return set;
+        }
+
+        private int[] readIntArray() throws IOException {
+            final int size = readSize();
+            if (size < 0)
+                return null;
+            final int[] array = new int[size];
+            for (int i = 0; i < size; i++)
+                array[i] = (int) readSignedVarint();
+            return array;
+        }
+
+        private Location readLocation() throws IOException {
+            final int ref = readVarint();
+            if (ref == REF_NULL)
+                return null;
+            if (ref != REF_NEW)
+                return lookup(locations, ref);
+            final LocationType type = readEnum(LocationType.values(), readVarint());
+            final String id = readString();
+            final String place = readString();
+            final String name = readString();
+            final int flags = readVarint();
+            final Point coord = (flags & 1) != 0 ? readPoint() : null;
+            final Set<Product> products = (flags & 2) != 0 ? readEnumSet(Product.class) : null;
+            final Location location = new Location(type, id, coord, place, name, products);
+            locations.add(location);
+            return location;
+        }
+
+        private List<Location> readLocations() throws IOException {
+            final int size = readSize();
+            if (size < 0)
+                return null;
+            final List<Location> locations = new ArrayList<>(size);
+            for (int i = 0; i < size; i++)
+                locations.add(readLocation());
+            return locations;
+        }
+
+        private List<Point> readPath() throws IOException {
+            final int size = readSize();
+            if (size < 0)
+                return null;
+            final List<Point> path = new ArrayList<>(size);
+            for (int i = 0; i < size; i++)
+                path.add(readPoint());
+            return path;
+        }
+
+        private Style readStyle() throws IOException {
+            final int ref = readVarint();
+            if (ref == REF_NULL)
+                return null;
+            if (ref != REF_NEW)
+                return lookup(styles, ref);
+            final Style.Shape shape = readEnum(Style.Shape.values(), readVarint());
+            final int backgroundColor = readFixedInt();
+            final int backgroundColor2 = readFixedInt();
+            final int foregroundColor = readFixedInt();
+            final int borderColor = readFixedInt();
+            final Style style = new Style(shape, backgroundColor, backgroundColor2, foregroundColor, borderColor);
+            styles.add(style);
+            return style;
+        }
+
+        private Line readLine() throws IOException {
+            final int tag = readVarint();
+            if (tag != LINE_INLINE) {
+                final int index = tag - LINE_INLINE - 1;
+                if (index < 0 || index >= WELL_KNOWN_LINES.length)
+                    throw new StreamCorruptedException("unknown line: " + tag);
+                return WELL_KNOWN_LINES[index];
+            }
+            final String id = readString();
+            final String network = readString();
+            final int product = readVarint();
+            final String label = readString();
+            final String name = readString();
+            final Style style = readStyle();
+            final Set<Line.Attr> attrs = readVarint() != 0 ? readEnumSet(Line.Attr.class) : null;
+            final String message = readString();
+            return new Line(id, network, product != 0 ? readEnum(Product.values(), product - 1) : null, label, name,
+                    style, attrs, message);
+        }
+
+        private Position readPosition() throws IOException {
+            final String name = readString();
+            if (name == null)
+                return null;
+            return new Position(name, readString());
+        }
+
+        private Stop readStop() throws IOException {
+            final Location location = readLocation();
+            final int flags = readVarint();
+            final Date plannedArrivalTime = (flags & 1) != 0 ? readTime() : null;
+            final Date predictedArrivalTime = (flags & 2) != 0 ? readTime() : null;
+            final Position plannedArrivalPosition = readPosition();
+            final Position predictedArrivalPosition = readPosition();
+            final Date plannedDepartureTime = (flags & 8) != 0 ? readTime() : null;
+            final Date predictedDepartureTime = (flags & 16) != 0 ? readTime() : null;
+            final Position plannedDeparturePosition = readPosition();
+            final Position predictedDeparturePosition = readPosition();
+            return new Stop(location, plannedArrivalTime, predictedArrivalTime, plannedArrivalPosition,
+                    predictedArrivalPosition, (flags & 4) != 0, plannedDepartureTime, predictedDepartureTime,
+                    plannedDeparturePosition, predictedDeparturePosition, (flags & 32) != 0);
+        }
+
+        private Departure readDeparture() throws IOException {
+            final int flags = readVarint();
+            final Date plannedTime = (flags & 1) != 0 ? readTime() : null;
+            final Date predictedTime = (flags & 2) != 0 ? readTime() : null;
+            final Line line = readLine();
+            final Position position = readPosition();
+            final Location destination = readLocation();
+            final int[] capacity = readIntArray();
+            final String message = readString();
+            return new Departure(plannedTime, predictedTime, line, position, destination, capacity, message);
+        }
+
+        private Fare readFare() throws IOException {
+            final String network = readString();
+            final Fare.Type type = readEnum(Fare.Type.values(), readVarint());
+            final Currency currency = Currency.getInstance(readString());
+            final float fare = Float.intBitsToFloat(readFixedInt());
+            final String unitName = readString();
+            final String units = readString();
+            return new Fare(network, type, currency, fare, unitName, units);
+        }
+
+        private Trip readTrip() throws IOException {
+            final String id = readString();
+            final Location from = readLocation();
+            final Location to = readLocation();
+            final int numLegs = readVarint();
+            final List<Trip.Leg> legs = new ArrayList<>(numLegs);
+            for (int i = 0; i < numLegs; i++) {
+                final int legType = readVarint();
+                if (legType == 0) {
+                    final Line line = readLine();
+                    final Location destination = readLocation();
+                    final Stop departureStop = readStop();
+                    final Stop arrivalStop = readStop();
+                    final int numIntermediateStops = readSize();
+                    final List<Stop> intermediateStops;
+                    if (numIntermediateStops >= 0) {
+                        intermediateStops = new ArrayList<>(numIntermediateStops);
+                        for (int j = 0; j < numIntermediateStops; j++)
+                            intermediateStops.add(readStop());
+                    } else {
+                        intermediateStops = null;
+                    }
+                    final String message = readString();
+                    final List<Point> path = readPath();
+                    legs.add(new Trip.Public(line, destination, departureStop, arrivalStop, intermediateStops, path,
+                            message));
+                } else if (legType == 1) {
+                    final Trip.Individual.Type type = readEnum(Trip.Individual.Type.values(), readVarint());
+                    final Location departure = readLocation();
+                    final Date departureTime = readTime();
+                    final Location arrival = readLocation();
+                    final Date arrivalTime = readTime();
+                    final int distance = (int) readSignedVarint();
+                    final List<Point> path = readPath();
+                    legs.add(new Trip.Individual(type, departure, departureTime, arrival, arrivalTime, path,
+                            distance));
+                } else {
+                    throw new StreamCorruptedException("unknown leg type: " + legType);
+                }
+            }
+            final int numFares = readSize();
+            final List<Fare> fares;
+            if (numFares >= 0) {
+                fares = new ArrayList<>(numFares);
+                for (int i = 0; i < numFares; i++)
+                    fares.add(readFare());
+            } else {
+                fares = null;
+            }
+            final int[] capacity = readIntArray();
+            final long numChanges = readVarLong();
+            return new Trip(id, from, to, legs, fares, capacity,
+                    numChanges != 0 ? (int) unZigZag(numChanges - 1) : null);
+        }
+
+        private Serializable readSerializable() throws IOException {
+            final int size = readSize();
+            if (size < 0)
+                return null;
+            try (final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(buf, skip(size), size))) {
+                return (Serializable) ois.readObject();
+            } catch (final ClassNotFoundException x) {
+                throw new IOException(x);
+            }
+        }
+
+        private ResultHeader readHeader() throws IOException {
+            if (!readBoolean())
+                return null;
+            final NetworkId network;
+            try {
+                network = NetworkId.valueOf(readString());
+            } catch (final IllegalArgumentException x) {
+                throw new StreamCorruptedException(x.getMessage());
+            }
+            final String serverProduct = readString();
+            final String serverVersion = readString();
+            final String serverName = readString();
+            final long serverTime = readSignedVarint();
+            final int contextType = readVarint();
+            final Object context;
+            if (contextType == REF_NULL)
+                context = null;
+            else if (contextType == OPAQUE_STRING)
+                context = readString();
+            else if (contextType == OPAQUE_SERIALIZED)
+                context = readSerializable();
+            else
+                throw new StreamCorruptedException("unknown context type: " + contextType);
+            return new ResultHeader(network, serverProduct, serverVersion, serverName, serverTime, context);
+        }
+
+        private QueryTripsResult readQueryTripsResult() throws IOException {
+            final ResultHeader header = readHeader();
+            final QueryTripsResult.Status status = readEnum(QueryTripsResult.Status.values(), readVarint());
+            if (status == QueryTripsResult.Status.OK) {
+                final String queryUri = readString();
+                final Location from = readLocation();
+                final Location via = readLocation();
+                final Location to = readLocation();
+                final QueryTripsContext context = (QueryTripsContext) readSerializable();
+                final int numTrips = readVarint();
+                final List<Trip> trips = new ArrayList<>(numTrips);
+                for (int i = 0; i < numTrips; i++)
+                    trips.add(readTrip());
+                return new QueryTripsResult(header, queryUri, from, via, to, context, trips);
+            } else if (status == QueryTripsResult.Status.AMBIGUOUS) {
+                final List<Location> ambiguousFrom = readLocations();
+                final List<Location> ambiguousVia = readLocations();
+                final List<Location> ambiguousTo = readLocations();
+                return new QueryTripsResult(header, ambiguousFrom, ambiguousVia, ambiguousTo);
+            } else {
+                return new QueryTripsResult(header, status);
+            }
+        }
+
+        private QueryDeparturesResult readQueryDeparturesResult() throws IOException {
+            final ResultHeader header = readHeader();
+            final QueryDeparturesResult.Status status = readEnum(QueryDeparturesResult.Status.values(),
+                    readVarint());
+            final QueryDeparturesResult result = new QueryDeparturesResult(header, status);
+            final int numStations = readVarint();
+            for (int i = 0; i < numStations; i++) {
+                final Location location = readLocation();
+                final int numDepartures = readVarint();
+                final List<Departure> departures = new ArrayList<>(numDepartures);
+                for (int j = 0; j < numDepartures; j++)
+                    departures.add(readDeparture());
+                final int numLines = readSize();
+                final List<LineDestination> lines;
+                if (numLines >= 0) {
+                    lines = new ArrayList<>(numLines);
+                    for (int j = 0; j < numLines; j++) {
+                        final Line line = readLine();
+                        lines.add(new LineDestination(line, readLocation()));
+                    }
+                } else {
+                    lines = null;
+                }
+                result.stationDepartures.add(new StationDepartures(location, departures, lines));
+            }
+            return result;
+        }
+
+        private SuggestLocationsResult readSuggestLocationsResult() throws IOException {
+            final ResultHeader header = readHeader();
+            final SuggestLocationsResult.Status status = readEnum(SuggestLocationsResult.Status.values(),
+                    readVarint());
+            final int size = readSize();
+            if (size < 0)
+                return new SuggestLocationsResult(header, status);
+            final List<SuggestedLocation> suggestedLocations = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                final Location location = readLocation();
+                suggestedLocations.add(new SuggestedLocation(location, (int) readSignedVarint()));
+            }
+            return new SuggestLocationsResult(header, suggestedLocations);
+        }
+
+        private NearbyLocationsResult readNearbyLocationsResult() throws IOException {
+            final ResultHeader header = readHeader();
+            final NearbyLocationsResult.Status status = readEnum(NearbyLocationsResult.Status.values(),
+                    readVarint());
+            final List<Location> locations = readLocations();
+            if (locations == null)
+                return new NearbyLocationsResult(header, status);
+            return new NearbyLocationsResult(header, locations);
+        }
+    }
+}
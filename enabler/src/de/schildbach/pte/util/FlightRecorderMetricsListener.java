@@ -0,0 +1,176 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import de.schildbach.pte.NetworkId;
+
+/**
+ * {@link MetricsListener} that emits Java Flight Recorder events for provider operations, HTTP exchanges and parse
+ * phases, so that recordings show where time goes per network.
+ *
+ * <p>
+ * The library is compiled for Java 7 and Android, so it cannot link against {@code jdk.jfr}. Instead, the event
+ * types are created at runtime via {@code jdk.jfr.EventFactory}, which needs a JDK 12 or later. Use
+ * {@link #isAvailable()} to check before constructing an instance. Events are committed once the measured call is
+ * done; their durations are carried in the {@code elapsed} field.
+ * </p>
+ */
+public final class FlightRecorderMetricsListener implements MetricsListener {
+    private static final String CATEGORY = "Public Transport Enabler";
+
+    private final EventType operationEvent;
+    private final EventType exchangeEvent;
+    private final EventType phaseEvent;
+
+    public static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.EventFactory");
+            return true;
+        } catch (final ClassNotFoundException x) {
+            return false;
+        }
+    }
+
+    /**
+     * @throws IllegalStateException
+     *             if Flight Recorder is not available on this runtime
+     */
+    public FlightRecorderMetricsListener() {
+        try {
+            operationEvent = new EventType("de.schildbach.pte.Operation", "Provider Operation",
+                    new Field("network", String.class), new Field("operation", String.class),
+                    new Field("resultCount", int.class), new Field("failure", String.class),
+                    new Field("elapsed", long.class, true));
+            exchangeEvent = new EventType("de.schildbach.pte.Exchange", "Provider HTTP Exchange",
+                    new Field("network", String.class), new Field("operation", String.class),
+                    new Field("urlTemplate", String.class), new Field("responseCode", int.class),
+                    new Field("bytesIn", long.class), new Field("failure", String.class),
+                    new Field("connect", long.class, true), new Field("firstByte", long.class, true),
+                    new Field("body", long.class, true), new Field("parse", long.class, true),
+                    new Field("elapsed", long.class, true));
+            phaseEvent = new EventType("de.schildbach.pte.Phase", "Provider Parse Phase",
+                    new Field("network", String.class), new Field("operation", String.class),
+                    new Field("phase", String.class), new Field("size", long.class),
+                    new Field("elapsed", long.class, true));
+        } catch (final ReflectiveOperationException x) {
+            throw new IllegalStateException("Flight Recorder not available", x);
+        }
+    }
+
+    @Override
+    public void onExchange(final NetworkId network, final @Nullable String operation, final Exchange exchange) {
+        exchangeEvent.commit(network.name(), operation, exchange.urlTemplate, exchange.responseCode,
+                exchange.bytesIn, exchange.failure != null ? exchange.failure.getName() : null,
+                exchange.connectNanos, exchange.firstByteNanos, exchange.bodyNanos, exchange.parseNanos,
+                exchange.totalNanos());
+    }
+
+    @Override
+    public void onPhase(final NetworkId network, final @Nullable String operation, final String phase,
+            final long durationNanos, final long size) {
+        phaseEvent.commit(network.name(), operation, phase, size, durationNanos);
+    }
+
+    @Override
+    public void onOperation(final NetworkId network, final String operation, final long durationNanos,
+            final int resultCount, final @Nullable Throwable failure) {
+        operationEvent.commit(network.name(), operation, resultCount,
+                failure != null ? failure.getClass().getName() : null, durationNanos);
+    }
+
+    private static final class Field {
+        final String name;
+        final Class<?> type;
+        final boolean timespan;
+
+        Field(final String name, final Class<?> type) {
+            this(name, type, false);
+        }
+
+        Field(final String name, final Class<?> type, final boolean timespan) {
+            this.name = name;
+            this.type = type;
+            this.timespan = timespan;
+        }
+    }
+
+    private static final class EventType {
+        private final Object factory;
+        private final Method newEvent;
+        private final Method set;
+        private final Method commit;
+
+        EventType(final String name, final String label, final Field... fields) throws ReflectiveOperationException {
+            final Class<?> annotationElementClass = Class.forName("jdk.jfr.AnnotationElement");
+            final Constructor<?> annotationElement = annotationElementClass.getConstructor(Class.class,
+                    Object.class);
+            final Class<?> valueDescriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+            final Constructor<?> valueDescriptor = valueDescriptorClass.getConstructor(Class.class, String.class,
+                    List.class);
+
+            final List<Object> annotations = new ArrayList<>();
+            annotations.add(annotationElement.newInstance(annotation("jdk.jfr.Name"), name));
+            annotations.add(annotationElement.newInstance(annotation("jdk.jfr.Label"), label));
+            annotations.add(annotationElement.newInstance(annotation("jdk.jfr.Category"), new String[] { CATEGORY }));
+
+            final List<Object> values = new ArrayList<>();
+            for (final Field field : fields) {
+                final List<Object> fieldAnnotations = field.timespan
+                        ? Arrays.asList(annotationElement.newInstance(annotation("jdk.jfr.Timespan"), "NANOSECONDS"))
+                        : Collections.emptyList();
+                values.add(valueDescriptor.newInstance(field.type, field.name, fieldAnnotations));
+            }
+
+            final Class<?> eventFactoryClass = Class.forName("jdk.jfr.EventFactory");
+            factory = eventFactoryClass.getMethod("create", List.class, List.class).invoke(null, annotations,
+                    values);
+            newEvent = eventFactoryClass.getMethod("newEvent");
+            final Class<?> eventClass = Class.forName("jdk.jfr.Event");
+            set = eventClass.getMethod("set", int.class, Object.class);
+            commit = eventClass.getMethod("commit");
+        }
+
+        void commit(final Object... values) {
+            try {
+                final Object event = newEvent.invoke(factory);
+                for (int i = 0; i < values.length; i++)
+                    set.invoke(event, i, values[i]);
+                commit.invoke(event);
+            } catch (final IllegalAccessException x) {
+                throw new RuntimeException(x);
+            } catch (final InvocationTargetException x) {
+                throw new RuntimeException(x.getCause());
+            }
+        }
+
+        private static Class<? extends Annotation> annotation(final String name) throws ClassNotFoundException {
+            return Class.forName(name).asSubclass(Annotation.class);
+        }
+    }
+}
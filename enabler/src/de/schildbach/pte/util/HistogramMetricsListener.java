@@ -0,0 +1,154 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import de.schildbach.pte.NetworkId;
+
+/**
+ * Default {@link MetricsListener}, keeping latency histograms (in microseconds) and counters per network, operation
+ * and metric. Exchanges made outside of an instrumented operation are kept under the operation {@code "-"}.
+ */
+public class HistogramMetricsListener implements MetricsListener {
+    public static final String CONNECT = "connect";
+    public static final String FIRST_BYTE = "ttfb";
+    public static final String BODY = "body";
+    public static final String PARSE = "parse";
+    public static final String EXCHANGE = "exchange";
+    public static final String OPERATION = "operation";
+    /** Prefix of parse phase histograms, followed by the phase name. */
+    public static final String PHASE = "phase.";
+
+    public static final String EXCHANGES = "exchanges";
+    public static final String BYTES_IN = "bytesIn";
+    public static final String RESULTS = "results";
+    public static final String FAILURES = "failures";
+
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    @Override
+    public void onExchange(final NetworkId network, final @Nullable String operation, final Exchange exchange) {
+        final String prefix = prefix(network, operation);
+        histogramFor(prefix + CONNECT).record(micros(exchange.connectNanos));
+        if (exchange.responseCode != 0)
+            histogramFor(prefix + FIRST_BYTE).record(micros(exchange.firstByteNanos));
+        if (exchange.bytesIn > 0) {
+            histogramFor(prefix + BODY).record(micros(exchange.bodyNanos));
+            histogramFor(prefix + PARSE).record(micros(exchange.parseNanos));
+        }
+        histogramFor(prefix + EXCHANGE).record(micros(exchange.totalNanos()));
+        counterFor(prefix + EXCHANGES).incrementAndGet();
+        counterFor(prefix + BYTES_IN).addAndGet(exchange.bytesIn);
+        if (exchange.failure != null)
+            counterFor(prefix + FAILURES + '.' + exchange.failure.getSimpleName()).incrementAndGet();
+    }
+
+    @Override
+    public void onPhase(final NetworkId network, final @Nullable String operation, final String phase,
+            final long durationNanos, final long size) {
+        histogramFor(prefix(network, operation) + PHASE + phase).record(micros(durationNanos));
+    }
+
+    @Override
+    public void onOperation(final NetworkId network, final String operation, final long durationNanos,
+            final int resultCount, final @Nullable Throwable failure) {
+        final String prefix = prefix(network, operation);
+        histogramFor(prefix + OPERATION).record(micros(durationNanos));
+        if (failure == null)
+            counterFor(prefix + RESULTS).addAndGet(resultCount);
+        else
+            counterFor(prefix + OPERATION + '.' + FAILURES + '.' + failure.getClass().getSimpleName())
+                    .incrementAndGet();
+    }
+
+    public @Nullable LatencyHistogram histogram(final NetworkId network, final @Nullable String operation,
+            final String metric) {
+        return histograms.get(prefix(network, operation) + metric);
+    }
+
+    public long counter(final NetworkId network, final @Nullable String operation, final String name) {
+        final AtomicLong counter = counters.get(prefix(network, operation) + name);
+        return counter != null ? counter.get() : 0;
+    }
+
+    /**
+     * Returns a sorted snapshot of all histograms, keyed by {@code network/operation/metric}.
+     */
+    public Map<String, LatencyHistogram> histograms() {
+        return new TreeMap<>(histograms);
+    }
+
+    /**
+     * Returns a sorted snapshot of all counters, keyed by {@code network/operation/name}.
+     */
+    public Map<String, Long> counters() {
+        final Map<String, Long> snapshot = new TreeMap<>();
+        for (final Map.Entry<String, AtomicLong> entry : counters.entrySet())
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        return snapshot;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        for (final Map.Entry<String, LatencyHistogram> entry : histograms().entrySet())
+            builder.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        for (final Map.Entry<String, Long> entry : counters().entrySet())
+            builder.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        return builder.toString();
+    }
+
+    private LatencyHistogram histogramFor(final String key) {
+        LatencyHistogram histogram = histograms.get(key);
+        if (histogram == null) {
+            final LatencyHistogram newHistogram = new LatencyHistogram();
+            histogram = histograms.putIfAbsent(key, newHistogram);
+            if (histogram == null)
+                histogram = newHistogram;
+        }
+        return histogram;
+    }
+
+    private AtomicLong counterFor(final String key) {
+        AtomicLong counter = counters.get(key);
+        if (counter == null) {
+            final AtomicLong newCounter = new AtomicLong();
+            counter = counters.putIfAbsent(key, newCounter);
+            if (counter == null)
+                counter = newCounter;
+        }
+        return counter;
+    }
+
+    private static String prefix(final NetworkId network, final @Nullable String operation) {
+        return network.name() + '/' + (operation != null ? operation : "-") + '/';
+    }
+
+    private static long micros(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
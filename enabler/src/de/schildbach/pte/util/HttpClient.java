@@ -43,6 +43,7 @@ import javax.net.ssl.X509TrustManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import de.schildbach.pte.NetworkId;
 import de.schildbach.pte.exception.BlockedException;
 import de.schildbach.pte.exception.InternalErrorException;
 import de.schildbach.pte.exception.NotFoundException;
@@ -54,6 +55,7 @@ import okhttp3.CertificatePinner;
 import okhttp3.Cookie;
 import okhttp3.Headers;
 import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -61,6 +63,9 @@ import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
 import okhttp3.logging.HttpLoggingInterceptor;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
 
 /**
  * @author Andreas Schildbach
@@ -79,6 +84,18 @@ public final class HttpClient {
     @Nullable
     private CertificatePinner certificatePinner = null;
     private boolean sslAcceptAllHostnames = false;
+    @Nullable
+    private Interceptor interceptor = null;
+    @Nullable
+    private volatile OkHttpClient okHttpClient = null;
+    @Nullable
+    private NetworkId metricsNetwork = null;
+    @Nullable
+    private MetricsListener metricsListener = null;
+
+    private static final ThreadLocal<String> OPERATION = new ThreadLocal<>();
+    // exchange whose response callback is running on the current thread
+    private static final ThreadLocal<ExchangeTimer> EXCHANGE = new ThreadLocal<>();
 
     private static final OkHttpClient OKHTTP_CLIENT;
     static {
@@ -98,6 +115,15 @@ public final class HttpClient {
         builder.writeTimeout(10, TimeUnit.SECONDS);
         builder.readTimeout(15, TimeUnit.SECONDS);
         builder.addNetworkInterceptor(loggingInterceptor);
+        builder.addNetworkInterceptor(new Interceptor() {
+            @Override
+            public Response intercept(final Chain chain) throws IOException {
+                final Object tag = chain.request().tag();
+                if (tag instanceof ExchangeTimer)
+                    ((ExchangeTimer) tag).connectedNanos = System.nanoTime();
+                return chain.proceed(chain.request());
+            }
+        });
         OKHTTP_CLIENT = builder.build();
     }
 
@@ -120,18 +146,119 @@ public final class HttpClient {
 
     public void setProxy(final Proxy proxy) {
         this.proxy = proxy;
+        this.okHttpClient = null;
     }
 
     public void setTrustAllCertificates(final boolean trustAllCertificates) {
         this.trustAllCertificates = trustAllCertificates;
+        this.okHttpClient = null;
     }
 
     public void setCertificatePin(final String host, final String... hashes) {
         this.certificatePinner = new CertificatePinner.Builder().add(host, hashes).build();
+        this.okHttpClient = null;
     }
 
     public void setSslAcceptAllHostnames(final boolean sslAcceptAllHostnames) {
         this.sslAcceptAllHostnames = sslAcceptAllHostnames;
+        this.okHttpClient = null;
+    }
+
+    /**
+     * Routes all requests through the given interceptor, e.g. to replay recorded responses.
+     */
+    public void setInterceptor(final @Nullable Interceptor interceptor) {
+        this.interceptor = interceptor;
+        this.okHttpClient = null;
+    }
+
+    public void setMetricsListener(final NetworkId network, final @Nullable MetricsListener metricsListener) {
+        this.metricsNetwork = checkNotNull(network);
+        this.metricsListener = metricsListener;
+    }
+
+    /**
+     * Tags all exchanges made by the current thread with the given provider operation, for reporting to the
+     * {@link MetricsListener}.
+     *
+     * @return the previous operation, to be restored when the operation is done
+     */
+    public static @Nullable String setOperation(final @Nullable String operation) {
+        final String previous = OPERATION.get();
+        if (operation != null)
+            OPERATION.set(operation);
+        else
+            OPERATION.remove();
+        return previous;
+    }
+
+    /**
+     * @return the operation the current thread's exchanges are tagged with, see {@link #setOperation(String)}
+     */
+    public static @Nullable String getOperation() {
+        return OPERATION.get();
+    }
+
+    /**
+     * Starts timing a parse phase, e.g. the streaming parse of a response body. The phase is reported to the
+     * {@link MetricsListener} once {@link Phase#end()} is called; phases that end with an exception are not reported.
+     * Within a response callback, time spent reading the body from the network is left out, and the size is the
+     * number of body bytes read during the phase.
+     */
+    public Phase startPhase(final String name) {
+        final MetricsListener metricsListener = this.metricsListener;
+        if (metricsListener == null)
+            return Phase.NONE;
+        return new Phase(metricsListener, metricsNetwork, OPERATION.get(), checkNotNull(name), EXCHANGE.get());
+    }
+
+    /**
+     * Reports a parse phase whose work is spread out rather than done in one go, e.g. decoding the entries of a table
+     * on demand.
+     *
+     * @param size
+     *            number of bytes processed in this phase, or {@code -1} if unknown
+     */
+    public void reportPhase(final String name, final long durationNanos, final long size) {
+        final MetricsListener metricsListener = this.metricsListener;
+        if (metricsListener != null)
+            metricsListener.onPhase(metricsNetwork, OPERATION.get(), checkNotNull(name), durationNanos, size);
+    }
+
+    public static final class Phase {
+        private static final Phase NONE = new Phase(null, null, null, null, null);
+
+        private final @Nullable MetricsListener listener;
+        private final NetworkId network;
+        private final @Nullable String operation;
+        private final String name;
+        private final @Nullable ExchangeTimer exchange;
+        private final long startNanos = System.nanoTime();
+        private final long startReadNanos;
+        private final long startBytesIn;
+
+        private Phase(final @Nullable MetricsListener listener, final NetworkId network,
+                final @Nullable String operation, final String name, final @Nullable ExchangeTimer exchange) {
+            this.listener = listener;
+            this.network = network;
+            this.operation = operation;
+            this.name = name;
+            this.exchange = exchange;
+            this.startReadNanos = exchange != null ? exchange.readNanos : 0;
+            this.startBytesIn = exchange != null ? exchange.bytesIn : 0;
+        }
+
+        public void end() {
+            if (listener == null)
+                return;
+            final long elapsedNanos = System.nanoTime() - startNanos;
+            if (exchange != null)
+                listener.onPhase(network, operation, name,
+                        Math.max(elapsedNanos - (exchange.readNanos - startReadNanos), 0),
+                        exchange.bytesIn - startBytesIn);
+            else
+                listener.onPhase(network, operation, name, elapsedNanos, -1);
+        }
     }
 
     public CharSequence get(final HttpUrl url) throws IOException {
@@ -185,28 +312,22 @@ public final class HttpClient {
             if (sessionCookie != null && sessionCookie.name().equals(sessionCookieName))
                 request.header("Cookie", sessionCookie.toString());
 
-            final OkHttpClient okHttpClient;
-            if (proxy != null || trustAllCertificates || certificatePinner != null || sslAcceptAllHostnames) {
-                final OkHttpClient.Builder builder = OKHTTP_CLIENT.newBuilder();
-                if (proxy != null)
-                    builder.proxy(proxy);
-                if (trustAllCertificates)
-                    trustAllCertificates(builder);
-                if (certificatePinner != null)
-                    builder.certificatePinner(certificatePinner);
-                if (sslAcceptAllHostnames)
-                    builder.hostnameVerifier(SSL_ACCEPT_ALL_HOSTNAMES);
-                okHttpClient = builder.build();
-            } else {
-                okHttpClient = OKHTTP_CLIENT;
-            }
+            final MetricsListener metricsListener = this.metricsListener;
+            final ExchangeTimer timer = metricsListener != null ? new ExchangeTimer() : null;
+            if (timer != null)
+                request.tag(timer);
 
-            final Call call = okHttpClient.newCall(request.build());
+            final Call call = okHttpClient().newCall(request.build());
             Response response = null;
+            Throwable failure = null;
             try {
                 response = call.execute();
                 final int responseCode = response.code();
+                if (timer != null)
+                    timer.headersNanos = System.nanoTime();
                 final String bodyPeek = response.peekBody(SCRAPE_PEEK_SIZE).string().replaceAll("\\p{C}", "");
+                if (timer != null)
+                    timer.peekedNanos = System.nanoTime();
                 if (responseCode == HttpURLConnection.HTTP_OK) {
 
                     final HttpUrl redirectUrl = testRedirect(url, bodyPeek);
@@ -230,7 +351,18 @@ public final class HttpClient {
                         }
                     }
 
-                    callback.onSuccessful(bodyPeek, response.body());
+                    if (timer != null) {
+                        timer.parseStartNanos = System.nanoTime();
+                        EXCHANGE.set(timer);
+                        try {
+                            callback.onSuccessful(bodyPeek, timer.wrap(response.body()));
+                        } finally {
+                            EXCHANGE.remove();
+                        }
+                        timer.parseEndNanos = System.nanoTime();
+                    } else {
+                        callback.onSuccessful(bodyPeek, response.body());
+                    }
                     return;
                 } else if (responseCode == HttpURLConnection.HTTP_BAD_REQUEST
                         || responseCode == HttpURLConnection.HTTP_UNAUTHORIZED
@@ -252,13 +384,63 @@ public final class HttpClient {
                     else
                         throw new IOException(message + ": " + url);
                 }
+            } catch (final IOException | RuntimeException x) {
+                failure = x;
+                throw x;
             } finally {
                 if (response != null)
                     response.close();
+                if (timer != null)
+                    metricsListener.onExchange(metricsNetwork, OPERATION.get(),
+                            timer.exchange(url, response != null ? response.code() : 0, failure));
             }
         }
     }
 
+    /**
+     * Collects the timestamps of an exchange. Reads from the body are timed separately, so that network time can be
+     * told apart from parse time even for streaming parsers.
+     */
+    private static final class ExchangeTimer {
+        final long startNanos = System.nanoTime();
+        volatile long connectedNanos;
+        long headersNanos;
+        long peekedNanos;
+        long parseStartNanos;
+        long parseEndNanos;
+        long readNanos;
+        long bytesIn;
+
+        ResponseBody wrap(final ResponseBody body) {
+            final ForwardingSource source = new ForwardingSource(body.source()) {
+                @Override
+                public long read(final Buffer sink, final long byteCount) throws IOException {
+                    final long start = System.nanoTime();
+                    final long read = super.read(sink, byteCount);
+                    readNanos += System.nanoTime() - start;
+                    if (read > 0)
+                        bytesIn += read;
+                    return read;
+                }
+            };
+            return ResponseBody.create(body.contentType(), body.contentLength(), Okio.buffer(source));
+        }
+
+        MetricsListener.Exchange exchange(final HttpUrl url, final int responseCode,
+                final @Nullable Throwable failure) {
+            final long connected = connectedNanos != 0 ? connectedNanos : startNanos;
+            final long connectNanos = connected - startNanos;
+            final long firstByteNanos = headersNanos != 0 ? headersNanos - connected : 0;
+            final long peekNanos = peekedNanos != 0 ? peekedNanos - headersNanos : 0;
+            final long parseEnd = parseEndNanos != 0 ? parseEndNanos : System.nanoTime();
+            final long callbackNanos = parseStartNanos != 0 ? parseEnd - parseStartNanos : 0;
+            final String urlTemplate = url.newBuilder().query(null).fragment(null).build().toString();
+            return new MetricsListener.Exchange(urlTemplate, responseCode, connectNanos, firstByteNanos,
+                    peekNanos + readNanos, Math.max(callbackNanos - readNanos, 0), bytesIn,
+                    failure != null ? failure.getClass() : null);
+        }
+    }
+
     private static final Pattern P_REDIRECT_HTTP_EQUIV = Pattern.compile(
             "<META\\s+http-equiv=\"?refresh\"?\\s+content=\"\\d+;\\s*URL=([^\"]+)\"", Pattern.CASE_INSENSITIVE);
 
@@ -304,6 +486,36 @@ public final class HttpClient {
         return false;
     }
 
+    /**
+     * Returns the OkHttp client for this configuration. All instances share the connection pool and dispatcher of the
+     * process-wide client; a derived client is only built (once) if proxy, TLS or interceptor settings differ from the
+     * defaults.
+     */
+    private OkHttpClient okHttpClient() {
+        OkHttpClient okHttpClient = this.okHttpClient;
+        if (okHttpClient == null) {
+            if (proxy != null || trustAllCertificates || certificatePinner != null || sslAcceptAllHostnames
+                    || interceptor != null) {
+                final OkHttpClient.Builder builder = OKHTTP_CLIENT.newBuilder();
+                if (interceptor != null)
+                    builder.addInterceptor(interceptor);
+                if (proxy != null)
+                    builder.proxy(proxy);
+                if (trustAllCertificates)
+                    trustAllCertificates(builder);
+                if (certificatePinner != null)
+                    builder.certificatePinner(certificatePinner);
+                if (sslAcceptAllHostnames)
+                    builder.hostnameVerifier(SSL_ACCEPT_ALL_HOSTNAMES);
+                okHttpClient = builder.build();
+            } else {
+                okHttpClient = OKHTTP_CLIENT;
+            }
+            this.okHttpClient = okHttpClient;
+        }
+        return okHttpClient;
+    }
+
     private void trustAllCertificates(final OkHttpClient.Builder okHttpClientBuilder) {
         try {
             final SSLContext sslContext = SSLContext.getInstance("SSL");
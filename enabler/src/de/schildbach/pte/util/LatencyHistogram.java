@@ -0,0 +1,105 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram with log-linear buckets, in the style of HdrHistogram. Each power of two is split into 16
+ * linear sub-buckets, so recorded values are kept with a relative error below 1/16 over the whole range of
+ * {@code long}. Values are unit-less; negative values are recorded as {@code 0}.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(final long value) {
+        final long v = Math.max(value, 0);
+        counts.incrementAndGet(index(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+        long current;
+        while (v > (current = max.get()))
+            if (max.compareAndSet(current, v))
+                break;
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        final long count = this.count.get();
+        return count > 0 ? (double) sum.get() / count : 0;
+    }
+
+    /**
+     * Returns the highest value equivalent to the bucket that contains the given percentile, capped at the maximum
+     * recorded value. Returns {@code 0} if nothing was recorded.
+     */
+    public long valueAtPercentile(final double percentile) {
+        checkArgument(percentile >= 0 && percentile <= 100, "percentile out of range: %s", percentile);
+        final long count = this.count.get();
+        if (count == 0)
+            return 0;
+        final long target = Math.max((long) Math.ceil(percentile / 100 * count), 1);
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target)
+                return Math.min(highestEquivalentValue(i), max.get());
+        }
+        return max.get();
+    }
+
+    static int index(final long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long highestEquivalentValue(final int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final int shift = exponent - SUB_BUCKET_BITS;
+        final long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d,p50=%d,p90=%d,p99=%d,max=%d", count(), valueAtPercentile(50),
+                valueAtPercentile(90), valueAtPercentile(99), max());
+    }
+}
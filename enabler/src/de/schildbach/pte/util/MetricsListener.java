@@ -0,0 +1,106 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import javax.annotation.Nullable;
+
+import de.schildbach.pte.NetworkId;
+
+/**
+ * Receives timings and outcomes of provider calls. Implementations must be thread-safe and should return quickly,
+ * as they are called on the thread doing the request.
+ */
+public interface MetricsListener {
+    /**
+     * Called once per HTTP exchange, including exchanges that failed or are going to be retried.
+     */
+    void onExchange(NetworkId network, @Nullable String operation, Exchange exchange);
+
+    /**
+     * Called once per parse phase, see {@link HttpClient#startPhase(String)} and
+     * {@link HttpClient#reportPhase(String, long, long)}.
+     *
+     * @param size
+     *            number of bytes processed in the phase, or {@code -1} if unknown
+     */
+    void onPhase(NetworkId network, @Nullable String operation, String phase, long durationNanos, long size);
+
+    /**
+     * Called once per {@link de.schildbach.pte.NetworkProvider} operation.
+     *
+     * @param resultCount
+     *            number of locations, departures or trips returned, or {@code -1} if the operation failed
+     * @param failure
+     *            exception thrown by the operation, or {@code null}
+     */
+    void onOperation(NetworkId network, String operation, long durationNanos, int resultCount,
+            @Nullable Throwable failure);
+
+    /**
+     * Timings of a single HTTP exchange. Durations are in nanoseconds; phases that were not reached are {@code 0}.
+     */
+    public static final class Exchange {
+        /** URL without query, so that it can be used as a grouping key. */
+        public final String urlTemplate;
+        /** HTTP response code, or {@code 0} if no response was received. */
+        public final int responseCode;
+        /** Time until a connection was available, including DNS lookup, connect and TLS handshake. */
+        public final long connectNanos;
+        /** Time from having a connection until the response headers were received. */
+        public final long firstByteNanos;
+        /** Time spent reading (and inflating) the response body. */
+        public final long bodyNanos;
+        /** Time spent in the parser, not counting reads from the network. */
+        public final long parseNanos;
+        /** Number of (decompressed) body bytes read. */
+        public final long bytesIn;
+        /** Type of exception that ended the exchange, or {@code null}. */
+        public final @Nullable Class<? extends Throwable> failure;
+
+        public Exchange(final String urlTemplate, final int responseCode, final long connectNanos,
+                final long firstByteNanos, final long bodyNanos, final long parseNanos, final long bytesIn,
+                final @Nullable Class<? extends Throwable> failure) {
+            this.urlTemplate = urlTemplate;
+            this.responseCode = responseCode;
+            this.connectNanos = connectNanos;
+            this.firstByteNanos = firstByteNanos;
+            this.bodyNanos = bodyNanos;
+            this.parseNanos = parseNanos;
+            this.bytesIn = bytesIn;
+            this.failure = failure;
+        }
+
+        public long totalNanos() {
+            return connectNanos + firstByteNanos + bodyNanos + parseNanos;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder(getClass().getSimpleName()).append('[');
+            builder.append(urlTemplate).append(',').append(responseCode);
+            builder.append(",connect=").append(connectNanos / 1000000).append("ms");
+            builder.append(",ttfb=").append(firstByteNanos / 1000000).append("ms");
+            builder.append(",body=").append(bodyNanos / 1000000).append("ms");
+            builder.append(",parse=").append(parseNanos / 1000000).append("ms");
+            builder.append(",bytes=").append(bytesIn);
+            if (failure != null)
+                builder.append(',').append(failure.getSimpleName());
+            return builder.append(']').toString();
+        }
+    }
+}
@@ -11,11 +11,31 @@ import javax.annotation.Nullable;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
 
 /**
  * Handy functions that combines XmlPull API into higher level functionality.
  */
 public final class XmlPullUtil {
+    private static final XmlPullParserFactory PARSER_FACTORY;
+
+    static {
+        try {
+            PARSER_FACTORY = XmlPullParserFactory.newInstance(System.getProperty(XmlPullParserFactory.PROPERTY_NAME),
+                    null);
+        } catch (final XmlPullParserException x) {
+            throw new RuntimeException(x);
+        }
+    }
+
+    /**
+     * Create a new parser from a factory that is shared by all providers, so that the implementation lookup happens
+     * only once per process.
+     */
+    public static XmlPullParser newPullParser() throws XmlPullParserException {
+        return PARSER_FACTORY.newPullParser();
+    }
+
     public static boolean test(final XmlPullParser pp, final String tagName)
             throws XmlPullParserException, IOException {
         skipWhitespace(pp);
@@ -0,0 +1,110 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import org.junit.Test;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import de.schildbach.pte.dto.Departure;
+import de.schildbach.pte.dto.Line;
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.dto.ResultHeader;
+import de.schildbach.pte.dto.StationDepartures;
+
+public class CachingDeparturesProviderTest {
+    private final List<Integer> upstreamQueries = new ArrayList<>();
+    private final NetworkProvider upstream = new StubNetworkProvider() {
+        @Override
+        public QueryDeparturesResult queryDepartures(final String stationId, final @Nullable Date time,
+                final int maxDepartures, final boolean equivs) throws IOException {
+            upstreamQueries.add(maxDepartures);
+            final QueryDeparturesResult result = new QueryDeparturesResult(new ResultHeader(NetworkId.RT, "stub"));
+            if (stationId.equals("invalid"))
+                return new QueryDeparturesResult(result.header, QueryDeparturesResult.Status.INVALID_STATION);
+            final List<Departure> departures = new ArrayList<>();
+            for (int i = 0; i < maxDepartures; i++)
+                departures.add(new Departure(new Date(i * 60000L), null, Line.FOOTWAY, null, null, null, null));
+            result.stationDepartures
+                    .add(new StationDepartures(new Location(LocationType.STATION, stationId), departures, null));
+            return result;
+        }
+    };
+
+    private CachingDeparturesProvider provider(final long ttlMillis, final long staleMillis) {
+        return new CachingDeparturesProvider(upstream, MoreExecutors.directExecutor(), ttlMillis, staleMillis, 60000,
+                100);
+    }
+
+    @Test
+    public void freshHit() throws Exception {
+        final CachingDeparturesProvider provider = provider(60000, 60000);
+        final QueryDeparturesResult result = provider.queryDepartures("1", null, 10, false);
+        assertSame(result, provider.queryDepartures("1", null, 10, false));
+        assertEquals(1, upstreamQueries.size());
+    }
+
+    @Test
+    public void largerResultServesSmallerRequest() throws Exception {
+        final CachingDeparturesProvider provider = provider(60000, 60000);
+        provider.queryDepartures("1", null, 10, false);
+        assertEquals(4, provider.queryDepartures("1", null, 4, false).stationDepartures.get(0).departures.size());
+        assertEquals(20, provider.queryDepartures("1", null, 20, false).stationDepartures.get(0).departures.size());
+        assertEquals(4, provider.queryDepartures("1", null, 4, false).stationDepartures.get(0).departures.size());
+        assertEquals("[10, 20]", upstreamQueries.toString());
+    }
+
+    @Test
+    public void keyedByEquivsAndTime() throws Exception {
+        final CachingDeparturesProvider provider = provider(60000, 60000);
+        provider.queryDepartures("1", null, 10, false);
+        provider.queryDepartures("1", null, 10, true);
+        provider.queryDepartures("1", new Date(0), 10, false);
+        provider.queryDepartures("1", new Date(30000), 10, false);
+        provider.queryDepartures("1", new Date(60000), 10, false);
+        assertEquals(4, upstreamQueries.size());
+    }
+
+    @Test
+    public void staleIsServedAndRefreshed() throws Exception {
+        final CachingDeparturesProvider provider = provider(-1, 60000);
+        final QueryDeparturesResult result = provider.queryDepartures("1", null, 10, false);
+        assertSame(result, provider.queryDepartures("1", null, 10, false));
+        assertEquals(2, upstreamQueries.size());
+    }
+
+    @Test
+    public void errorsAreNotCached() throws Exception {
+        final CachingDeparturesProvider provider = provider(60000, 60000);
+        provider.queryDepartures("invalid", null, 10, false);
+        provider.queryDepartures("invalid", null, 10, false);
+        assertEquals(2, upstreamQueries.size());
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.ResultHeader;
+import de.schildbach.pte.dto.SuggestLocationsResult;
+import de.schildbach.pte.dto.SuggestedLocation;
+
+public class CachingSuggestLocationsProviderTest {
+    private static final List<SuggestedLocation> STATIONS = Arrays.asList(
+            new SuggestedLocation(new Location(LocationType.STATION, "1", "Berlin", "Alexanderplatz"), 10),
+            new SuggestedLocation(new Location(LocationType.STATION, "2", "Berlin", "Alexandrinenstr."), 5),
+            new SuggestedLocation(new Location(LocationType.STATION, "3", "Hamburg", "Alexa"), 1));
+
+    private final List<String> upstreamQueries = new ArrayList<>();
+    private final NetworkProvider upstream = new StubNetworkProvider() {
+        @Override
+        public SuggestLocationsResult suggestLocations(final CharSequence constraint) throws IOException {
+            upstreamQueries.add(constraint.toString());
+            final String query = constraint.toString().toLowerCase(Locale.ENGLISH);
+            final List<SuggestedLocation> result = new ArrayList<>();
+            for (final SuggestedLocation station : STATIONS)
+                if ((station.location.place + " " + station.location.name).toLowerCase(Locale.ENGLISH)
+                        .contains(query))
+                    result.add(station);
+            return new SuggestLocationsResult(new ResultHeader(NetworkId.RT, "stub"), result);
+        }
+    };
+
+    private CachingSuggestLocationsProvider provider;
+
+    @Before
+    public void setUp() {
+        provider = new CachingSuggestLocationsProvider(upstream, MoreExecutors.directExecutor(), 60000, 60000, 100);
+    }
+
+    @Test
+    public void exactHit() throws Exception {
+        assertEquals(3, provider.suggestLocations("Alexa").suggestedLocations.size());
+        assertEquals(3, provider.suggestLocations(" alexa ").suggestedLocations.size());
+        assertEquals(Arrays.asList("Alexa"), upstreamQueries);
+    }
+
+    @Test
+    public void prefixHitIsFilteredAndRevalidated() throws Exception {
+        provider.suggestLocations("Alexa");
+        final SuggestLocationsResult result = provider.suggestLocations("Alexan");
+        assertEquals(2, result.suggestedLocations.size());
+        assertEquals("1", result.suggestedLocations.get(0).location.id);
+        assertEquals(Arrays.asList("Alexa", "Alexan"), upstreamQueries);
+
+        // now answered from its own entry
+        provider.suggestLocations("Alexan");
+        assertEquals(2, upstreamQueries.size());
+    }
+
+    @Test
+    public void prefixMissGoesUpstream() throws Exception {
+        provider.suggestLocations("Alexa");
+        assertEquals(0, provider.suggestLocations("Alexax").suggestedLocations.size());
+        assertEquals(Arrays.asList("Alexa", "Alexax"), upstreamQueries);
+    }
+}
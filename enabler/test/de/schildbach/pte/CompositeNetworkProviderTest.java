@@ -0,0 +1,195 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.Nullable;
+
+import org.junit.After;
+import org.junit.Test;
+
+import de.schildbach.pte.dto.Departure;
+import de.schildbach.pte.dto.Line;
+import de.schildbach.pte.dto.LineDestination;
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.NearbyLocationsResult;
+import de.schildbach.pte.dto.Product;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.dto.ResultHeader;
+import de.schildbach.pte.dto.StationDepartures;
+import de.schildbach.pte.dto.SuggestLocationsResult;
+import de.schildbach.pte.dto.SuggestedLocation;
+
+public class CompositeNetworkProviderTest {
+    private static final Location ALEXANDERPLATZ_VBB = new Location(LocationType.STATION, "900100003", 52521481,
+            13411494, "Berlin", "Alexanderplatz");
+    private static final Location ALEXANDERPLATZ_BVG = new Location(LocationType.STATION, "100003", 52521600,
+            13411000, "Berlin", "Alexanderplatz");
+    private static final Location HACKESCHER_MARKT = new Location(LocationType.STATION, "100002", 52522605,
+            13402359, "Berlin", "Hackescher Markt");
+    private static final Line U2 = new Line(null, "BVG", Product.SUBWAY, "U2");
+    private static final Line U5 = new Line(null, "BVG", Product.SUBWAY, "U5");
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<String> requestedStationIds = Collections.synchronizedList(new ArrayList<String>());
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private NetworkProvider provider(final NetworkId network, final long delayMillis,
+            final Location... locations) {
+        return new StubNetworkProvider() {
+            @Override
+            public NetworkId id() {
+                return network;
+            }
+
+            @Override
+            public SuggestLocationsResult suggestLocations(final CharSequence constraint) throws IOException {
+                sleep(delayMillis);
+                final List<SuggestedLocation> suggestions = new ArrayList<>();
+                for (final Location location : locations)
+                    suggestions.add(new SuggestedLocation(location));
+                return new SuggestLocationsResult(new ResultHeader(network, "stub"), suggestions);
+            }
+
+            @Override
+            public NearbyLocationsResult queryNearbyLocations(final EnumSet<LocationType> types,
+                    final Location location, final int maxDistance, final int maxLocations) throws IOException {
+                sleep(delayMillis);
+                return new NearbyLocationsResult(new ResultHeader(network, "stub"), Arrays.asList(locations));
+            }
+
+            @Override
+            public QueryDeparturesResult queryDepartures(final String stationId, final @Nullable Date time,
+                    final int maxDepartures, final boolean equivs) throws IOException {
+                sleep(delayMillis);
+                requestedStationIds.add(network + ":" + stationId);
+                final QueryDeparturesResult result = new QueryDeparturesResult(new ResultHeader(network, "stub"));
+                result.stationDepartures.add(new StationDepartures(locations[0],
+                        Arrays.asList(new Departure(new Date(60000), null, U2, null, null, null, null),
+                                new Departure(new Date(network == NetworkId.BVG ? 0 : 120000), null, U5, null,
+                                        null, null, null)),
+                        Arrays.asList(new LineDestination(network == NetworkId.BVG ? U5 : U2, null))));
+                return result;
+            }
+        };
+    }
+
+    private static void sleep(final long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (final InterruptedException x) {
+            throw new IOException(x);
+        }
+    }
+
+    @Test
+    public void suggestLocationsDeduped() throws Exception {
+        final CompositeNetworkProvider provider = new CompositeNetworkProvider(
+                Arrays.asList(provider(NetworkId.VBB, 0, ALEXANDERPLATZ_VBB),
+                        provider(NetworkId.BVG, 0, ALEXANDERPLATZ_BVG, HACKESCHER_MARKT)),
+                executor, 5000);
+        final SuggestLocationsResult result = provider.suggestLocations("Alex");
+        assertEquals(Arrays.asList(ALEXANDERPLATZ_VBB, HACKESCHER_MARKT), result.getLocations());
+    }
+
+    @Test
+    public void nearbyLocationsPartial() throws Exception {
+        final CompositeNetworkProvider provider = new CompositeNetworkProvider(
+                Arrays.asList(provider(NetworkId.VBB, 0, HACKESCHER_MARKT),
+                        provider(NetworkId.BVG, 10000, ALEXANDERPLATZ_BVG)),
+                executor, 200);
+        final NearbyLocationsResult result = provider.queryNearbyLocations(EnumSet.of(LocationType.STATION),
+                Location.coord(52521000, 13411000), 1000, 10);
+        assertEquals(NearbyLocationsResult.Status.OK, result.status);
+        assertEquals(Arrays.asList(HACKESCHER_MARKT), result.locations);
+    }
+
+    @Test
+    public void nearbyLocationsByIdOnlyFromOwningProvider() throws Exception {
+        final CompositeNetworkProvider provider = new CompositeNetworkProvider(
+                Arrays.asList(provider(NetworkId.VBB, 0, HACKESCHER_MARKT),
+                        provider(NetworkId.BVG, 0, ALEXANDERPLATZ_BVG)),
+                executor, 5000);
+        final NearbyLocationsResult result = provider.queryNearbyLocations(EnumSet.of(LocationType.STATION),
+                new Location(LocationType.STATION, "900100003"), 1000, 10);
+        assertEquals(NearbyLocationsResult.Status.OK, result.status);
+        assertEquals(Arrays.asList(HACKESCHER_MARKT), result.locations);
+    }
+
+    @Test
+    public void departuresMerged() throws Exception {
+        final CompositeNetworkProvider provider = new CompositeNetworkProvider(
+                Arrays.asList(provider(NetworkId.VBB, 0, ALEXANDERPLATZ_VBB),
+                        provider(NetworkId.BVG, 0, ALEXANDERPLATZ_BVG)),
+                executor, 5000);
+        final QueryDeparturesResult result = provider.queryDepartures("900100003", null, 10, false);
+        assertEquals(Arrays.asList("VBB:900100003", "BVG:100003"), requestedStationIds);
+        assertEquals(1, result.stationDepartures.size());
+        final StationDepartures stationDepartures = result.stationDepartures.get(0);
+        assertEquals(ALEXANDERPLATZ_VBB, stationDepartures.location);
+        final List<Departure> departures = stationDepartures.departures;
+        assertEquals(3, departures.size());
+        assertEquals(0, departures.get(0).plannedTime.getTime());
+        assertEquals(60000, departures.get(1).plannedTime.getTime());
+        assertEquals(120000, departures.get(2).plannedTime.getTime());
+        assertEquals(Arrays.asList(new LineDestination(U2, null), new LineDestination(U5, null)),
+                stationDepartures.lines);
+    }
+
+    @Test
+    public void departuresOnlyFromOwningProviderIfStationUnknownElsewhere() throws Exception {
+        final CompositeNetworkProvider provider = new CompositeNetworkProvider(
+                Arrays.asList(provider(NetworkId.VBB, 0, ALEXANDERPLATZ_VBB),
+                        provider(NetworkId.BVG, 0, HACKESCHER_MARKT)),
+                executor, 5000);
+        final QueryDeparturesResult result = provider.queryDepartures("900100003", null, 10, false);
+        assertEquals(Arrays.asList("VBB:900100003"), requestedStationIds);
+        assertEquals(1, result.stationDepartures.size());
+        assertEquals(2, result.stationDepartures.get(0).departures.size());
+    }
+
+    @Test
+    public void departuresWithinOneDeadline() throws Exception {
+        final CompositeNetworkProvider provider = new CompositeNetworkProvider(
+                Arrays.asList(provider(NetworkId.VBB, 800, ALEXANDERPLATZ_VBB),
+                        provider(NetworkId.BVG, 800, ALEXANDERPLATZ_BVG)),
+                executor, 1000);
+        final long start = System.currentTimeMillis();
+        final QueryDeparturesResult result = provider.queryDepartures("900100003", null, 10, false);
+        assertTrue(System.currentTimeMillis() - start < 1500);
+        assertEquals(Arrays.asList("VBB:900100003"), requestedStationIds);
+        assertEquals(2, result.stationDepartures.get(0).departures.size());
+    }
+}
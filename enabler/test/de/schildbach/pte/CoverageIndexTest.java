@@ -0,0 +1,79 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+
+import org.junit.Test;
+
+import de.schildbach.pte.dto.Area;
+import de.schildbach.pte.dto.Point;
+
+public class CoverageIndexTest {
+    private static final Point ALEXANDERPLATZ = new Point(52521481, 13411494);
+    private static final Point POTSDAM = new Point(52391630, 13066860);
+    private static final Point LEIPZIG = new Point(51340199, 12360103);
+    private static final Point MUENCHEN = new Point(48140228, 11558338);
+
+    @Test
+    public void fromProviders() {
+        final CoverageIndex index = CoverageIndex.fromProviders(
+                Arrays.asList(new BvgProvider("auth"), new MvvProvider(), new RtProvider()), 50000);
+        assertEquals(EnumSet.of(NetworkId.BVG), index.networksAt(ALEXANDERPLATZ));
+        assertEquals(EnumSet.noneOf(NetworkId.class), index.networksAt(POTSDAM));
+        assertEquals(EnumSet.noneOf(NetworkId.class), index.networksAt(LEIPZIG));
+        assertEquals(EnumSet.of(NetworkId.MVV), index.networksAt(MUENCHEN));
+    }
+
+    @Test
+    public void polygon() {
+        // concave: a "V" opening to the north, with Berlin in the notch
+        final Point[] area = { new Point(52000000, 12000000), new Point(53000000, 12500000),
+                new Point(52300000, 13400000), new Point(53000000, 14500000), new Point(52000000, 15000000) };
+        final CoverageIndex index = new CoverageIndex.Builder(0).add(NetworkId.VBB, area).build();
+        assertEquals(EnumSet.noneOf(NetworkId.class), index.networksAt(ALEXANDERPLATZ));
+        assertEquals(EnumSet.of(NetworkId.VBB), index.networksAt(POTSDAM));
+        assertEquals(EnumSet.noneOf(NetworkId.class), index.networksAt(LEIPZIG));
+    }
+
+    @Test
+    public void simplified() {
+        // square around Berlin with a spike down to Leipzig, too narrow to survive simplification
+        final Area area = new Area(new Point(52000000, 13000000), new Point(52000000, 12360000),
+                new Point(51340000, 12360000), new Point(51340000, 12361000), new Point(52000000, 12361000),
+                new Point(52000000, 12362000), new Point(52000000, 14000000), new Point(53000000, 14000000),
+                new Point(53000000, 13000000), new Point(52000000, 13000000));
+        assertEquals(EnumSet.of(NetworkId.VBB),
+                new CoverageIndex.Builder(0).add(NetworkId.VBB, area).build().networksAt(LEIPZIG));
+        final CoverageIndex index = new CoverageIndex.Builder(0, 1000).add(NetworkId.VBB, area).build();
+        assertEquals(EnumSet.noneOf(NetworkId.class), index.networksAt(LEIPZIG));
+        assertEquals(EnumSet.of(NetworkId.VBB), index.networksAt(ALEXANDERPLATZ));
+    }
+
+    @Test
+    public void overlapping() {
+        final CoverageIndex index = new CoverageIndex.Builder(20000)
+                .add(NetworkId.VBB, new Point[] { new Point(51000000, 11000000), new Point(54000000, 15000000) })
+                .add(NetworkId.BVG, new Point[] { ALEXANDERPLATZ }).build();
+        assertEquals(EnumSet.of(NetworkId.VBB, NetworkId.BVG), index.networksAt(ALEXANDERPLATZ));
+        assertEquals(EnumSet.of(NetworkId.VBB), index.networksAt(POTSDAM));
+    }
+}
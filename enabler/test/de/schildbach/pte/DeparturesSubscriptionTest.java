@@ -0,0 +1,220 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import org.junit.Test;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import de.schildbach.pte.dto.Departure;
+import de.schildbach.pte.dto.DeparturesDiff;
+import de.schildbach.pte.dto.Line;
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.Product;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.dto.ResultHeader;
+import de.schildbach.pte.dto.StationDepartures;
+
+public class DeparturesSubscriptionTest {
+    private static final Line U2 = new Line(null, "BVG", Product.SUBWAY, "U2");
+    private static final Location PANKOW = new Location(LocationType.STATION, "1", null, "Pankow");
+    private static final Location RUHLEBEN = new Location(LocationType.STATION, "2", null, "Ruhleben");
+
+    private static Departure departure(final long planned, final @Nullable Long predicted,
+            final Location destination) {
+        return new Departure(new Date(planned), predicted != null ? new Date(predicted) : null, U2, null, destination,
+                null, null);
+    }
+
+    @Test
+    public void diff() {
+        final Departure a = departure(0, null, PANKOW);
+        final Departure b = departure(0, null, RUHLEBEN);
+        final Departure c = departure(60000, null, PANKOW);
+        final Departure cDelayed = departure(60000, 120000L, PANKOW);
+        final Departure d = departure(120000, null, RUHLEBEN);
+
+        final DeparturesDiff diff = DeparturesSubscription.diff(Arrays.asList(a, b, c), Arrays.asList(b, cDelayed, d),
+                new Date());
+        assertEquals(Arrays.asList(d), diff.added);
+        assertEquals(Arrays.asList(a), diff.removed);
+        assertEquals(Arrays.asList(cDelayed), diff.changed);
+
+        assertTrue(DeparturesSubscription.diff(Arrays.asList(a, b), Arrays.asList(a, b), new Date()).isEmpty());
+    }
+
+    @Test
+    public void polling() throws Exception {
+        final AtomicInteger polls = new AtomicInteger();
+        final NetworkProvider upstream = new StubNetworkProvider() {
+            @Override
+            public QueryDeparturesResult queryDepartures(final String stationId, final @Nullable Date time,
+                    final int maxDepartures, final boolean equivs) throws IOException {
+                final int poll = polls.getAndIncrement();
+                final QueryDeparturesResult result = new QueryDeparturesResult(new ResultHeader(NetworkId.RT, "stub"));
+                final List<Departure> departures = new ArrayList<>();
+                departures.add(departure(0, poll >= 2 ? 30000L : null, PANKOW));
+                result.stationDepartures.add(new StationDepartures(PANKOW, departures, null));
+                return result;
+            }
+        };
+
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        final List<DeparturesDiff> diffs = Collections.synchronizedList(new ArrayList<DeparturesDiff>());
+        final CountDownLatch latch = new CountDownLatch(3);
+        final DeparturesSubscription subscription = new DeparturesSubscription(upstream, "1", 10, false, scheduler,
+                10, 1000);
+        subscription.addListener(new DeparturesSubscription.Listener() {
+            @Override
+            public void onDepartures(final DeparturesSubscription subscription, final DeparturesDiff diff) {
+                diffs.add(diff);
+                latch.countDown();
+            }
+
+            @Override
+            public void onFailure(final DeparturesSubscription subscription,
+                    final QueryDeparturesResult.Status status) {
+            }
+        });
+        subscription.start();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        subscription.close();
+        scheduler.shutdown();
+
+        assertEquals(1, diffs.get(0).added.size());
+        assertTrue(diffs.get(1).isEmpty());
+        assertEquals(1, diffs.get(2).changed.size());
+    }
+
+    @Test
+    public void pollsOnPollExecutor() throws Exception {
+        final List<String> threadNames = Collections.synchronizedList(new ArrayList<String>());
+        final NetworkProvider upstream = new StubNetworkProvider() {
+            @Override
+            public QueryDeparturesResult queryDepartures(final String stationId, final @Nullable Date time,
+                    final int maxDepartures, final boolean equivs) throws IOException {
+                threadNames.add(Thread.currentThread().getName());
+                return new QueryDeparturesResult(new ResultHeader(NetworkId.RT, "stub"));
+            }
+        };
+
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        final ExecutorService pollExecutor = Executors
+                .newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("poller").build());
+        final CountDownLatch latch = new CountDownLatch(2);
+        final DeparturesSubscription subscription = new DeparturesSubscription(upstream, "1", 10, false, scheduler,
+                10, 10).setPollExecutor(pollExecutor);
+        subscription.addListener(new DeparturesSubscription.Listener() {
+            @Override
+            public void onDepartures(final DeparturesSubscription subscription, final DeparturesDiff diff) {
+                latch.countDown();
+            }
+
+            @Override
+            public void onFailure(final DeparturesSubscription subscription,
+                    final QueryDeparturesResult.Status status) {
+            }
+        });
+        subscription.start();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        subscription.close();
+        scheduler.shutdown();
+        pollExecutor.shutdown();
+
+        assertEquals("poller", threadNames.get(0));
+        assertEquals("poller", threadNames.get(1));
+    }
+
+    @Test
+    public void boardBeforeLaterDiffs() throws Exception {
+        final Departure toPankow = departure(0, null, PANKOW);
+        final Departure toRuhleben = departure(0, null, RUHLEBEN);
+        final CountDownLatch secondPollStarted = new CountDownLatch(1);
+        final CountDownLatch secondPollReleased = new CountDownLatch(1);
+        final AtomicInteger polls = new AtomicInteger();
+        final NetworkProvider upstream = new StubNetworkProvider() {
+            @Override
+            public QueryDeparturesResult queryDepartures(final String stationId, final @Nullable Date time,
+                    final int maxDepartures, final boolean equivs) throws IOException {
+                final int poll = polls.getAndIncrement();
+                if (poll == 1) {
+                    secondPollStarted.countDown();
+                    try {
+                        secondPollReleased.await();
+                    } catch (final InterruptedException x) {
+                        throw new IOException(x);
+                    }
+                }
+                final QueryDeparturesResult result = new QueryDeparturesResult(new ResultHeader(NetworkId.RT, "stub"));
+                result.stationDepartures.add(new StationDepartures(PANKOW,
+                        new ArrayList<>(Arrays.asList(poll == 0 ? toPankow : toRuhleben)), null));
+                return result;
+            }
+        };
+
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        final DeparturesSubscription subscription = new DeparturesSubscription(upstream, "1", 10, false, scheduler,
+                10, 10000);
+        final List<DeparturesDiff> diffs = Collections.synchronizedList(new ArrayList<DeparturesDiff>());
+        final CountDownLatch delivered = new CountDownLatch(2);
+        final DeparturesSubscription.Listener lateListener = new DeparturesSubscription.Listener() {
+            @Override
+            public void onDepartures(final DeparturesSubscription subscription, final DeparturesDiff diff) {
+                diffs.add(diff);
+                delivered.countDown();
+            }
+
+            @Override
+            public void onFailure(final DeparturesSubscription subscription,
+                    final QueryDeparturesResult.Status status) {
+            }
+        };
+        subscription.start();
+        assertTrue(secondPollStarted.await(5, TimeUnit.SECONDS));
+        assertTrue(subscription.addListenerWithBoard(lateListener));
+        secondPollReleased.countDown();
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        subscription.close();
+        scheduler.shutdown();
+
+        assertEquals(Arrays.asList(toPankow), diffs.get(0).added);
+        assertEquals(Arrays.asList(toRuhleben), diffs.get(1).added);
+        assertEquals(Arrays.asList(toPankow), diffs.get(1).removed);
+        assertFalse(subscription.addListenerWithBoard(lateListener));
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.NearbyLocationsResult;
+import de.schildbach.pte.dto.ResultHeader;
+
+public class IndexedNearbyLocationsProviderTest {
+    private static final Location ALEXANDERPLATZ = new Location(LocationType.STATION, "1", 52521481, 13411494,
+            "Berlin", "Alexanderplatz");
+    private static final Location JANNOWITZBRUECKE = new Location(LocationType.STATION, "2", 52515503, 13418027,
+            "Berlin", "Jannowitzbrücke");
+    private static final Location HACKESCHER_MARKT = new Location(LocationType.STATION, "3", 52522605, 13402359,
+            "Berlin", "Hackescher Markt");
+    private static final Location FERNSEHTURM = new Location(LocationType.POI, "4", 52520817, 13409414, "Berlin",
+            "Fernsehturm");
+    private static final List<Location> LOCATIONS = Arrays.asList(ALEXANDERPLATZ, JANNOWITZBRUECKE, HACKESCHER_MARKT,
+            FERNSEHTURM);
+
+    private int upstreamQueries = 0;
+    private final NetworkProvider upstream = new StubNetworkProvider() {
+        @Override
+        public NearbyLocationsResult queryNearbyLocations(final EnumSet<LocationType> types, final Location location,
+                final int maxDistance, final int maxLocations) throws IOException {
+            upstreamQueries++;
+            return new NearbyLocationsResult(new ResultHeader(NetworkId.RT, "stub"), LOCATIONS);
+        }
+    };
+
+    @Test
+    public void index() {
+        final LocationIndex index = new LocationIndex(1000);
+        index.addAll(LOCATIONS);
+        index.add(new Location(LocationType.STATION, "5", -33867487, 151206990, "Sydney", "Central"));
+        assertEquals(5, index.size());
+
+        final Location coord = Location.coord(52521000, 13411000);
+        assertEquals(Arrays.asList(ALEXANDERPLATZ, HACKESCHER_MARKT, JANNOWITZBRUECKE),
+                index.nearby(EnumSet.of(LocationType.STATION), coord.lat, coord.lon, 2000, 0));
+        assertEquals(Arrays.asList(ALEXANDERPLATZ),
+                index.nearby(EnumSet.of(LocationType.STATION), coord.lat, coord.lon, 2000, 1));
+        assertEquals(Arrays.asList(ALEXANDERPLATZ),
+                index.nearby(EnumSet.of(LocationType.STATION), coord.lat, coord.lon, 100, 0));
+        assertEquals(Arrays.asList(FERNSEHTURM),
+                index.nearby(EnumSet.of(LocationType.POI), coord.lat, coord.lon, 2000, 0));
+        assertEquals(5, index.nearby(EnumSet.of(LocationType.STATION, LocationType.POI), -33867000, 151206000,
+                20000000, 0).size());
+
+        // moving a location replaces it
+        index.add(new Location(LocationType.STATION, "1", 48140228, 11558338, "München", "Hauptbahnhof"));
+        assertEquals(5, index.size());
+        assertEquals(Arrays.asList(HACKESCHER_MARKT, JANNOWITZBRUECKE),
+                index.nearby(EnumSet.of(LocationType.STATION), coord.lat, coord.lon, 2000, 0));
+    }
+
+    @Test
+    public void answersLocallyOnceObserved() throws Exception {
+        final IndexedNearbyLocationsProvider provider = new IndexedNearbyLocationsProvider(upstream);
+        final Location coord = Location.coord(52521000, 13411000);
+        provider.queryNearbyLocations(EnumSet.of(LocationType.STATION), coord, 2000, 2);
+        assertEquals(1, upstreamQueries);
+
+        final NearbyLocationsResult result = provider.queryNearbyLocations(EnumSet.of(LocationType.STATION), coord,
+                2000, 2);
+        assertEquals(Arrays.asList(ALEXANDERPLATZ, HACKESCHER_MARKT), result.locations);
+        assertEquals(1, upstreamQueries);
+
+        // not enough locally
+        provider.queryNearbyLocations(EnumSet.of(LocationType.STATION), coord, 2000, 10);
+        assertEquals(2, upstreamQueries);
+    }
+
+    @Test
+    public void answersLocallyWithinObservedCircle() throws Exception {
+        final IndexedNearbyLocationsProvider provider = new IndexedNearbyLocationsProvider(upstream);
+        provider.queryNearbyLocations(EnumSet.of(LocationType.STATION), Location.coord(52521000, 13411000), 2000, 10);
+        assertEquals(1, upstreamQueries);
+
+        final NearbyLocationsResult result = provider.queryNearbyLocations(EnumSet.of(LocationType.STATION),
+                Location.coord(52520000, 13411000), 1000, 10);
+        assertEquals(Arrays.asList(ALEXANDERPLATZ, HACKESCHER_MARKT, JANNOWITZBRUECKE), result.locations);
+        assertEquals(1, upstreamQueries);
+
+        // reaches beyond the observed circle
+        provider.queryNearbyLocations(EnumSet.of(LocationType.STATION), Location.coord(52520000, 13411000), 2000, 10);
+        assertEquals(2, upstreamQueries);
+
+        // other types weren't asked for
+        provider.queryNearbyLocations(EnumSet.of(LocationType.POI), Location.coord(52520000, 13411000), 1000, 10);
+        assertEquals(3, upstreamQueries);
+    }
+
+    @Test
+    public void doesNotCoverUnindexableLocations() throws Exception {
+        final Location unplaced = new Location(LocationType.STATION, "5", "Berlin", "Unplaced");
+        final IndexedNearbyLocationsProvider provider = new IndexedNearbyLocationsProvider(new StubNetworkProvider() {
+            @Override
+            public NearbyLocationsResult queryNearbyLocations(final EnumSet<LocationType> types,
+                    final Location location, final int maxDistance, final int maxLocations) throws IOException {
+                upstreamQueries++;
+                return new NearbyLocationsResult(new ResultHeader(NetworkId.RT, "stub"),
+                        Arrays.asList(ALEXANDERPLATZ, unplaced));
+            }
+        });
+        final Location coord = Location.coord(52521000, 13411000);
+        provider.queryNearbyLocations(EnumSet.of(LocationType.STATION), coord, 2000, 10);
+        assertEquals(1, upstreamQueries);
+
+        final NearbyLocationsResult result = provider.queryNearbyLocations(EnumSet.of(LocationType.STATION), coord,
+                2000, 10);
+        assertEquals(Arrays.asList(ALEXANDERPLATZ, unplaced), result.locations);
+        assertEquals(2, upstreamQueries);
+    }
+
+    @Test
+    public void doesNotTrustPartialIndex() throws Exception {
+        final IndexedNearbyLocationsProvider provider = new IndexedNearbyLocationsProvider(upstream);
+        provider.importLocations(Arrays.asList(JANNOWITZBRUECKE, HACKESCHER_MARKT), false);
+        final NearbyLocationsResult result = provider
+                .queryNearbyLocations(EnumSet.of(LocationType.STATION), Location.coord(52521000, 13411000), 2000, 2);
+        assertEquals(1, upstreamQueries);
+        assertEquals(LOCATIONS, result.locations);
+    }
+
+    @Test
+    public void completeImport() throws Exception {
+        final IndexedNearbyLocationsProvider provider = new IndexedNearbyLocationsProvider(upstream);
+        provider.importLocations(LOCATIONS, true);
+        final NearbyLocationsResult result = provider
+                .queryNearbyLocations(EnumSet.of(LocationType.STATION), Location.coord(52521000, 13411000), 2000, 10);
+        assertEquals(3, result.locations.size());
+        assertEquals(0, upstreamQueries);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.ResultHeader;
+import de.schildbach.pte.dto.SuggestLocationsResult;
+import de.schildbach.pte.dto.SuggestedLocation;
+import de.schildbach.pte.util.HistogramMetricsListener;
+
+public class InstrumentedNetworkProviderTest {
+    private final HistogramMetricsListener metrics = new HistogramMetricsListener();
+    private final NetworkProvider provider = new InstrumentedNetworkProvider(new StubNetworkProvider() {
+        @Override
+        public SuggestLocationsResult suggestLocations(final CharSequence constraint) throws IOException {
+            if (constraint.length() == 0)
+                throw new IOException("empty");
+            return new SuggestLocationsResult(new ResultHeader(NetworkId.RT, "stub"),
+                    Arrays.asList(new SuggestedLocation(new Location(LocationType.STATION, "1")),
+                            new SuggestedLocation(new Location(LocationType.STATION, "2"))));
+        }
+    }, metrics);
+
+    @Test
+    public void resultCount() throws Exception {
+        provider.suggestLocations("foo");
+        provider.suggestLocations("bar");
+        assertEquals(4, metrics.counter(NetworkId.RT, InstrumentedNetworkProvider.SUGGEST_LOCATIONS,
+                HistogramMetricsListener.RESULTS));
+        assertEquals(2, metrics.histogram(NetworkId.RT, InstrumentedNetworkProvider.SUGGEST_LOCATIONS,
+                HistogramMetricsListener.OPERATION).count());
+    }
+
+    @Test
+    public void failure() throws Exception {
+        try {
+            provider.suggestLocations("");
+            fail();
+        } catch (final IOException x) {
+            // expected
+        }
+        assertNotNull(metrics.histogram(NetworkId.RT, InstrumentedNetworkProvider.SUGGEST_LOCATIONS,
+                HistogramMetricsListener.OPERATION));
+        assertEquals(1, metrics.counter(NetworkId.RT, InstrumentedNetworkProvider.SUGGEST_LOCATIONS,
+                "operation.failures.IOException"));
+        assertEquals(0, metrics.counter(NetworkId.RT, InstrumentedNetworkProvider.SUGGEST_LOCATIONS,
+                HistogramMetricsListener.RESULTS));
+    }
+}
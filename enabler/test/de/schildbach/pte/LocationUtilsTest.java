@@ -0,0 +1,83 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LocationUtilsTest {
+    private static final int[][] PAIRS = { //
+            { 52521481, 13411494, 52515503, 13418027 }, // Berlin, short
+            { 52521481, 13411494, 52391630, 13066860 }, // Berlin - Potsdam
+            { -33867487, 151206990, -33890542, 151274856 }, // Sydney, southern hemisphere
+            { 47376887, 8541694, 47368650, 8539183 }, // Zürich
+            { 51507351, -127758, 51503324, 119519 }, // London, across the prime meridian
+    };
+
+    @Test
+    public void approximateDistance() {
+        for (final int[] p : PAIRS) {
+            final float precise = precise(p);
+            assertEquals(precise, LocationUtils.computeApproximateDistance(p[0], p[1], p[2], p[3]), precise * 0.005);
+            assertEquals(precise, LocationUtils.computeHaversineDistance(p[0], p[1], p[2], p[3]), precise * 0.005);
+        }
+    }
+
+    @Test
+    public void haversineDistanceFar() {
+        final int[] p = { 52521481, 13411494, -33867487, 151206990 }; // Berlin - Sydney
+        final float precise = precise(p);
+        assertEquals(precise, LocationUtils.computeHaversineDistance(p[0], p[1], p[2], p[3]), precise * 0.005);
+    }
+
+    @Test
+    public void approximateDistances() {
+        final int[] lats = new int[PAIRS.length];
+        final int[] lons = new int[PAIRS.length];
+        for (int i = 0; i < PAIRS.length; i++) {
+            lats[i] = PAIRS[0][0] + (PAIRS[i][2] - PAIRS[i][0]);
+            lons[i] = PAIRS[0][1] + (PAIRS[i][3] - PAIRS[i][1]);
+        }
+        final float[] distances = new float[PAIRS.length];
+        LocationUtils.computeApproximateDistances(PAIRS[0][0], PAIRS[0][1], lats, lons, distances);
+        for (int i = 0; i < PAIRS.length; i++) {
+            final float single = LocationUtils.computeApproximateDistance(PAIRS[0][0], PAIRS[0][1], lats[i], lons[i]);
+            assertEquals(single, distances[i], single * 0.005);
+        }
+    }
+
+    @Test
+    public void spans() {
+        final int distance = 10000;
+        for (final int lat : new int[] { 0, 52521481, -33867487, 89990000 }) {
+            final int latSpan = LocationUtils.latitudeSpan(distance);
+            final int lonSpan = LocationUtils.longitudeSpan(lat, distance);
+            final int northLat = Math.min(lat + latSpan, 90000000);
+            assertTrue(LocationUtils.computeHaversineDistance(lat, 0, northLat, 0) >= distance * 0.999
+                    || northLat == 90000000);
+            assertTrue(LocationUtils.computeHaversineDistance(lat, 0, lat, lonSpan) >= distance * 0.999
+                    || lonSpan == 180000000);
+        }
+    }
+
+    private static float precise(final int[] p) {
+        return LocationUtils.computeDistance(p[0] / 1E6, p[1] / 1E6, p[2] / 1E6, p[3] / 1E6);
+    }
+}
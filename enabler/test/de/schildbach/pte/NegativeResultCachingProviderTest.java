@@ -0,0 +1,130 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.junit.Test;
+
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.Product;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.dto.QueryTripsResult;
+import de.schildbach.pte.dto.ResultHeader;
+import de.schildbach.pte.exception.NotFoundException;
+
+import okhttp3.HttpUrl;
+
+public class NegativeResultCachingProviderTest {
+    private static final ResultHeader HEADER = new ResultHeader(NetworkId.RT, "stub");
+
+    private int upstreamQueries = 0;
+    private final NegativeResultCachingProvider provider = new NegativeResultCachingProvider(
+            new StubNetworkProvider() {
+                @Override
+                public QueryDeparturesResult queryDepartures(final String stationId, final @Nullable Date time,
+                        final int maxDepartures, final boolean equivs) throws IOException {
+                    upstreamQueries++;
+                    if (stationId.equals("invalid"))
+                        return new QueryDeparturesResult(HEADER, QueryDeparturesResult.Status.INVALID_STATION);
+                    if (stationId.equals("missing"))
+                        throw new NotFoundException(HttpUrl.parse("http://example.com/"), "");
+                    return new QueryDeparturesResult(HEADER);
+                }
+
+                @Override
+                public QueryTripsResult queryTrips(final Location from, final @Nullable Location via,
+                        final Location to, final Date date, final boolean dep, final @Nullable Set<Product> products,
+                        final @Nullable Optimize optimize, final @Nullable WalkSpeed walkSpeed,
+                        final @Nullable Accessibility accessibility, final @Nullable Set<Option> options)
+                        throws IOException {
+                    upstreamQueries++;
+                    if (from.hasId())
+                        return new QueryTripsResult(HEADER, QueryTripsResult.Status.NO_TRIPS);
+                    return new QueryTripsResult(HEADER, QueryTripsResult.Status.UNKNOWN_FROM);
+                }
+            }, 60000, 100);
+
+    @Test
+    public void invalidStation() throws Exception {
+        final QueryDeparturesResult result = provider.queryDepartures("invalid", null, 10, false);
+        assertSame(result, provider.queryDepartures("invalid", new Date(), 20, true));
+        assertEquals(1, upstreamQueries);
+    }
+
+    @Test
+    public void validStationNotCached() throws Exception {
+        provider.queryDepartures("1", null, 10, false);
+        provider.queryDepartures("1", null, 10, false);
+        assertEquals(2, upstreamQueries);
+    }
+
+    @Test
+    public void notFound() throws Exception {
+        final NotFoundException[] thrown = new NotFoundException[3];
+        for (int i = 0; i < thrown.length; i++) {
+            try {
+                provider.queryDepartures("missing", null, 10, false);
+                fail();
+            } catch (final NotFoundException x) {
+                thrown[i] = x;
+            }
+        }
+        assertEquals(1, upstreamQueries);
+        assertNotSame(thrown[1], thrown[2]);
+        assertSame(thrown[0], thrown[1].getCause());
+        assertSame(thrown[0], thrown[2].getCause());
+    }
+
+    @Test
+    public void unknownFrom() throws Exception {
+        final Location from = new Location(LocationType.ANY, null, null, "nowhere");
+        final Location to = new Location(LocationType.STATION, "1");
+        final Date date = new Date(1500000000000L);
+        provider.queryTrips(from, null, to, date, true, null, null, null, null, null);
+        provider.queryTrips(from, null, to, new Date(date.getTime() + 10), true, null, null, null, null, null);
+        provider.queryTrips(from, null, to, new Date(date.getTime() + 3600000), true, null, null, null, null, null);
+        assertEquals(1, upstreamQueries);
+        provider.queryTrips(from, null, to, date, false, null, null, null, null,
+                EnumSet.noneOf(NetworkProvider.Option.class));
+        assertEquals(2, upstreamQueries);
+    }
+
+    @Test
+    public void noTrips() throws Exception {
+        final Location from = new Location(LocationType.STATION, "1");
+        final Location to = new Location(LocationType.STATION, "2");
+        final Date date = new Date(1500000000000L);
+        provider.queryTrips(from, null, to, date, true, null, null, null, null, null);
+        provider.queryTrips(from, null, to, new Date(date.getTime() + 10), true, null, null, null, null, null);
+        assertEquals(1, upstreamQueries);
+        provider.queryTrips(from, null, to, new Date(date.getTime() + 3600000), true, null, null, null, null, null);
+        assertEquals(2, upstreamQueries);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.EnumSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class NetworkProviderRegistryTest {
+    @Test
+    public void lazyAndShared() {
+        final AtomicInteger created = new AtomicInteger();
+        final NetworkProviderRegistry registry = new NetworkProviderRegistry();
+        registry.register(NetworkId.RT, new NetworkProviderRegistry.Factory() {
+            @Override
+            public NetworkProvider create() {
+                created.incrementAndGet();
+                return new RtProvider();
+            }
+        });
+        assertEquals(0, created.get());
+        assertTrue(registry.contains(NetworkId.RT));
+        assertFalse(registry.contains(NetworkId.VBB));
+
+        final NetworkProvider provider = registry.get(NetworkId.RT);
+        assertSame(provider, registry.get(NetworkId.RT));
+        assertEquals(1, created.get());
+    }
+
+    @Test
+    public void fromProperties() {
+        final Properties properties = new Properties();
+        properties.setProperty("RT.class", RtProvider.class.getName());
+        properties.setProperty("hsl.class", HslProvider.class.getName());
+        properties.setProperty("hsl.args", "user, pass");
+        properties.setProperty("userAgent", "test");
+        final NetworkProviderRegistry registry = NetworkProviderRegistry.fromProperties(properties);
+
+        assertEquals(EnumSet.of(NetworkId.RT, NetworkId.HSL), registry.networks());
+        assertEquals(NetworkId.RT, registry.get(NetworkId.RT).id());
+        assertEquals(NetworkId.HSL, registry.get(NetworkId.HSL).id());
+    }
+
+    @Test
+    public void lookupExecutors() {
+        final Set<NetworkId> asked = EnumSet.noneOf(NetworkId.class);
+        final NetworkProviderRegistry registry = new NetworkProviderRegistry();
+        registry.setLookupExecutors(new NetworkProviderRegistry.LookupExecutors() {
+            @Override
+            public ExecutorService get(final NetworkId network) {
+                asked.add(network);
+                return MoreExecutors.newDirectExecutorService();
+            }
+        });
+        registry.register(NetworkId.RT, RtProvider.class);
+        registry.register(NetworkId.VBB, VbbProvider.class);
+        assertTrue(asked.isEmpty());
+
+        registry.get(NetworkId.RT);
+        assertEquals(EnumSet.of(NetworkId.RT), asked);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownNetwork() {
+        new NetworkProviderRegistry().get(NetworkId.RT);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongArgumentCount() {
+        new NetworkProviderRegistry().register(NetworkId.RT, RtProvider.class, "unexpected");
+    }
+}
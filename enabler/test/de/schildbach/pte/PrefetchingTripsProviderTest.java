@@ -0,0 +1,133 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.junit.Test;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.Product;
+import de.schildbach.pte.dto.QueryTripsContext;
+import de.schildbach.pte.dto.QueryTripsResult;
+import de.schildbach.pte.dto.ResultHeader;
+import de.schildbach.pte.dto.Trip;
+
+public class PrefetchingTripsProviderTest {
+    private static final Location FROM = new Location(LocationType.STATION, "1");
+    private static final Location TO = new Location(LocationType.STATION, "2");
+
+    @SuppressWarnings("serial")
+    private static final class PageContext implements QueryTripsContext {
+        private final int page;
+
+        public PageContext(final int page) {
+            this.page = page;
+        }
+
+        @Override
+        public boolean canQueryLater() {
+            return page < 5;
+        }
+
+        @Override
+        public boolean canQueryEarlier() {
+            return page > 0;
+        }
+    }
+
+    private final List<String> upstreamQueries = Collections.synchronizedList(new ArrayList<String>());
+    private final NetworkProvider upstream = new StubNetworkProvider() {
+        @Override
+        public QueryTripsResult queryTrips(final Location from, final @Nullable Location via, final Location to,
+                final Date date, final boolean dep, final @Nullable Set<Product> products,
+                final @Nullable Optimize optimize, final @Nullable WalkSpeed walkSpeed,
+                final @Nullable Accessibility accessibility, final @Nullable Set<Option> options) throws IOException {
+            upstreamQueries.add("trips");
+            return page(0);
+        }
+
+        @Override
+        public QueryTripsResult queryMoreTrips(final QueryTripsContext context, final boolean later)
+                throws IOException {
+            final int page = ((PageContext) context).page + (later ? 1 : -1);
+            upstreamQueries.add("page " + page);
+            return page(page);
+        }
+    };
+
+    private static QueryTripsResult page(final int page) {
+        return new QueryTripsResult(new ResultHeader(NetworkId.RT, "stub"), null, FROM, null, TO,
+                new PageContext(page), new ArrayList<Trip>());
+    }
+
+    private final PrefetchingTripsProvider provider = new PrefetchingTripsProvider(upstream,
+            MoreExecutors.newDirectExecutorService(), 2, 60000, 100);
+
+    @Test
+    public void laterIsPrefetched() throws Exception {
+        final QueryTripsResult first = provider.queryTrips(FROM, null, TO, new Date(), true, null, null, null, null,
+                null);
+        assertEquals("[trips, page 1, page 2]", upstreamQueries.toString());
+
+        final QueryTripsResult second = provider.queryMoreTrips(first.context, true);
+        assertEquals(1, ((PageContext) second.context).page);
+        assertEquals("[trips, page 1, page 2]", upstreamQueries.toString());
+
+        final QueryTripsResult third = provider.queryMoreTrips(second.context, true);
+        assertEquals(2, ((PageContext) third.context).page);
+        assertEquals("[trips, page 1, page 2, page 3, page 4]", upstreamQueries.toString());
+    }
+
+    @Test
+    public void onlyNextPageIsPrefetchedByDefault() throws Exception {
+        final PrefetchingTripsProvider provider = new PrefetchingTripsProvider(upstream,
+                MoreExecutors.newDirectExecutorService());
+        provider.queryTrips(FROM, null, TO, new Date(), true, null, null, null, null, null);
+        assertEquals("[trips, page 1]", upstreamQueries.toString());
+    }
+
+    @Test
+    public void stopsAtLastPage() throws Exception {
+        provider.queryMoreTrips(new PageContext(3), true);
+        assertEquals("[page 4, page 5]", upstreamQueries.toString());
+    }
+
+    @Test
+    public void earlierIsNotPrefetched() throws Exception {
+        final QueryTripsResult first = provider.queryTrips(FROM, null, TO, new Date(), true, null, null, null, null,
+                null);
+        final QueryTripsResult second = provider.queryMoreTrips(first.context, true);
+        upstreamQueries.clear();
+        final QueryTripsResult earlier = provider.queryMoreTrips(second.context, false);
+        assertEquals(0, ((PageContext) earlier.context).page);
+        assertEquals("[page 0]", upstreamQueries.toString());
+    }
+}
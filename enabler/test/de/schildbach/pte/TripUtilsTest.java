@@ -0,0 +1,64 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.schildbach.pte.dto.Line;
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.Product;
+import de.schildbach.pte.dto.Stop;
+import de.schildbach.pte.dto.Trip;
+
+public class TripUtilsTest {
+    private static Trip trip(final long departureTime) {
+        final Location from = new Location(LocationType.STATION, "1");
+        final Location to = new Location(LocationType.STATION, "2");
+        final Stop departureStop = new Stop(from, true, new Date(departureTime), null, null, null);
+        final Stop arrivalStop = new Stop(to, false, new Date(departureTime + 600000), null, null, null);
+        final Trip.Leg leg = new Trip.Public(new Line(null, null, Product.BUS, "42"), to, departureStop, arrivalStop,
+                null, null, null);
+        return new Trip(null, from, to, Arrays.asList(leg), null, null, null);
+    }
+
+    @Test
+    public void mergeLater() {
+        final Trip t1 = trip(1000000), t2 = trip(2000000), t3 = trip(3000000);
+        final List<Trip> merged = TripUtils.mergeTrips(Arrays.asList(t1, t2), Arrays.asList(trip(2000000), t3),
+                true);
+        assertEquals(Arrays.asList(t1, t2, t3), merged);
+        assertSame(t2, merged.get(1));
+    }
+
+    @Test
+    public void mergeEarlier() {
+        final Trip t1 = trip(1000000), t2 = trip(2000000), t3 = trip(3000000);
+        final List<Trip> merged = TripUtils.mergeTrips(Arrays.asList(t2, t3), Arrays.asList(t1, trip(2000000)),
+                false);
+        assertEquals(Arrays.asList(t1, t2, t3), merged);
+        assertSame(t2, merged.get(1));
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.dto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AreaTest {
+    // a square of about 1 km with a slight bulge and two collinear points on its edges
+    private static final Point[] SQUARE = { new Point(52500000, 13400000), new Point(52504500, 13400050),
+            new Point(52509000, 13400000), new Point(52509000, 13407500), new Point(52509000, 13415000),
+            new Point(52500000, 13415000), new Point(52500000, 13400000) };
+
+    @Test
+    public void boundingBox() {
+        final Area area = new Area(SQUARE);
+        assertEquals(52500000, area.minLat);
+        assertEquals(52509000, area.maxLat);
+        assertEquals(13400000, area.minLon);
+        assertEquals(13415000, area.maxLon);
+        assertTrue(area.boundingBoxContains(52504000, 13410000));
+        assertTrue(!area.boundingBoxContains(52510000, 13410000));
+    }
+
+    @Test
+    public void pointsAreCopied() {
+        final Point[] points = SQUARE.clone();
+        final Area area = new Area(points);
+        points[0] = new Point(0, 0);
+        area.getPoints()[1] = new Point(0, 0);
+        assertArrayEquals(SQUARE, area.getPoints());
+    }
+
+    @Test
+    public void simplify() {
+        final Area area = new Area(SQUARE);
+        // the bulge is about 3 meters
+        assertArrayEquals(new Point[] { SQUARE[0], SQUARE[1], SQUARE[2], SQUARE[4], SQUARE[5], SQUARE[6] },
+                area.simplify(1).getPoints());
+        assertArrayEquals(new Point[] { SQUARE[0], SQUARE[2], SQUARE[4], SQUARE[5], SQUARE[6] },
+                area.simplify(10).getPoints());
+    }
+
+    @Test
+    public void simplifyKeepsPolygon() {
+        final Area area = new Area(SQUARE);
+        assertSame(area, area.simplify(100000));
+        assertSame(area, area.simplify(0));
+    }
+
+    @Test
+    public void simplifyIsMemoized() {
+        final Area area = new Area(SQUARE);
+        assertSame(area.simplify(10), area.simplify(10));
+    }
+}
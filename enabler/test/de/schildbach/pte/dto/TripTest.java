@@ -176,4 +176,21 @@ public class TripTest {
         dummy = getDummyTripForChanges(numChangesExpected, false, 2);
         Assert.assertEquals(numChangesExpected, dummy.getNumChanges());
     }
+
+    @Test
+    public void adjustUntravelableIndividualLegs() {
+        final Location from = new Location(LocationType.ANY, null);
+        final Location to = new Location(LocationType.ANY, null);
+        final List<Trip.Leg> legs = new LinkedList<>();
+        legs.add(new Trip.Public(new Line(null, null, null, null), null, new Stop(from, null, null, new Date(42), null),
+                new Stop(to, new Date(50), null, null, null), null, null, null));
+        legs.add(new Trip.Individual(Trip.Individual.Type.WALK, to, new Date(45), from, new Date(47), null, 42));
+        final Trip trip = new Trip(null, from, to, legs, null, null, null);
+        Assert.assertFalse(trip.isTravelable());
+        Assert.assertEquals(new Date(50), trip.getMaxTime());
+
+        trip.adjustUntravelableIndividualLegs();
+        Assert.assertTrue(trip.isTravelable());
+        Assert.assertEquals(new Date(52), trip.getMaxTime());
+    }
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Locale;
+
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.dto.QueryTripsResult;
+
+/**
+ * Compares {@link BinaryCodec} to Java serialization. Not run as part of the tests; start it from the IDE or
+ * the command line.
+ */
+public class BinaryCodecBenchmark {
+    private static final int WARMUP = 2000;
+    private static final int ITERATIONS = 10000;
+    private static final String RESULT_FORMAT = "  %-18s %6d bytes, encode %7.1f µs, decode %7.1f µs";
+
+    public static void main(final String[] args) throws Exception {
+        benchmark("QueryTripsResult (10 trips)", BinaryCodecTest.queryTripsResult(10), QueryTripsResult.class);
+        benchmark("QueryDeparturesResult (50 departures)", BinaryCodecTest.queryDeparturesResult(50),
+                QueryDeparturesResult.class);
+    }
+
+    private static <T> void benchmark(final String name, final T dto, final Class<T> type) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            BinaryCodec.decode(BinaryCodec.encode(dto), type);
+            javaDeserialize(javaSerialize(dto));
+        }
+
+        int binarySize = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+            binarySize = BinaryCodec.encode(dto).length;
+        final long binaryEncode = System.nanoTime() - start;
+
+        final byte[] binary = BinaryCodec.encode(dto);
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+            BinaryCodec.decode(binary, type);
+        final long binaryDecode = System.nanoTime() - start;
+
+        int javaSize = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+            javaSize = javaSerialize(dto).length;
+        final long javaEncode = System.nanoTime() - start;
+
+        final byte[] java = javaSerialize(dto);
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+            javaDeserialize(java);
+        final long javaDecode = System.nanoTime() - start;
+
+        System.out.println(name);
+        System.out.println(String.format(Locale.US, RESULT_FORMAT, "BinaryCodec", binarySize,
+                binaryEncode / 1000.0 / ITERATIONS, binaryDecode / 1000.0 / ITERATIONS));
+        System.out.println(String.format(Locale.US, RESULT_FORMAT, "ObjectOutputStream", javaSize,
+                javaEncode / 1000.0 / ITERATIONS, javaDecode / 1000.0 / ITERATIONS));
+    }
+
+    private static byte[] javaSerialize(final Object object) throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        try (final ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object javaDeserialize(final byte[] bytes) throws Exception {
+        try (final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return ois.readObject();
+        }
+    }
+}
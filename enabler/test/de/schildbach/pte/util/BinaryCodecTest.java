@@ -0,0 +1,306 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.dto.Departure;
+import de.schildbach.pte.dto.Fare;
+import de.schildbach.pte.dto.Line;
+import de.schildbach.pte.dto.LineDestination;
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.NearbyLocationsResult;
+import de.schildbach.pte.dto.Point;
+import de.schildbach.pte.dto.Position;
+import de.schildbach.pte.dto.Product;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.dto.QueryTripsContext;
+import de.schildbach.pte.dto.QueryTripsResult;
+import de.schildbach.pte.dto.ResultHeader;
+import de.schildbach.pte.dto.StationDepartures;
+import de.schildbach.pte.dto.Stop;
+import de.schildbach.pte.dto.Style;
+import de.schildbach.pte.dto.SuggestLocationsResult;
+import de.schildbach.pte.dto.SuggestedLocation;
+import de.schildbach.pte.dto.Trip;
+
+public class BinaryCodecTest {
+    private static final long T = 1500000000000L;
+    private static final Style STYLE = new Style(Style.Shape.CIRCLE, Style.parseColor("#008d4f"), Style.WHITE);
+
+    @SuppressWarnings("serial")
+    static class TestContext implements QueryTripsContext {
+        final String later;
+
+        TestContext(final String later) {
+            this.later = later;
+        }
+
+        @Override
+        public boolean canQueryLater() {
+            return later != null;
+        }
+
+        @Override
+        public boolean canQueryEarlier() {
+            return false;
+        }
+    }
+
+    static Location station(final String id, final int lat, final int lon, final String name) {
+        return new Location(LocationType.STATION, id, lat, lon, "Berlin", name,
+                EnumSet.of(Product.SUBURBAN_TRAIN, Product.BUS));
+    }
+
+    static Trip trip(final int i) {
+        final Location from = Location.coord(52520000, 13400000);
+        final Location a = station("900100003", 52521481, 13411267, "S+U Alexanderplatz");
+        final Location b = station("900003201", 52525592, 13369545, "S+U Hauptbahnhof");
+        final Location to = new Location(LocationType.ADDRESS, null, 52526000, 13368000, null, "Europaplatz 1");
+        final long t = T + i * 600000L;
+        final List<Trip.Leg> legs = new ArrayList<>();
+        legs.add(new Trip.Individual(Trip.Individual.Type.WALK, from, new Date(t), a, new Date(t + 300000),
+                Arrays.asList(new Point(52520000, 13400000), new Point(52521481, 13411267)), 420));
+        final Stop departureStop = new Stop(a, null, null, null, null, false, new Date(t + 360000),
+                new Date(t + 420000), new Position("2"), null, false);
+        final Stop intermediateStop = new Stop(station("900100001", 52520519, 13388866, "S Friedrichstr."),
+                new Date(t + 600000), null, new Date(t + 660000), null);
+        final Stop arrivalStop = new Stop(b, false, new Date(t + 900000), new Date(t + 960000),
+                new Position("15", "A"), null, true);
+        legs.add(new Trip.Public(new Line("1", "BVG", Product.SUBURBAN_TRAIN, "S5", STYLE), b, departureStop,
+                arrivalStop, Arrays.asList(intermediateStop), null, "Bauarbeiten"));
+        legs.add(new Trip.Individual(Trip.Individual.Type.WALK, b, new Date(t + 960000), to, new Date(t + 1080000),
+                null, 100));
+        final List<Fare> fares = Arrays.asList(new Fare("VBB", Fare.Type.ADULT, Currency.getInstance("EUR"), 2.8f,
+                "Zone", "AB"));
+        return new Trip(null, from, to, legs, fares, new int[] { 1, 2 }, i % 2 == 0 ? null : 0);
+    }
+
+    static QueryTripsResult queryTripsResult(final int numTrips) {
+        final List<Trip> trips = new ArrayList<>();
+        for (int i = 0; i < numTrips; i++)
+            trips.add(trip(i));
+        final ResultHeader header = new ResultHeader(NetworkId.BVG, "hafas", "1.0", "srv", T, "opaque");
+        return new QueryTripsResult(header, "http://example.com/", trips.get(0).from, null, trips.get(0).to,
+                new TestContext("later"), trips);
+    }
+
+    static QueryDeparturesResult queryDeparturesResult(final int numDepartures) {
+        final QueryDeparturesResult result = new QueryDeparturesResult(new ResultHeader(NetworkId.BVG, "hafas"));
+        final Location destination = station("900003201", 52525592, 13369545, "S+U Hauptbahnhof");
+        final List<Departure> departures = new ArrayList<>();
+        for (int i = 0; i < numDepartures; i++) {
+            final long plannedTime = T + i * 120000L;
+            departures.add(new Departure(new Date(plannedTime), i % 3 == 0 ? new Date(plannedTime + 60000) : null,
+                    new Line(null, "BVG", Product.BUS, "M" + (i % 5), STYLE), new Position("1"), destination, null,
+                    null));
+        }
+        final List<LineDestination> lines = Arrays
+                .asList(new LineDestination(new Line(null, "BVG", Product.BUS, "M1", STYLE), destination));
+        result.stationDepartures.add(new StationDepartures(
+                station("900100003", 52521481, 13411267, "S+U Alexanderplatz"), departures, lines));
+        return result;
+    }
+
+    private static void assertLocationEquals(final Location expected, final Location actual) {
+        if (expected == null) {
+            assertNull(actual);
+            return;
+        }
+        assertTrue(expected + " != " + actual, expected.equalsAllFields(actual));
+        assertEquals(expected.lat, actual.lat);
+        assertEquals(expected.lon, actual.lon);
+    }
+
+    private static void assertStopEquals(final Stop expected, final Stop actual) {
+        assertEquals(expected, actual);
+        assertLocationEquals(expected.location, actual.location);
+    }
+
+    private static void assertLineEquals(final Line expected, final Line actual) {
+        assertEquals(expected, actual);
+        assertEquals(expected.id, actual.id);
+        assertEquals(expected.name, actual.name);
+        assertEquals(expected.attrs, actual.attrs);
+        assertEquals(expected.message, actual.message);
+        if (expected.style != null) {
+            assertEquals(expected.style.shape, actual.style.shape);
+            assertEquals(expected.style.backgroundColor, actual.style.backgroundColor);
+            assertEquals(expected.style.foregroundColor, actual.style.foregroundColor);
+        } else {
+            assertNull(actual.style);
+        }
+    }
+
+    private static void assertTripEquals(final Trip expected, final Trip actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertLocationEquals(expected.from, actual.from);
+        assertLocationEquals(expected.to, actual.to);
+        assertEquals(expected.fares, actual.fares);
+        assertArrayEquals(expected.capacity, actual.capacity);
+        assertEquals(expected.numChanges, actual.numChanges);
+        assertEquals(expected.legs.size(), actual.legs.size());
+        for (int i = 0; i < expected.legs.size(); i++) {
+            final Trip.Leg expectedLeg = expected.legs.get(i);
+            final Trip.Leg actualLeg = actual.legs.get(i);
+            assertEquals(expectedLeg.getClass(), actualLeg.getClass());
+            assertLocationEquals(expectedLeg.departure, actualLeg.departure);
+            assertLocationEquals(expectedLeg.arrival, actualLeg.arrival);
+            assertEquals(expectedLeg.path, actualLeg.path);
+            if (expectedLeg instanceof Trip.Public) {
+                final Trip.Public expectedPublic = (Trip.Public) expectedLeg;
+                final Trip.Public actualPublic = (Trip.Public) actualLeg;
+                assertLineEquals(expectedPublic.line, actualPublic.line);
+                assertLocationEquals(expectedPublic.destination, actualPublic.destination);
+                assertStopEquals(expectedPublic.departureStop, actualPublic.departureStop);
+                assertStopEquals(expectedPublic.arrivalStop, actualPublic.arrivalStop);
+                assertEquals(expectedPublic.intermediateStops, actualPublic.intermediateStops);
+                assertEquals(expectedPublic.message, actualPublic.message);
+            } else {
+                final Trip.Individual expectedIndividual = (Trip.Individual) expectedLeg;
+                final Trip.Individual actualIndividual = (Trip.Individual) actualLeg;
+                assertEquals(expectedIndividual.type, actualIndividual.type);
+                assertEquals(expectedIndividual.departureTime, actualIndividual.departureTime);
+                assertEquals(expectedIndividual.arrivalTime, actualIndividual.arrivalTime);
+                assertEquals(expectedIndividual.distance, actualIndividual.distance);
+            }
+        }
+    }
+
+    @Test
+    public void roundTripQueryTripsResult() throws Exception {
+        final QueryTripsResult expected = queryTripsResult(5);
+        final QueryTripsResult actual = BinaryCodec.decode(BinaryCodec.encode(expected), QueryTripsResult.class);
+
+        assertEquals(expected.status, actual.status);
+        assertEquals(expected.header.network, actual.header.network);
+        assertEquals(expected.header.serverTime, actual.header.serverTime);
+        assertEquals(expected.header.context, actual.header.context);
+        assertEquals(expected.queryUri, actual.queryUri);
+        assertLocationEquals(expected.from, actual.from);
+        assertNull(actual.via);
+        assertEquals(((TestContext) expected.context).later, ((TestContext) actual.context).later);
+        assertEquals(expected.trips.size(), actual.trips.size());
+        for (int i = 0; i < expected.trips.size(); i++)
+            assertTripEquals(expected.trips.get(i), actual.trips.get(i));
+
+        // shared locations stay shared
+        final Trip trip = actual.trips.get(0);
+        assertSame(trip.legs.get(0).arrival, trip.legs.get(1).departure);
+    }
+
+    @Test
+    public void roundTripAmbiguousQueryTripsResult() throws Exception {
+        final List<Location> ambiguous = Arrays.asList(new Location(LocationType.STATION, "1", null, "A"),
+                new Location(LocationType.POI, "2", 52000000, 13000000, "Berlin", "B"));
+        final QueryTripsResult expected = new QueryTripsResult(null, ambiguous, null, ambiguous);
+        final QueryTripsResult actual = BinaryCodec.decode(BinaryCodec.encode(expected), QueryTripsResult.class);
+
+        assertEquals(QueryTripsResult.Status.AMBIGUOUS, actual.status);
+        assertNull(actual.header);
+        assertNull(actual.ambiguousVia);
+        for (int i = 0; i < ambiguous.size(); i++) {
+            assertLocationEquals(ambiguous.get(i), actual.ambiguousFrom.get(i));
+            assertLocationEquals(ambiguous.get(i), actual.ambiguousTo.get(i));
+        }
+    }
+
+    @Test
+    public void roundTripQueryDeparturesResult() throws Exception {
+        final QueryDeparturesResult expected = queryDeparturesResult(20);
+        final QueryDeparturesResult actual = BinaryCodec.decode(BinaryCodec.encode(expected),
+                QueryDeparturesResult.class);
+
+        assertEquals(expected.status, actual.status);
+        assertEquals(expected.stationDepartures, actual.stationDepartures);
+        final List<Departure> departures = actual.stationDepartures.get(0).departures;
+        for (int i = 0; i < departures.size(); i++) {
+            final Departure departure = expected.stationDepartures.get(0).departures.get(i);
+            assertEquals(departure.position, departures.get(i).position);
+            assertLineEquals(departure.line, departures.get(i).line);
+        }
+    }
+
+    @Test
+    public void roundTripSuggestLocationsResult() throws Exception {
+        final SuggestLocationsResult expected = new SuggestLocationsResult(new ResultHeader(NetworkId.VRR, "efa"),
+                Arrays.asList(new SuggestedLocation(station("20009289", 51457811, 7015045, "Essen Hbf"), 1000),
+                        new SuggestedLocation(new Location(LocationType.ADDRESS, null, 0, 0, "Essen", "Hbf"), -5)));
+        final SuggestLocationsResult actual = BinaryCodec.decode(BinaryCodec.encode(expected),
+                SuggestLocationsResult.class);
+
+        assertEquals(expected.suggestedLocations.size(), actual.suggestedLocations.size());
+        for (int i = 0; i < expected.suggestedLocations.size(); i++) {
+            assertEquals(expected.suggestedLocations.get(i).priority, actual.suggestedLocations.get(i).priority);
+            assertLocationEquals(expected.suggestedLocations.get(i).location,
+                    actual.suggestedLocations.get(i).location);
+        }
+    }
+
+    @Test
+    public void roundTripNearbyLocationsResult() throws Exception {
+        final NearbyLocationsResult expected = new NearbyLocationsResult(null, NearbyLocationsResult.Status.INVALID_ID);
+        final NearbyLocationsResult actual = BinaryCodec.decode(BinaryCodec.encode(expected),
+                NearbyLocationsResult.class);
+
+        assertEquals(NearbyLocationsResult.Status.INVALID_ID, actual.status);
+        assertNull(actual.locations);
+    }
+
+    @Test
+    public void roundTripWellKnownLine() throws Exception {
+        assertSame(Line.FOOTWAY, BinaryCodec.decode(BinaryCodec.encode(Line.FOOTWAY), Line.class));
+    }
+
+    @Test
+    public void smallerThanJavaSerialization() throws Exception {
+        final QueryTripsResult result = queryTripsResult(10);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(result);
+        }
+        final int encodedSize = BinaryCodec.encode(result).length;
+        assertTrue(encodedSize + " vs " + bytes.size(), encodedSize * 3 < bytes.size());
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void unsupportedVersion() throws IOException {
+        final byte[] bytes = BinaryCodec.encode(Location.coord(1, 2));
+        bytes[3] = (byte) (BinaryCodec.VERSION + 1);
+        BinaryCodec.decode(bytes, Location.class);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.schildbach.pte.NetworkId;
+
+public class FlightRecorderMetricsListenerTest {
+    @Test
+    public void commitEvents() throws Exception {
+        assumeTrue(FlightRecorderMetricsListener.isAvailable());
+        final FlightRecorderMetricsListener listener = new FlightRecorderMetricsListener();
+
+        // jdk.jfr cannot be linked against when compiling for Java 7
+        final Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+        final Object recording = recordingClass.getConstructor().newInstance();
+        for (final String name : new String[] { "de.schildbach.pte.Operation", "de.schildbach.pte.Exchange",
+                "de.schildbach.pte.Phase" }) {
+            final Object settings = recordingClass.getMethod("enable", String.class).invoke(recording, name);
+            settings.getClass().getMethod("withoutThreshold").invoke(settings);
+        }
+        recordingClass.getMethod("start").invoke(recording);
+
+        listener.onExchange(NetworkId.RT, "queryTrips", new MetricsListener.Exchange("http://example.com/trip", 200,
+                1000, 2000, 3000, 4000, 1024, null));
+        listener.onExchange(NetworkId.RT, null,
+                new MetricsListener.Exchange("http://example.com/trip", 0, 1000, 0, 0, 0, 0, IOException.class));
+        listener.onPhase(NetworkId.RT, "queryTrips", "hafas.stringTable", 5000, 2048);
+        listener.onOperation(NetworkId.RT, "queryTrips", 10000, 6, null);
+        listener.onOperation(NetworkId.RT, "queryTrips", 10000, -1, new IOException());
+
+        recordingClass.getMethod("stop").invoke(recording);
+        final Path file = Files.createTempFile("metrics", ".jfr");
+        try {
+            recordingClass.getMethod("dump", Path.class).invoke(recording, file);
+            final List<Event> events = readEvents(file);
+            assertEquals(5, events.size());
+
+            final Event exchange = events.get(0);
+            assertEquals("de.schildbach.pte.Exchange", exchange.name);
+            assertEquals("RT", exchange.getString("network"));
+            assertEquals("queryTrips", exchange.getString("operation"));
+            assertEquals("http://example.com/trip", exchange.getString("urlTemplate"));
+            assertEquals(200, exchange.getLong("responseCode"));
+            assertEquals(1024, exchange.getLong("bytesIn"));
+            assertEquals(3000, exchange.getLong("body"));
+            assertEquals(4000, exchange.getLong("parse"));
+            assertNull(exchange.getString("failure"));
+
+            final Event failedExchange = events.get(1);
+            assertNull(failedExchange.getString("operation"));
+            assertEquals(IOException.class.getName(), failedExchange.getString("failure"));
+
+            final Event phase = events.get(2);
+            assertEquals("de.schildbach.pte.Phase", phase.name);
+            assertEquals("hafas.stringTable", phase.getString("phase"));
+            assertEquals(2048, phase.getLong("size"));
+            assertEquals(5000, phase.getLong("elapsed"));
+
+            final Event operation = events.get(3);
+            assertEquals("de.schildbach.pte.Operation", operation.name);
+            assertEquals(6, operation.getLong("resultCount"));
+            assertEquals(10000, operation.getLong("elapsed"));
+            assertNull(operation.getString("failure"));
+
+            assertEquals(IOException.class.getName(), events.get(4).getString("failure"));
+        } finally {
+            recordingClass.getMethod("close").invoke(recording);
+            Files.delete(file);
+        }
+    }
+
+    private static List<Event> readEvents(final Path file) throws Exception {
+        final List<?> recordedEvents = (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile")
+                .getMethod("readAllEvents", Path.class).invoke(null, file);
+        final List<Event> events = new ArrayList<>();
+        for (final Object recordedEvent : recordedEvents)
+            events.add(new Event(recordedEvent));
+        // events of one thread are written in commit order, but sort by start time to be sure
+        Collections.sort(events, new Comparator<Event>() {
+            @Override
+            public int compare(final Event e1, final Event e2) {
+                return Long.compare(e1.startNanos, e2.startNanos);
+            }
+        });
+        return events;
+    }
+
+    private static final class Event {
+        final String name;
+        final long startNanos;
+        private final Object recordedEvent;
+
+        Event(final Object recordedEvent) throws Exception {
+            this.recordedEvent = recordedEvent;
+            final Object eventType = recordedEvent.getClass().getMethod("getEventType").invoke(recordedEvent);
+            this.name = (String) eventType.getClass().getMethod("getName").invoke(eventType);
+            final Object startTime = recordedEvent.getClass().getMethod("getStartTime").invoke(recordedEvent);
+            this.startNanos = (Long) startTime.getClass().getMethod("getEpochSecond").invoke(startTime) * 1000000000L
+                    + (Integer) startTime.getClass().getMethod("getNano").invoke(startTime);
+        }
+
+        String getString(final String field) throws Exception {
+            return (String) method("getString").invoke(recordedEvent, field);
+        }
+
+        long getLong(final String field) throws Exception {
+            return (Long) method("getLong").invoke(recordedEvent, field);
+        }
+
+        private Method method(final String name) throws NoSuchMethodException {
+            return recordedEvent.getClass().getMethod(name, String.class);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+    @Test
+    public void empty() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.valueAtPercentile(99));
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10; i++)
+            histogram.record(i);
+        assertEquals(5, histogram.valueAtPercentile(50));
+        assertEquals(10, histogram.valueAtPercentile(100));
+        assertEquals(5.5, histogram.mean(), 0);
+    }
+
+    @Test
+    public void relativeError() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100000; i++)
+            histogram.record(i * 10L);
+        assertPercentile(500000, histogram.valueAtPercentile(50));
+        assertPercentile(990000, histogram.valueAtPercentile(99));
+        assertEquals(1000000, histogram.valueAtPercentile(100));
+        assertEquals(1000000, histogram.max());
+    }
+
+    @Test
+    public void bucketBoundaries() {
+        for (long value = 0; value < 1 << 20; value = value * 3 / 2 + 1) {
+            final long highest = LatencyHistogram.highestEquivalentValue(LatencyHistogram.index(value));
+            assertTrue(value + " -> " + highest, highest >= value && highest - value <= value / 16);
+        }
+        final int last = LatencyHistogram.index(Long.MAX_VALUE);
+        assertEquals(last, LatencyHistogram.index(LatencyHistogram.highestEquivalentValue(last)));
+    }
+
+    private static void assertPercentile(final long expected, final long actual) {
+        assertTrue(expected + " ~ " + actual, Math.abs(actual - expected) <= expected / 16);
+    }
+}
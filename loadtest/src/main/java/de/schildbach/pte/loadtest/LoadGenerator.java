@@ -0,0 +1,168 @@
+/*
+ * Copyright the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.loadtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.schildbach.pte.util.LatencyHistogram;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Drives requests at a fixed arrival rate, no matter how fast the server answers (open loop). Latency is measured from
+ * the time a request was due, not from when it could actually be sent, so that a saturated server shows up in the
+ * percentiles instead of silently lowering the load (coordinated omission).
+ */
+public class LoadGenerator {
+    private final HttpUrl baseUrl;
+    private final List<String> paths;
+    private final OkHttpClient client;
+
+    public LoadGenerator(final HttpUrl baseUrl, final List<String> paths) {
+        this.baseUrl = baseUrl;
+        this.paths = new ArrayList<>(paths);
+        final Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(Integer.MAX_VALUE);
+        dispatcher.setMaxRequestsPerHost(Integer.MAX_VALUE);
+        this.client = new OkHttpClient.Builder().dispatcher(dispatcher).readTimeout(60, TimeUnit.SECONDS).build();
+    }
+
+    /**
+     * Issues requests at the given rate for the given time, cycling through the paths, and waits for outstanding
+     * requests to finish.
+     */
+    public Report run(final double requestsPerSecond, final long durationMillis) throws InterruptedException {
+        final long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond);
+        final int numRequests = (int) (durationMillis * requestsPerSecond / 1000);
+        final Report report = new Report(paths);
+        final CountDownLatch done = new CountDownLatch(numRequests);
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        final long startNanos = System.nanoTime();
+
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            private int i = 0;
+
+            @Override
+            public void run() {
+                // catch up on ticks the scheduler couldn't deliver in time
+                final long now = System.nanoTime();
+                while (i < numRequests && startNanos + i * intervalNanos <= now) {
+                    final String path = paths.get(i % paths.size());
+                    send(path, startNanos + i * intervalNanos, report, done);
+                    i++;
+                }
+            }
+        }, 0, Math.max(intervalNanos, TimeUnit.MILLISECONDS.toNanos(1)), TimeUnit.NANOSECONDS);
+
+        done.await(durationMillis + TimeUnit.SECONDS.toMillis(60), TimeUnit.MILLISECONDS);
+        scheduler.shutdownNow();
+        report.elapsedNanos = System.nanoTime() - startNanos;
+        return report;
+    }
+
+    private void send(final String path, final long dueNanos, final Report report, final CountDownLatch done) {
+        final Call call = client.newCall(new Request.Builder().url(baseUrl.resolve(path)).build());
+        call.enqueue(new Callback() {
+            @Override
+            public void onResponse(final Call call, final Response response) {
+                boolean success = false;
+                try {
+                    response.body().bytes();
+                    success = response.isSuccessful();
+                } catch (final IOException x) {
+                    // counted as error
+                } finally {
+                    response.close();
+                    report.record(path, System.nanoTime() - dueNanos, success);
+                    done.countDown();
+                }
+            }
+
+            @Override
+            public void onFailure(final Call call, final IOException x) {
+                report.record(path, System.nanoTime() - dueNanos, false);
+                done.countDown();
+            }
+        });
+    }
+
+    public static final class Report {
+        private final Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+        private final Map<String, AtomicLong> errors = new LinkedHashMap<>();
+        private final LatencyHistogram total = new LatencyHistogram();
+        private final AtomicLong totalErrors = new AtomicLong();
+        private volatile long elapsedNanos;
+
+        private Report(final List<String> paths) {
+            for (final String path : paths) {
+                latencies.put(path, new LatencyHistogram());
+                errors.put(path, new AtomicLong());
+            }
+        }
+
+        private void record(final String path, final long latencyNanos, final boolean success) {
+            final long micros = TimeUnit.NANOSECONDS.toMicros(latencyNanos);
+            latencies.get(path).record(micros);
+            total.record(micros);
+            if (!success) {
+                errors.get(path).incrementAndGet();
+                totalErrors.incrementAndGet();
+            }
+        }
+
+        public double throughput() {
+            return total.count() * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder();
+            builder.append(String.format("%-50s %8s %7s %9s %9s %9s %9s %9s%n", "request", "count", "errors",
+                    "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+            for (final Map.Entry<String, LatencyHistogram> entry : latencies.entrySet())
+                appendLine(builder, entry.getKey(), entry.getValue(), errors.get(entry.getKey()).get());
+            appendLine(builder, "total", total, totalErrors.get());
+            builder.append(String.format("throughput: %.1f req/s over %.1f s%n", throughput(), elapsedNanos / 1e9));
+            return builder.toString();
+        }
+
+        private static void appendLine(final StringBuilder builder, final String name,
+                final LatencyHistogram histogram, final long errors) {
+            builder.append(String.format("%-50s %8d %7d %9.1f %9.1f %9.1f %9.1f %9.1f%n",
+                    name.length() > 50 ? name.substring(0, 47) + "..." : name, histogram.count(), errors,
+                    histogram.valueAtPercentile(50) / 1e3, histogram.valueAtPercentile(90) / 1e3,
+                    histogram.valueAtPercentile(99) / 1e3, histogram.valueAtPercentile(99.9) / 1e3,
+                    histogram.max() / 1e3));
+        }
+    }
+}
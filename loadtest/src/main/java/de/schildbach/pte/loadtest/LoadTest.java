@@ -0,0 +1,143 @@
+/*
+ * Copyright the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.loadtest;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.webapp.WebAppContext;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+import org.springframework.web.servlet.FrameworkServlet;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import de.schildbach.pte.AbstractNetworkProvider;
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.NetworkProvider;
+import de.schildbach.pte.NetworkProviderRegistry;
+import de.schildbach.pte.service.JsonResponseCache;
+
+import okhttp3.HttpUrl;
+
+/**
+ * Starts the service in an embedded Jetty, with all providers wired to a {@link ReplayInterceptor}, and puts it under
+ * open-loop load. Configured via system properties:
+ *
+ * <ul>
+ * <li>{@code loadtest.rate}: requests per second (default 50)</li>
+ * <li>{@code loadtest.duration} / {@code loadtest.warmup}: seconds of measured load and of warmup before (30 / 10)</li>
+ * <li>{@code loadtest.latency} / {@code loadtest.jitter}: milliseconds of injected upstream latency (50 / 20)</li>
+ * <li>{@code loadtest.recordings}: directory of recorded responses ({@code recordings})</li>
+ * <li>{@code loadtest.record}: if {@code true}, calls upstream once per request and records the responses</li>
+ * <li>{@code loadtest.cache}: if {@code true}, keeps the response cache of the service enabled, so that repeated
+ * requests are answered from it ({@code false})</li>
+ * <li>{@code loadtest.requests}: file listing request paths, one per line (a small built-in mix for RT)</li>
+ * <li>{@code loadtest.webapp}: webapp directory of the service ({@code ../service/src/main/webapp})</li>
+ * </ul>
+ */
+public class LoadTest {
+    private static final List<String> DEFAULT_REQUESTS = Arrays.asList("/location/suggest?network=RT&q=Berlin",
+            "/location/suggest?network=RT&q=Hamburg", "/location/nearby?network=RT&lat=52525589&lon=13369548",
+            "/location/nearby?network=RT&lat=53552733&lon=10006909",
+            "/trip?network=RT&from=Berlin%20Hbf&to=Hamburg%20Hbf",
+            "/trip?network=RT&from=Hamburg%20Hbf&to=Berlin%20Hbf");
+
+    public static void main(final String[] args) throws Exception {
+        final double rate = Double.parseDouble(System.getProperty("loadtest.rate", "50"));
+        final long durationMillis = TimeUnit.SECONDS.toMillis(Long.getLong("loadtest.duration", 30));
+        final long warmupMillis = TimeUnit.SECONDS.toMillis(Long.getLong("loadtest.warmup", 10));
+        final long latencyMillis = Long.getLong("loadtest.latency", 50);
+        final long jitterMillis = Long.getLong("loadtest.jitter", 20);
+        final File recordings = new File(System.getProperty("loadtest.recordings", "recordings"));
+        final boolean record = Boolean.getBoolean("loadtest.record");
+        final boolean cache = Boolean.getBoolean("loadtest.cache");
+        final String requestsFile = System.getProperty("loadtest.requests");
+        final List<String> requests = requestsFile != null
+                ? Files.readLines(new File(requestsFile), Charsets.UTF_8) : DEFAULT_REQUESTS;
+        final String webapp = System.getProperty("loadtest.webapp", "../service/src/main/webapp");
+
+        final Server server = new Server(0);
+        final WebAppContext context = new WebAppContext(webapp, "/");
+        context.setParentLoaderPriority(true);
+        server.setHandler(context);
+        server.start();
+        try {
+            final WebApplicationContext applicationContext = WebApplicationContextUtils.getWebApplicationContext(
+                    context.getServletContext(), FrameworkServlet.SERVLET_CONTEXT_PREFIX + "dispatcher");
+            applicationContext.getBean(JsonResponseCache.class).setEnabled(cache);
+            final NetworkProviderRegistry providers = applicationContext.getBean(NetworkProviderRegistry.class);
+            final ReplayInterceptor interceptor = new ReplayInterceptor(recordings, record, latencyMillis,
+                    jitterMillis);
+            for (final NetworkId network : providers.networks()) {
+                final NetworkProvider provider = providers.get(network);
+                if (provider instanceof AbstractNetworkProvider)
+                    ((AbstractNetworkProvider) provider).setInterceptor(interceptor);
+            }
+
+            final int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+            final LoadGenerator generator = new LoadGenerator(HttpUrl.parse("http://localhost:" + port + "/"),
+                    requests);
+
+            if (record) {
+                System.out.println("recording " + requests.size() + " requests to " + recordings);
+                System.out.println(generator.run(1, TimeUnit.SECONDS.toMillis(requests.size())));
+                return;
+            }
+
+            System.out.println("warming up for " + warmupMillis / 1000 + " s");
+            generator.run(rate, warmupMillis);
+
+            final Map<String, long[]> gcBefore = gcStats();
+            System.out.println("running " + rate + " req/s for " + durationMillis / 1000 + " s, upstream latency "
+                    + latencyMillis + " +/- " + jitterMillis + " ms, response cache " + (cache ? "on" : "off"));
+            final LoadGenerator.Report report = generator.run(rate, durationMillis);
+            final Map<String, long[]> gcAfter = gcStats();
+
+            System.out.println();
+            System.out.print(report);
+            System.out.println();
+            for (final Map.Entry<String, long[]> entry : gcAfter.entrySet()) {
+                final long[] before = gcBefore.get(entry.getKey());
+                System.out.printf("gc %s: %d collections, %d ms%n", entry.getKey(), entry.getValue()[0] - before[0],
+                        entry.getValue()[1] - before[1]);
+            }
+            final MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+            System.out.printf("heap: %d MB used, %d MB committed%n", heap.getUsed() >> 20, heap.getCommitted() >> 20);
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static Map<String, long[]> gcStats() {
+        final Map<String, long[]> stats = new HashMap<>();
+        for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            stats.put(gc.getName(), new long[] { gc.getCollectionCount(), gc.getCollectionTime() });
+        return stats;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import com.google.common.hash.Hashing;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * Stands in for the upstream servers of the providers. In record mode, requests go upstream and the responses are
+ * saved; in replay mode, saved responses are served after an injected latency, without any network access.
+ *
+ * <p>
+ * Each response is saved twice: under the exact request, and under its method and path. Requests that embed the
+ * current time never match exactly, so they are served the latest response recorded for their path.
+ * </p>
+ */
+public class ReplayInterceptor implements Interceptor {
+    private final File directory;
+    private final boolean record;
+    private final long latencyMillis;
+    private final long jitterMillis;
+
+    public ReplayInterceptor(final File directory, final boolean record, final long latencyMillis,
+            final long jitterMillis) {
+        this.directory = directory;
+        this.record = record;
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        if (record && !directory.isDirectory() && !directory.mkdirs())
+            throw new IllegalStateException("cannot create " + directory);
+        if (!record && !hasRecordings(directory))
+            throw new IllegalStateException("no recordings in " + directory.getAbsolutePath()
+                    + ", record some first by running with -Dloadtest.record=true");
+    }
+
+    @Override
+    public Response intercept(final Chain chain) throws IOException {
+        final Request request = chain.request();
+        final String exactKey = exactKey(request);
+        final String pathKey = pathKey(request);
+
+        if (record) {
+            final Response response = chain.proceed(request);
+            final ResponseBody body = response.body();
+            final MediaType contentType = body.contentType();
+            final byte[] bytes = body.bytes();
+            save(exactKey, response.code(), contentType, bytes);
+            save(pathKey, response.code(), contentType, bytes);
+            return response.newBuilder().body(ResponseBody.create(contentType, bytes)).build();
+        }
+
+        File file = file(exactKey);
+        if (!file.exists())
+            file = file(pathKey);
+        sleep(latencyMillis + (jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis) : 0));
+        final Response.Builder response = new Response.Builder().request(request).protocol(Protocol.HTTP_1_1);
+        if (!file.exists())
+            return response.code(404).message("not recorded").body(ResponseBody.create(null, "not recorded"))
+                    .build();
+        final BufferedSource source = Okio.buffer(Okio.source(file));
+        try {
+            final int code = Integer.parseInt(source.readUtf8LineStrict());
+            final String contentType = source.readUtf8LineStrict();
+            final byte[] bytes = source.readByteArray();
+            return response.code(code).message("replayed")
+                    .body(ResponseBody.create(contentType.isEmpty() ? null : MediaType.parse(contentType), bytes))
+                    .build();
+        } finally {
+            source.close();
+        }
+    }
+
+    private void save(final String key, final int code, final @Nullable MediaType contentType, final byte[] bytes)
+            throws IOException {
+        final BufferedSink sink = Okio.buffer(Okio.sink(file(key)));
+        try {
+            sink.writeUtf8(Integer.toString(code)).writeByte('\n');
+            sink.writeUtf8(contentType != null ? contentType.toString() : "").writeByte('\n');
+            sink.write(bytes);
+        } finally {
+            sink.close();
+        }
+    }
+
+    private static boolean hasRecordings(final File directory) {
+        final String[] files = directory.list();
+        if (files == null)
+            return false;
+        for (final String file : files)
+            if (file.endsWith(".http"))
+                return true;
+        return false;
+    }
+
+    private File file(final String key) {
+        return new File(directory, key + ".http");
+    }
+
+    private static String exactKey(final Request request) throws IOException {
+        final Buffer buffer = new Buffer();
+        buffer.writeUtf8(request.method()).writeByte(' ').writeUtf8(request.url().toString()).writeByte('\n');
+        if (request.body() != null)
+            request.body().writeTo(buffer);
+        return Hashing.murmur3_128().hashBytes(buffer.readByteArray()).toString();
+    }
+
+    private static String pathKey(final Request request) {
+        return request.url().host() + request.url().encodedPath().replaceAll("[^A-Za-z0-9.-]", "_") + '-'
+                + request.method();
+    }
+
+    private static void sleep(final long millis) throws IOException {
+        if (millis <= 0)
+            return;
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (final InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted");
+        }
+    }
+}
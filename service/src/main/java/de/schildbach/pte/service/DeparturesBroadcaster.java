@@ -0,0 +1,145 @@
+/*
+ * Copyright the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.google.common.base.Objects;
+
+import de.schildbach.pte.DeparturesSubscription;
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.NetworkProvider;
+
+/**
+ * Shares one upstream {@link DeparturesSubscription} per station among all listeners of that station. A subscription
+ * is started with its first listener and closed with its last. Polls run on the pools of {@link ProviderExecutors},
+ * so a slow network only holds up its own stations; the scheduler merely keeps time.
+ */
+@Component
+public class DeparturesBroadcaster {
+    private static final int MAX_DEPARTURES = 20;
+
+    @Autowired
+    private ProviderExecutors executors;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Map<Key, DeparturesSubscription> subscriptions = new HashMap<>();
+
+    /**
+     * Adds a listener to the station's subscription. If the board is already known, the listener receives it right
+     * away as a diff listing all departures as added, before any later diff.
+     */
+    public void subscribe(final NetworkProvider provider, final String stationId,
+            final DeparturesSubscription.Listener listener) {
+        final NetworkId network = provider.id();
+        final Key key = new Key(network, stationId);
+        while (true) {
+            final DeparturesSubscription subscription;
+            synchronized (subscriptions) {
+                final DeparturesSubscription existing = subscriptions.get(key);
+                if (existing == null || existing.isClosed()) {
+                    final DeparturesSubscription created = new DeparturesSubscription(provider, stationId,
+                            MAX_DEPARTURES, false, scheduler).setPollExecutor(new Executor() {
+                                @Override
+                                public void execute(final Runnable poll) {
+                                    executors.execute(network, poll);
+                                }
+                            });
+                    subscriptions.put(key, created);
+                    created.addListener(listener);
+                    created.start();
+                    return;
+                }
+                subscription = existing;
+            }
+            // Outside of the lock, because the board is delivered to the listener right away. Polls deliver while
+            // holding the lock of their subscription, and listeners may unsubscribe from within.
+            if (subscription.addListenerWithBoard(listener))
+                return;
+            // closed by its last listener in the meantime, so start over
+        }
+    }
+
+    public void unsubscribe(final NetworkId network, final String stationId,
+            final DeparturesSubscription.Listener listener) {
+        final Key key = new Key(network, stationId);
+        final DeparturesSubscription subscription;
+        synchronized (subscriptions) {
+            subscription = subscriptions.get(key);
+        }
+        if (subscription == null)
+            return;
+        subscription.removeListener(listener);
+        if (subscription.closeIfUnused()) {
+            synchronized (subscriptions) {
+                if (subscriptions.get(key) == subscription)
+                    subscriptions.remove(key);
+            }
+        }
+    }
+
+    public int numSubscriptions() {
+        synchronized (subscriptions) {
+            return subscriptions.size();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        synchronized (subscriptions) {
+            for (final DeparturesSubscription subscription : subscriptions.values())
+                subscription.close();
+            subscriptions.clear();
+        }
+        scheduler.shutdownNow();
+    }
+
+    private static final class Key {
+        private final NetworkId network;
+        private final String stationId;
+
+        public Key(final NetworkId network, final String stationId) {
+            this.network = network;
+            this.stationId = stationId;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (o == this)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            final Key other = (Key) o;
+            return this.network == other.network && this.stationId.equals(other.stationId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(network, stationId);
+        }
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import com.google.common.base.Charsets;
+
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.NetworkProvider;
+import de.schildbach.pte.NetworkProviderRegistry;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+
+/**
+ * Queries the departure boards of many stations at once. Boards are streamed as newline-delimited JSON, one line per
+ * station in order of completion, each carrying either a {@code result} or an {@code error} ({@code TIMEOUT},
+ * {@code OVERLOADED} or {@code FAILED}). All stations share one deadline; stations not done by then are reported as
+ * timed out. Successful boards are kept in the {@link JsonResponseCache} for a short while, so that dashboards polling
+ * the same stations don't cause upstream calls. Concurrent batches to one network share a limit of upstream calls in
+ * flight; stations waiting for a free slot are launched as soon as any batch finishes a call.
+ */
+@Controller
+public class DeparturesController {
+    private static final Logger log = LoggerFactory.getLogger(DeparturesController.class);
+
+    private static final int MAX_STATIONS = 50;
+    /** Upstream calls of all batches in flight per network, so that batches can't take over the pool of a network. */
+    private static final int MAX_IN_FLIGHT = 4;
+    private static final long MAX_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    private static final long MAX_AGE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final ConcurrentMap<NetworkId, Throttle> throttles = new ConcurrentHashMap<>();
+
+    @Autowired
+    private NetworkProviderRegistry providers;
+
+    @Autowired
+    private ProviderExecutors executors;
+
+    @Autowired
+    private JsonResponseCache responseCache;
+
+    @RequestMapping(value = "/departures", method = RequestMethod.GET)
+    public void departures(
+            @RequestParam(value = "network", required = false, defaultValue = "RT") final NetworkId network,
+            @RequestParam("stationId") final String[] stationIds,
+            @RequestParam(value = "maxDepartures", required = false, defaultValue = "10") final int maxDepartures,
+            @RequestParam(value = "timeout", required = false, defaultValue = "10000") final long timeoutMillis,
+            final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+        final Set<String> ids = new LinkedHashSet<>(Arrays.asList(stationIds));
+        if (ids.size() > MAX_STATIONS) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "at most " + MAX_STATIONS + " stations");
+            return;
+        }
+        final NetworkProvider provider = providers.get(network);
+
+        response.setContentType("application/x-ndjson");
+        response.setCharacterEncoding(Charsets.UTF_8.name());
+        response.setHeader("Cache-Control", "no-cache");
+
+        final AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(Math.max(Math.min(timeoutMillis, MAX_TIMEOUT_MILLIS), 1));
+        final Batch batch = new Batch(network, provider, throttle(network), ids, maxDepartures, asyncContext,
+                response.getWriter());
+        asyncContext.addListener(batch);
+        batch.start();
+    }
+
+    private Throttle throttle(final NetworkId network) {
+        Throttle throttle = throttles.get(network);
+        if (throttle == null) {
+            final Throttle newThrottle = new Throttle(MAX_IN_FLIGHT);
+            throttle = throttles.putIfAbsent(network, newThrottle);
+            if (throttle == null)
+                throttle = newThrottle;
+        }
+        return throttle;
+    }
+
+    /**
+     * Slots for upstream calls to one network, shared by all batches. Batches that find no free slot wait in line and
+     * are woken up whenever a slot is freed.
+     */
+    private static final class Throttle {
+        private int available;
+        private final Set<Batch> waiting = new LinkedHashSet<>();
+
+        public Throttle(final int slots) {
+            this.available = slots;
+        }
+
+        public synchronized boolean acquire(final Batch batch) {
+            if (available > 0) {
+                available--;
+                return true;
+            }
+            waiting.add(batch);
+            return false;
+        }
+
+        public void release() {
+            final List<Batch> woken;
+            synchronized (this) {
+                available++;
+                woken = new ArrayList<>(waiting);
+                waiting.clear();
+            }
+            for (final Batch batch : woken)
+                batch.launchNext();
+        }
+
+        public synchronized void remove(final Batch batch) {
+            waiting.remove(batch);
+        }
+    }
+
+    private final class Batch implements AsyncListener {
+        private final NetworkId network;
+        private final NetworkProvider provider;
+        private final Throttle throttle;
+        private final int maxDepartures;
+        private final AsyncContext asyncContext;
+        private final PrintWriter writer;
+        private final Deque<String> queue;
+        private final Set<String> pending;
+        private final Map<String, Call> running = new HashMap<>();
+        private boolean closed = false;
+
+        public Batch(final NetworkId network, final NetworkProvider provider, final Throttle throttle,
+                final Set<String> stationIds, final int maxDepartures, final AsyncContext asyncContext,
+                final PrintWriter writer) {
+            this.network = network;
+            this.provider = provider;
+            this.throttle = throttle;
+            this.maxDepartures = maxDepartures;
+            this.asyncContext = asyncContext;
+            this.writer = writer;
+            this.queue = new ArrayDeque<>(stationIds);
+            this.pending = new LinkedHashSet<>(stationIds);
+        }
+
+        public void start() {
+            for (int i = 0; i < MAX_IN_FLIGHT; i++)
+                launchNext();
+        }
+
+        private void launchNext() {
+            while (true) {
+                final String stationId;
+                synchronized (this) {
+                    if (closed || queue.isEmpty())
+                        return;
+                    stationId = queue.poll();
+                }
+                final JsonResponseCache.Entry entry = responseCache.get(key(stationId));
+                if (entry != null) {
+                    writeResult(stationId, entry.json);
+                    continue;
+                }
+                synchronized (this) {
+                    // put back and wait in line atomically, so that a wake-up can't miss the station
+                    if (!throttle.acquire(this)) {
+                        queue.addFirst(stationId);
+                        return;
+                    }
+                }
+                final Call call = new Call(stationId);
+                try {
+                    synchronized (this) {
+                        running.put(stationId, call);
+                    }
+                    call.future = executors.execute(network, call);
+                    return;
+                } catch (final RejectedExecutionException x) {
+                    finished(stationId);
+                    call.cancel();
+                    writeError(stationId, "OVERLOADED");
+                }
+            }
+        }
+
+        private final class Call implements Runnable {
+            private final String stationId;
+            private final AtomicBoolean started = new AtomicBoolean();
+            private volatile Future<?> future;
+
+            public Call(final String stationId) {
+                this.stationId = stationId;
+            }
+
+            @Override
+            public void run() {
+                if (!started.compareAndSet(false, true))
+                    return;
+                try {
+                    query(stationId);
+                } finally {
+                    throttle.release();
+                    launchNext();
+                }
+            }
+
+            /** Cancels the call, and frees its slot if it never got to run. */
+            public void cancel() {
+                final Future<?> future = this.future;
+                if (future != null)
+                    future.cancel(true);
+                if (started.compareAndSet(false, true))
+                    throttle.release();
+            }
+        }
+
+        private void query(final String stationId) {
+            try {
+                final QueryDeparturesResult result = provider.queryDepartures(stationId, null, maxDepartures, false);
+                finished(stationId);
+                if (JsonResponseCache.isCacheable(result))
+                    writeResult(stationId, responseCache.put(key(stationId), result, MAX_AGE_MILLIS).json);
+                else
+                    writeResult(stationId, result);
+            } catch (final Exception x) {
+                log.info("cannot query departures for {} at {}", network, stationId, x);
+                finished(stationId);
+                writeError(stationId, "FAILED");
+            }
+        }
+
+        /** Done upstream, so closing the batch while writing the line mustn't interrupt the calling thread. */
+        private synchronized void finished(final String stationId) {
+            running.remove(stationId);
+        }
+
+        private List<?> key(final String stationId) {
+            return JsonResponseCache.key("departures", network, stationId, maxDepartures);
+        }
+
+        private void writeResult(final String stationId, final byte[] result) {
+            try {
+                final StringWriter json = new StringWriter();
+                final JsonGenerator gen = jsonFactory.createJsonGenerator(json);
+                gen.writeStartObject();
+                gen.writeStringField("stationId", stationId);
+                gen.writeFieldName("result");
+                gen.writeRawValue(new String(result, Charsets.UTF_8));
+                gen.writeEndObject();
+                gen.flush();
+                write(stationId, json.toString());
+            } catch (final IOException x) {
+                throw new RuntimeException(x); // cannot happen with a StringWriter
+            }
+        }
+
+        private void writeResult(final String stationId, final QueryDeparturesResult result) {
+            try {
+                final StringWriter json = new StringWriter();
+                final JsonGenerator gen = jsonFactory.createJsonGenerator(json);
+                gen.writeStartObject();
+                gen.writeStringField("stationId", stationId);
+                gen.writeFieldName("result");
+                new JsonResultWriter(gen).writeQueryDeparturesResult(result);
+                gen.writeEndObject();
+                gen.flush();
+                write(stationId, json.toString());
+            } catch (final IOException x) {
+                throw new RuntimeException(x); // cannot happen with a StringWriter
+            }
+        }
+
+        private void writeError(final String stationId, final String error) {
+            try {
+                final StringWriter json = new StringWriter();
+                final JsonGenerator gen = jsonFactory.createJsonGenerator(json);
+                gen.writeStartObject();
+                gen.writeStringField("stationId", stationId);
+                gen.writeStringField("error", error);
+                gen.writeEndObject();
+                gen.flush();
+                write(stationId, json.toString());
+            } catch (final IOException x) {
+                throw new RuntimeException(x); // cannot happen with a StringWriter
+            }
+        }
+
+        private synchronized void write(final String stationId, final String line) {
+            if (closed || !pending.remove(stationId))
+                return;
+            writer.write(line);
+            writer.write('\n');
+            if (writer.checkError() || pending.isEmpty()) // also flushes
+                close();
+        }
+
+        private void close() {
+            final List<Call> calls;
+            synchronized (this) {
+                if (closed)
+                    return;
+                closed = true;
+                calls = new ArrayList<>(running.values());
+                running.clear();
+            }
+            throttle.remove(this);
+            for (final Call call : calls)
+                call.cancel();
+            try {
+                asyncContext.complete();
+            } catch (final IllegalStateException x) {
+                // already completed by the container
+            }
+        }
+
+        @Override
+        public void onTimeout(final AsyncEvent event) {
+            final List<String> timedOut;
+            synchronized (this) {
+                timedOut = new ArrayList<>(pending);
+            }
+            for (final String stationId : timedOut)
+                writeError(stationId, "TIMEOUT");
+            close();
+        }
+
+        @Override
+        public void onComplete(final AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onError(final AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onStartAsync(final AsyncEvent event) {
+        }
+    }
+}
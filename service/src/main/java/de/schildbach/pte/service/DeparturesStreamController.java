@@ -0,0 +1,162 @@
+/*
+ * Copyright the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import com.google.common.base.Charsets;
+
+import de.schildbach.pte.DeparturesSubscription;
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.NetworkProvider;
+import de.schildbach.pte.NetworkProviderRegistry;
+import de.schildbach.pte.dto.DeparturesDiff;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+
+/**
+ * Streams live departure boards as Server-Sent Events. Each {@code diff} event carries the departures added, removed
+ * and changed since the previous one; the first event carries the whole board. Streams end after a while, upon which
+ * clients are expected to reconnect, as {@code EventSource} does.
+ */
+@Controller
+public class DeparturesStreamController {
+    private static final long STREAM_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    @Autowired
+    private NetworkProviderRegistry providers;
+
+    @Autowired
+    private DeparturesBroadcaster broadcaster;
+
+    @RequestMapping(value = "/departures/stream", method = RequestMethod.GET)
+    public void stream(
+            @RequestParam(value = "network", required = false, defaultValue = "RT") final NetworkId network,
+            @RequestParam("stationId") final String stationId, final HttpServletRequest request,
+            final HttpServletResponse response) throws IOException {
+        // before anything is committed, so that unknown networks still fail with a proper status
+        final NetworkProvider provider = providers.get(network);
+
+        response.setContentType("text/event-stream");
+        response.setCharacterEncoding(Charsets.UTF_8.name());
+        response.setHeader("Cache-Control", "no-cache");
+        response.flushBuffer();
+
+        final AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(STREAM_TIMEOUT_MILLIS);
+        final EventStream eventStream = new EventStream(network, stationId, asyncContext, response.getWriter());
+        asyncContext.addListener(eventStream);
+        broadcaster.subscribe(provider, stationId, eventStream);
+    }
+
+    private final class EventStream implements DeparturesSubscription.Listener, AsyncListener {
+        private final NetworkId network;
+        private final String stationId;
+        private final AsyncContext asyncContext;
+        private final PrintWriter writer;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        public EventStream(final NetworkId network, final String stationId, final AsyncContext asyncContext,
+                final PrintWriter writer) {
+            this.network = network;
+            this.stationId = stationId;
+            this.asyncContext = asyncContext;
+            this.writer = writer;
+        }
+
+        @Override
+        public void onDepartures(final DeparturesSubscription subscription, final DeparturesDiff diff) {
+            if (diff.isEmpty()) {
+                // keeps proxies from timing out and detects clients that went away
+                send(": unchanged\n\n");
+                return;
+            }
+            try {
+                final StringWriter json = new StringWriter();
+                final JsonGenerator gen = jsonFactory.createJsonGenerator(json);
+                new JsonResultWriter(gen).writeDeparturesDiff(diff);
+                gen.flush();
+                send("event: diff\ndata: " + json + "\n\n");
+            } catch (final IOException x) {
+                close();
+            }
+        }
+
+        @Override
+        public void onFailure(final DeparturesSubscription subscription, final QueryDeparturesResult.Status status) {
+            send("event: failure\ndata: \"" + status.name() + "\"\n\n");
+        }
+
+        private synchronized void send(final String event) {
+            if (closed.get())
+                return;
+            writer.write(event);
+            if (writer.checkError()) // also flushes
+                close();
+        }
+
+        private void close() {
+            if (closed.compareAndSet(false, true)) {
+                broadcaster.unsubscribe(network, stationId, this);
+                try {
+                    asyncContext.complete();
+                } catch (final IllegalStateException x) {
+                    // already completed by the container
+                }
+            }
+        }
+
+        @Override
+        public void onComplete(final AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onTimeout(final AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onError(final AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onStartAsync(final AsyncEvent event) {
+        }
+    }
+}
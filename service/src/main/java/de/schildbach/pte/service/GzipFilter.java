@@ -0,0 +1,235 @@
+/*
+ * Copyright the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Compresses response bodies for clients that send {@code Accept-Encoding: gzip}. Event streams are left alone.
+ */
+public class GzipFilter implements Filter {
+    @Override
+    public void init(final FilterConfig filterConfig) {
+    }
+
+    @Override
+    public void doFilter(final ServletRequest request, final ServletResponse response, final FilterChain chain)
+            throws IOException, ServletException {
+        final HttpServletRequest httpRequest = (HttpServletRequest) request;
+        final String acceptEncoding = httpRequest.getHeader("Accept-Encoding");
+        final String accept = httpRequest.getHeader("Accept");
+        // event streams are written asynchronously, after this filter has returned; async dispatches already write
+        // to the compressing response of their original request
+        if (acceptEncoding == null || !acceptEncoding.contains("gzip")
+                || (accept != null && accept.contains("text/event-stream"))
+                || request.getDispatcherType() != DispatcherType.REQUEST) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        final HttpServletResponse httpResponse = (HttpServletResponse) response;
+        httpResponse.addHeader("Vary", "Accept-Encoding");
+        final GzipResponse gzipResponse = new GzipResponse(httpResponse);
+        boolean async = false;
+        try {
+            chain.doFilter(request, gzipResponse);
+            async = request.isAsyncStarted();
+        } finally {
+            // asynchronous responses are written after this filter has returned
+            if (async)
+                request.getAsyncContext().addListener(new FinishListener(gzipResponse));
+            else
+                gzipResponse.finish();
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    private static final String CONTENT_LENGTH = "Content-Length";
+
+    private static class GzipResponse extends HttpServletResponseWrapper {
+        private GzipOutputStream outputStream = null;
+        private PrintWriter writer = null;
+
+        public GzipResponse(final HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (writer != null)
+                throw new IllegalStateException("getWriter() already called");
+            if (outputStream == null)
+                outputStream = new GzipOutputStream((HttpServletResponse) getResponse());
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                final String encoding = getCharacterEncoding();
+                writer = new PrintWriter(new OutputStreamWriter(getOutputStream(),
+                        encoding != null ? encoding : Charsets.ISO_8859_1.name()));
+            }
+            return writer;
+        }
+
+        @Override
+        public void setContentLength(final int len) {
+            // length of the uncompressed body doesn't apply
+        }
+
+        @Override
+        public void setHeader(final String name, final String value) {
+            if (!CONTENT_LENGTH.equalsIgnoreCase(name))
+                super.setHeader(name, value);
+        }
+
+        @Override
+        public void addHeader(final String name, final String value) {
+            if (!CONTENT_LENGTH.equalsIgnoreCase(name))
+                super.addHeader(name, value);
+        }
+
+        @Override
+        public void setIntHeader(final String name, final int value) {
+            if (!CONTENT_LENGTH.equalsIgnoreCase(name))
+                super.setIntHeader(name, value);
+        }
+
+        @Override
+        public void addIntHeader(final String name, final int value) {
+            if (!CONTENT_LENGTH.equalsIgnoreCase(name))
+                super.addIntHeader(name, value);
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (writer != null)
+                writer.flush();
+            if (outputStream != null)
+                outputStream.flush();
+            super.flushBuffer();
+        }
+
+        private void finish() throws IOException {
+            if (writer != null)
+                writer.flush();
+            if (outputStream != null)
+                outputStream.finish();
+        }
+    }
+
+    private static class FinishListener implements AsyncListener {
+        private final GzipResponse gzipResponse;
+
+        public FinishListener(final GzipResponse gzipResponse) {
+            this.gzipResponse = gzipResponse;
+        }
+
+        @Override
+        public void onComplete(final AsyncEvent event) throws IOException {
+            gzipResponse.finish();
+        }
+
+        @Override
+        public void onTimeout(final AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(final AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(final AsyncEvent event) {
+            // listeners are cleared when async processing is restarted
+            event.getAsyncContext().addListener(this);
+        }
+    }
+
+    /**
+     * Starts compressing on the first byte written, so that bodiless responses like 304 and 204 go out without a
+     * {@code Content-Encoding}. Bodies of responses already committed by then are passed through as they are.
+     */
+    private static class GzipOutputStream extends ServletOutputStream {
+        private final HttpServletResponse response;
+        private OutputStream os = null;
+        private GZIPOutputStream gzip = null;
+
+        public GzipOutputStream(final HttpServletResponse response) {
+            this.response = response;
+        }
+
+        private OutputStream os() throws IOException {
+            if (os == null) {
+                if (response.isCommitted()) {
+                    os = response.getOutputStream();
+                } else {
+                    response.setHeader("Content-Encoding", "gzip");
+                    gzip = new GZIPOutputStream(response.getOutputStream(), 8192, true);
+                    os = gzip;
+                }
+            }
+            return os;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            os().write(b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (len > 0)
+                os().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (os != null)
+                os.flush();
+        }
+
+        private void finish() throws IOException {
+            if (gzip != null)
+                gzip.finish();
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.dto.NearbyLocationsResult;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.dto.QueryTripsResult;
+import de.schildbach.pte.dto.SuggestLocationsResult;
+
+/**
+ * Keeps recently served results as serialized JSON along with a content hash, so that repeated requests are answered
+ * without calling upstream or serializing again. Responses carry an {@code ETag} and a {@code Cache-Control} header
+ * telling how much longer the result stays fresh; clients presenting a matching {@code If-None-Match} get a 304.
+ * Only results with status {@code OK} are kept; failures and errors are passed through.
+ */
+public class JsonResponseCache {
+    private static final MediaType JSON = new MediaType("application", "json", Charsets.UTF_8);
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private Cache<List<?>, Entry> cache = CacheBuilder.newBuilder().maximumSize(1000)
+            .expireAfterWrite(1, TimeUnit.HOURS).build();
+
+    private volatile boolean enabled = true;
+
+    @Autowired
+    private ProviderExecutors executors;
+
+    public void setMaximumSize(final int maximumSize) {
+        this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).expireAfterWrite(1, TimeUnit.HOURS).build();
+    }
+
+    /**
+     * If disabled, every request is answered by calling upstream, e.g. for load testing. Defaults to enabled.
+     */
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled)
+            cache.invalidateAll();
+    }
+
+    /**
+     * Builds a cache key from the kind of query and its parameters. Parameters may be {@code null}.
+     */
+    public static List<?> key(final String kind, final NetworkId network, final Object... params) {
+        final Object[] parts = new Object[params.length + 2];
+        parts[0] = kind;
+        parts[1] = network;
+        System.arraycopy(params, 0, parts, 2, params.length);
+        return Arrays.asList(parts);
+    }
+
+    public static final class Entry {
+        public final String etag;
+        public final byte[] json;
+        private final long expiresAt;
+
+        private Entry(final String etag, final byte[] json, final long expiresAt) {
+            this.etag = etag;
+            this.json = json;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * A result about to be written to a response. Writing it also puts it into the cache.
+     */
+    public final class Pending {
+        private final List<?> key;
+        private final Object result;
+        private final String etag;
+        private final long expiresAt;
+
+        private Pending(final List<?> key, final Object result, final String etag, final long expiresAt) {
+            this.key = key;
+            this.result = result;
+            this.etag = etag;
+            this.expiresAt = expiresAt;
+        }
+
+        public void writeTo(final OutputStream os) throws IOException {
+            if (!enabled) {
+                serialize(result, os);
+                return;
+            }
+            final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+            serialize(result, new TeeOutputStream(os, copy));
+            cache.put(key, new Entry(etag, copy.toByteArray(), expiresAt));
+        }
+    }
+
+    /**
+     * Returns the cached entry for the key, if it is still fresh.
+     */
+    public @Nullable Entry get(final List<?> key) {
+        if (!enabled)
+            return null;
+        final Entry entry = cache.getIfPresent(key);
+        if (entry == null)
+            return null;
+        if (entry.expiresAt <= System.currentTimeMillis()) {
+            cache.invalidate(key);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Serializes the result and caches it for the given time, if the cache is enabled. The result must be {@link #isCacheable(Object)}.
+     */
+    public Entry put(final List<?> key, final Object result, final long maxAgeMillis) throws IOException {
+        checkArgument(isCacheable(result), "not cacheable: %s", result);
+        final ByteArrayOutputStream json = new ByteArrayOutputStream();
+        serialize(result, json);
+        final Entry entry = new Entry(etag(result), json.toByteArray(), System.currentTimeMillis() + maxAgeMillis);
+        if (enabled)
+            cache.put(key, entry);
+        return entry;
+    }
+
+    /**
+     * Answers from the cache if possible. Otherwise runs the call on the pool of the network; its result is streamed
+     * to the client and cached while doing so.
+     */
+    public DeferredResult<ResponseEntity<?>> respond(final NetworkId network, final List<?> key,
+            final long maxAgeMillis, final @Nullable String ifNoneMatch, final Callable<?> call) {
+        final Entry entry = get(key);
+        if (entry != null) {
+            final DeferredResult<ResponseEntity<?>> result = new DeferredResult<>();
+            result.setResult(response(entry.etag, entry.expiresAt, entry.json, ifNoneMatch));
+            return result;
+        }
+        return executors.submit(network, new Callable<ResponseEntity<?>>() {
+            @Override
+            public ResponseEntity<?> call() throws Exception {
+                final Object result = call.call();
+                if (!isCacheable(result))
+                    return new ResponseEntity<>(result, HttpStatus.OK);
+                final String etag = etag(result);
+                if (matches(ifNoneMatch, etag))
+                    return response(etag, put(key, result, maxAgeMillis).expiresAt, null, ifNoneMatch);
+                final long expiresAt = System.currentTimeMillis() + maxAgeMillis;
+                return response(etag, expiresAt, new Pending(key, result, etag, expiresAt), ifNoneMatch);
+            }
+        });
+    }
+
+    /**
+     * Tells if the result is a successful one, which can be served again to others asking the same.
+     */
+    public static boolean isCacheable(final Object result) {
+        if (result instanceof QueryTripsResult)
+            return ((QueryTripsResult) result).status == QueryTripsResult.Status.OK;
+        else if (result instanceof QueryDeparturesResult)
+            return ((QueryDeparturesResult) result).status == QueryDeparturesResult.Status.OK;
+        else if (result instanceof SuggestLocationsResult)
+            return ((SuggestLocationsResult) result).status == SuggestLocationsResult.Status.OK;
+        else if (result instanceof NearbyLocationsResult)
+            return ((NearbyLocationsResult) result).status == NearbyLocationsResult.Status.OK;
+        else
+            return false;
+    }
+
+    private void serialize(final Object result, final OutputStream os) throws IOException {
+        final JsonGenerator gen = jsonFactory.createJsonGenerator(os, JsonEncoding.UTF8);
+        new JsonResultWriter(gen).write(result);
+        gen.flush();
+    }
+
+    /**
+     * Hashes the content of the result, leaving out the time of the upstream server, which changes on every call.
+     */
+    private String etag(final Object result) throws IOException {
+        final Hasher hasher = Hashing.murmur3_128().newHasher();
+        final JsonGenerator gen = jsonFactory.createJsonGenerator(Funnels.asOutputStream(hasher), JsonEncoding.UTF8);
+        new JsonResultWriter(gen, false).write(result);
+        gen.flush();
+        return "W/\"" + hasher.hash() + '"';
+    }
+
+    private static ResponseEntity<?> response(final String etag, final long expiresAt, final @Nullable Object body,
+            final @Nullable String ifNoneMatch) {
+        final HttpHeaders headers = new HttpHeaders();
+        headers.setETag(etag);
+        headers.setCacheControl(
+                "max-age=" + Math.max(TimeUnit.MILLISECONDS.toSeconds(expiresAt - System.currentTimeMillis()), 0));
+        if (matches(ifNoneMatch, etag))
+            return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
+        headers.setContentType(JSON);
+        return new ResponseEntity<>(body, headers, HttpStatus.OK);
+    }
+
+    private static boolean matches(final @Nullable String ifNoneMatch, final String etag) {
+        if (ifNoneMatch == null)
+            return false;
+        final String opaqueTag = weakless(etag);
+        for (final String tag : Splitter.on(',').trimResults().omitEmptyStrings().split(ifNoneMatch))
+            if (tag.equals("*") || weakless(tag).equals(opaqueTag))
+                return true;
+        return false;
+    }
+
+    private static String weakless(final String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    private static final class TeeOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final OutputStream copy;
+
+        public TeeOutputStream(final OutputStream out, final OutputStream copy) {
+            this.out = out;
+            this.copy = copy;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            copy.write(b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            copy.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * Copyright the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import org.codehaus.jackson.JsonGenerator;
+
+import de.schildbach.pte.dto.Departure;
+import de.schildbach.pte.dto.DeparturesDiff;
+import de.schildbach.pte.dto.Fare;
+import de.schildbach.pte.dto.Line;
+import de.schildbach.pte.dto.LineDestination;
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.NearbyLocationsResult;
+import de.schildbach.pte.dto.Point;
+import de.schildbach.pte.dto.Position;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.dto.QueryTripsResult;
+import de.schildbach.pte.dto.ResultHeader;
+import de.schildbach.pte.dto.StationDepartures;
+import de.schildbach.pte.dto.Stop;
+import de.schildbach.pte.dto.Style;
+import de.schildbach.pte.dto.SuggestLocationsResult;
+import de.schildbach.pte.dto.SuggestedLocation;
+import de.schildbach.pte.dto.Trip;
+
+/**
+ * Writes result DTOs field by field to a streaming {@link JsonGenerator}, without going through reflection.
+ * Only public fields are written; derived getters and provider-internal contexts are left out, as are
+ * {@code null} values. Dates are written as milliseconds since the epoch.
+ */
+public final class JsonResultWriter {
+    private final JsonGenerator gen;
+    private final boolean writeServerTime;
+
+    public JsonResultWriter(final JsonGenerator gen) {
+        this(gen, true);
+    }
+
+    /**
+     * @param writeServerTime
+     *            {@code false} to leave out the time of the upstream server, e.g. for hashing the content
+     */
+    public JsonResultWriter(final JsonGenerator gen, final boolean writeServerTime) {
+        this.gen = gen;
+        this.writeServerTime = writeServerTime;
+    }
+
+    public void write(final Object result) throws IOException {
+        if (result instanceof QueryTripsResult)
+            writeQueryTripsResult((QueryTripsResult) result);
+        else if (result instanceof QueryDeparturesResult)
+            writeQueryDeparturesResult((QueryDeparturesResult) result);
+        else if (result instanceof SuggestLocationsResult)
+            writeSuggestLocationsResult((SuggestLocationsResult) result);
+        else if (result instanceof NearbyLocationsResult)
+            writeNearbyLocationsResult((NearbyLocationsResult) result);
+        else
+            throw new IllegalArgumentException("cannot write: " + result.getClass().getName());
+    }
+
+    public static boolean canWrite(final Class<?> clazz) {
+        return QueryTripsResult.class.isAssignableFrom(clazz) || QueryDeparturesResult.class.isAssignableFrom(clazz)
+                || SuggestLocationsResult.class.isAssignableFrom(clazz)
+                || NearbyLocationsResult.class.isAssignableFrom(clazz);
+    }
+
+    public void writeQueryTripsResult(final QueryTripsResult result) throws IOException {
+        gen.writeStartObject();
+        writeHeader(result.header);
+        gen.writeStringField("status", result.status.name());
+        writeLocations("ambiguousFrom", result.ambiguousFrom);
+        writeLocations("ambiguousVia", result.ambiguousVia);
+        writeLocations("ambiguousTo", result.ambiguousTo);
+        writeString("queryUri", result.queryUri);
+        writeLocation("from", result.from);
+        writeLocation("via", result.via);
+        writeLocation("to", result.to);
+        if (result.trips != null) {
+            gen.writeArrayFieldStart("trips");
+            for (final Trip trip : result.trips)
+                writeTrip(trip);
+            gen.writeEndArray();
+        }
+        gen.writeEndObject();
+    }
+
+    public void writeQueryDeparturesResult(final QueryDeparturesResult result) throws IOException {
+        gen.writeStartObject();
+        writeHeader(result.header);
+        gen.writeStringField("status", result.status.name());
+        gen.writeArrayFieldStart("stationDepartures");
+        for (final StationDepartures stationDepartures : result.stationDepartures)
+            writeStationDepartures(stationDepartures);
+        gen.writeEndArray();
+        gen.writeEndObject();
+    }
+
+    public void writeSuggestLocationsResult(final SuggestLocationsResult result) throws IOException {
+        gen.writeStartObject();
+        writeHeader(result.header);
+        gen.writeStringField("status", result.status.name());
+        if (result.suggestedLocations != null) {
+            gen.writeArrayFieldStart("suggestedLocations");
+            for (final SuggestedLocation suggestedLocation : result.suggestedLocations) {
+                gen.writeStartObject();
+                writeLocation("location", suggestedLocation.location);
+                gen.writeNumberField("priority", suggestedLocation.priority);
+                gen.writeEndObject();
+            }
+            gen.writeEndArray();
+        }
+        gen.writeEndObject();
+    }
+
+    public void writeNearbyLocationsResult(final NearbyLocationsResult result) throws IOException {
+        gen.writeStartObject();
+        writeHeader(result.header);
+        gen.writeStringField("status", result.status.name());
+        writeLocations("locations", result.locations);
+        gen.writeEndObject();
+    }
+
+    public void writeStationDepartures(final StationDepartures stationDepartures) throws IOException {
+        gen.writeStartObject();
+        writeLocation("location", stationDepartures.location);
+        gen.writeArrayFieldStart("departures");
+        for (final Departure departure : stationDepartures.departures)
+            writeDeparture(departure);
+        gen.writeEndArray();
+        if (stationDepartures.lines != null) {
+            gen.writeArrayFieldStart("lines");
+            for (final LineDestination lineDestination : stationDepartures.lines) {
+                gen.writeStartObject();
+                writeLine("line", lineDestination.line);
+                writeLocation("destination", lineDestination.destination);
+                gen.writeEndObject();
+            }
+            gen.writeEndArray();
+        }
+        gen.writeEndObject();
+    }
+
+    public void writeDeparture(final Departure departure) throws IOException {
+        gen.writeStartObject();
+        writeDate("plannedTime", departure.plannedTime);
+        writeDate("predictedTime", departure.predictedTime);
+        writeLine("line", departure.line);
+        writePosition("position", departure.position);
+        writeLocation("destination", departure.destination);
+        writeInts("capacity", departure.capacity);
+        writeString("message", departure.message);
+        gen.writeEndObject();
+    }
+
+    public void writeDeparturesDiff(final DeparturesDiff diff) throws IOException {
+        gen.writeStartObject();
+        writeDate("time", diff.time);
+        writeDepartures("added", diff.added);
+        writeDepartures("removed", diff.removed);
+        writeDepartures("changed", diff.changed);
+        gen.writeEndObject();
+    }
+
+    private void writeDepartures(final String fieldName, final List<Departure> departures) throws IOException {
+        gen.writeArrayFieldStart(fieldName);
+        for (final Departure departure : departures)
+            writeDeparture(departure);
+        gen.writeEndArray();
+    }
+
+    private void writeHeader(final ResultHeader header) throws IOException {
+        if (header == null)
+            return;
+        gen.writeObjectFieldStart("header");
+        gen.writeStringField("network", header.network.name());
+        gen.writeStringField("serverProduct", header.serverProduct);
+        writeString("serverVersion", header.serverVersion);
+        writeString("serverName", header.serverName);
+        if (writeServerTime)
+            gen.writeNumberField("serverTime", header.serverTime);
+        gen.writeEndObject();
+    }
+
+    private void writeTrip(final Trip trip) throws IOException {
+        gen.writeStartObject();
+        writeLocation("from", trip.from);
+        writeLocation("to", trip.to);
+        gen.writeArrayFieldStart("legs");
+        for (final Trip.Leg leg : trip.legs) {
+            gen.writeStartObject();
+            writeLocation("departure", leg.departure);
+            writeLocation("arrival", leg.arrival);
+            writePath("path", leg.path);
+            if (leg instanceof Trip.Public) {
+                final Trip.Public publicLeg = (Trip.Public) leg;
+                writeLine("line", publicLeg.line);
+                writeLocation("destination", publicLeg.destination);
+                writeStop("departureStop", publicLeg.departureStop);
+                writeStop("arrivalStop", publicLeg.arrivalStop);
+                if (publicLeg.intermediateStops != null) {
+                    gen.writeArrayFieldStart("intermediateStops");
+                    for (final Stop stop : publicLeg.intermediateStops)
+                        writeStop(null, stop);
+                    gen.writeEndArray();
+                }
+                writeString("message", publicLeg.message);
+            } else if (leg instanceof Trip.Individual) {
+                final Trip.Individual individualLeg = (Trip.Individual) leg;
+                gen.writeStringField("type", individualLeg.type.name());
+                writeDate("departureTime", individualLeg.departureTime);
+                writeDate("arrivalTime", individualLeg.arrivalTime);
+                gen.writeNumberField("min", individualLeg.min);
+                gen.writeNumberField("distance", individualLeg.distance);
+            }
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+        if (trip.fares != null) {
+            gen.writeArrayFieldStart("fares");
+            for (final Fare fare : trip.fares) {
+                gen.writeStartObject();
+                gen.writeStringField("network", fare.network);
+                gen.writeStringField("type", fare.type.name());
+                gen.writeStringField("currency", fare.currency.getCurrencyCode());
+                gen.writeNumberField("fare", fare.fare);
+                writeString("unitName", fare.unitName);
+                writeString("units", fare.units);
+                gen.writeEndObject();
+            }
+            gen.writeEndArray();
+        }
+        writeInts("capacity", trip.capacity);
+        if (trip.numChanges != null)
+            gen.writeNumberField("numChanges", trip.numChanges);
+        gen.writeEndObject();
+    }
+
+    private void writeStop(final String fieldName, final Stop stop) throws IOException {
+        if (fieldName != null)
+            gen.writeObjectFieldStart(fieldName);
+        else
+            gen.writeStartObject();
+        writeLocation("location", stop.location);
+        writeDate("plannedArrivalTime", stop.plannedArrivalTime);
+        writeDate("predictedArrivalTime", stop.predictedArrivalTime);
+        writePosition("plannedArrivalPosition", stop.plannedArrivalPosition);
+        writePosition("predictedArrivalPosition", stop.predictedArrivalPosition);
+        if (stop.arrivalCancelled)
+            gen.writeBooleanField("arrivalCancelled", true);
+        writeDate("plannedDepartureTime", stop.plannedDepartureTime);
+        writeDate("predictedDepartureTime", stop.predictedDepartureTime);
+        writePosition("plannedDeparturePosition", stop.plannedDeparturePosition);
+        writePosition("predictedDeparturePosition", stop.predictedDeparturePosition);
+        if (stop.departureCancelled)
+            gen.writeBooleanField("departureCancelled", true);
+        gen.writeEndObject();
+    }
+
+    private void writeLine(final String fieldName, final Line line) throws IOException {
+        gen.writeObjectFieldStart(fieldName);
+        writeString("id", line.id);
+        writeString("network", line.network);
+        if (line.product != null)
+            gen.writeStringField("product", line.product.name());
+        writeString("label", line.label);
+        writeString("name", line.name);
+        final Style style = line.style;
+        if (style != null) {
+            gen.writeObjectFieldStart("style");
+            gen.writeStringField("shape", style.shape.name());
+            gen.writeNumberField("backgroundColor", style.backgroundColor);
+            if (style.backgroundColor2 != 0)
+                gen.writeNumberField("backgroundColor2", style.backgroundColor2);
+            gen.writeNumberField("foregroundColor", style.foregroundColor);
+            if (style.borderColor != 0)
+                gen.writeNumberField("borderColor", style.borderColor);
+            gen.writeEndObject();
+        }
+        writeEnums("attrs", line.attrs);
+        writeString("message", line.message);
+        gen.writeEndObject();
+    }
+
+    private void writeLocations(final String fieldName, final List<Location> locations) throws IOException {
+        if (locations == null)
+            return;
+        gen.writeArrayFieldStart(fieldName);
+        for (final Location location : locations)
+            writeLocationObject(location);
+        gen.writeEndArray();
+    }
+
+    private void writeLocation(final String fieldName, final Location location) throws IOException {
+        if (location == null)
+            return;
+        gen.writeFieldName(fieldName);
+        writeLocationObject(location);
+    }
+
+    private void writeLocationObject(final Location location) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("type", location.type.name());
+        writeString("id", location.id);
+        if (location.hasLocation()) {
+            gen.writeNumberField("lat", location.lat);
+            gen.writeNumberField("lon", location.lon);
+        }
+        writeString("place", location.place);
+        writeString("name", location.name);
+        writeEnums("products", location.products);
+        gen.writeEndObject();
+    }
+
+    private void writePosition(final String fieldName, final Position position) throws IOException {
+        if (position == null)
+            return;
+        gen.writeObjectFieldStart(fieldName);
+        gen.writeStringField("name", position.name);
+        writeString("section", position.section);
+        gen.writeEndObject();
+    }
+
+    private void writePath(final String fieldName, final List<Point> path) throws IOException {
+        if (path == null)
+            return;
+        gen.writeArrayFieldStart(fieldName);
+        for (final Point point : path) {
+            gen.writeStartObject();
+            gen.writeNumberField("lat", point.lat);
+            gen.writeNumberField("lon", point.lon);
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+    }
+
+    private void writeEnums(final String fieldName, final Set<? extends Enum<?>> values) throws IOException {
+        if (values == null)
+            return;
+        gen.writeArrayFieldStart(fieldName);
+        for (final Enum<?> value : values)
+            gen.writeString(value.name());
+        gen.writeEndArray();
+    }
+
+    private void writeInts(final String fieldName, final int[] values) throws IOException {
+        if (values == null)
+            return;
+        gen.writeArrayFieldStart(fieldName);
+        for (final int value : values)
+            gen.writeNumber(value);
+        gen.writeEndArray();
+    }
+
+    private void writeDate(final String fieldName, final Date date) throws IOException {
+        if (date != null)
+            gen.writeNumberField(fieldName, date.getTime());
+    }
+
+    private void writeString(final String fieldName, final String value) throws IOException {
+        if (value != null)
+            gen.writeStringField(fieldName, value);
+    }
+}
@@ -19,14 +19,22 @@ package de.schildbach.pte.service;
 
 import java.io.IOException;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
-import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.async.DeferredResult;
 
-import de.schildbach.pte.RtProvider;
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.NetworkProvider;
+import de.schildbach.pte.NetworkProviderRegistry;
 import de.schildbach.pte.dto.Location;
 import de.schildbach.pte.dto.LocationType;
 import de.schildbach.pte.dto.NearbyLocationsResult;
@@ -37,19 +45,45 @@ import de.schildbach.pte.dto.SuggestLocationsResult;
  */
 @Controller
 public class LocationController {
-    private final RtProvider provider = new RtProvider();
+    @Autowired
+    private NetworkProviderRegistry providers;
+
+    @Autowired
+    private JsonResponseCache responseCache;
+
+    private static final long MAX_AGE_MILLIS = TimeUnit.MINUTES.toMillis(5);
 
     @RequestMapping(value = "/location/suggest", method = RequestMethod.GET)
-    @ResponseBody
-    public SuggestLocationsResult suggest(@RequestParam("q") final String query) throws IOException {
-        return provider.suggestLocations(query);
+    public DeferredResult<ResponseEntity<?>> suggest(
+            @RequestParam(value = "network", required = false, defaultValue = "RT") final NetworkId network,
+            @RequestParam("q") final String query,
+            @RequestHeader(value = "If-None-Match", required = false) final String ifNoneMatch) {
+        final NetworkProvider provider = providers.get(network);
+        final List<?> key = JsonResponseCache.key("suggest", network, query);
+        return responseCache.respond(network, key, MAX_AGE_MILLIS, ifNoneMatch,
+                new Callable<SuggestLocationsResult>() {
+                    @Override
+                    public SuggestLocationsResult call() throws IOException {
+                        return provider.suggestLocations(query);
+                    }
+                });
     }
 
     @RequestMapping(value = "/location/nearby", method = RequestMethod.GET)
-    @ResponseBody
-    public NearbyLocationsResult nearby(@RequestParam("lat") final int lat, @RequestParam("lon") final int lon)
-            throws IOException {
+    public DeferredResult<ResponseEntity<?>> nearby(
+            @RequestParam(value = "network", required = false, defaultValue = "RT") final NetworkId network,
+            @RequestParam("lat") final int lat, @RequestParam("lon") final int lon,
+            @RequestHeader(value = "If-None-Match", required = false) final String ifNoneMatch) {
+        final NetworkProvider provider = providers.get(network);
         final Location coord = Location.coord(lat, lon);
-        return provider.queryNearbyLocations(EnumSet.of(LocationType.STATION, LocationType.POI), coord, 5000, 100);
+        final List<?> key = JsonResponseCache.key("nearby", network, lat, lon);
+        return responseCache.respond(network, key, MAX_AGE_MILLIS, ifNoneMatch,
+                new Callable<NearbyLocationsResult>() {
+                    @Override
+                    public NearbyLocationsResult call() throws IOException {
+                        return provider.queryNearbyLocations(EnumSet.of(LocationType.STATION, LocationType.POI),
+                                coord, 5000, 100);
+                    }
+                });
     }
 }
@@ -0,0 +1,176 @@
+/*
+ * Copyright the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.web.context.request.async.DeferredResult;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.NetworkProviderRegistry;
+
+/**
+ * Runs blocking provider calls off the servlet container threads, on a bounded pool per network. Each network gets a
+ * fixed number of threads and a short queue; requests beyond that are shed right away, and requests that don't finish
+ * within the timeout are cancelled. Either way the client gets a 503, and a slow network can't hold up the others.
+ *
+ * <p>
+ * Lookups that a provider call fans out into run on a second, smaller pool per network. It doesn't queue: when all of
+ * its threads are busy, the provider call runs the lookup itself. Sharing the first pool could deadlock, with all of
+ * its threads waiting for lookups queued behind them.
+ * </p>
+ */
+public class ProviderExecutors implements NetworkProviderRegistry.LookupExecutors {
+    /**
+     * Runs rejected lookups on the calling thread, unless the pool has been shut down. Unlike
+     * {@link ThreadPoolExecutor.CallerRunsPolicy}, which silently drops them then, it throws, so that nobody waits
+     * forever for a lookup that never runs.
+     */
+    private static final RejectedExecutionHandler CALLER_RUNS_WHILE_RUNNING = new RejectedExecutionHandler() {
+        @Override
+        public void rejectedExecution(final Runnable task, final ThreadPoolExecutor executor) {
+            if (executor.isShutdown())
+                throw new RejectedExecutionException("lookup pool has been shut down");
+            task.run();
+        }
+    };
+
+    private int threadsPerNetwork = 8;
+    private int queueSizePerNetwork = 32;
+    private int lookupThreadsPerNetwork = 4;
+    private long timeoutMillis = TimeUnit.SECONDS.toMillis(30);
+
+    private final ConcurrentMap<NetworkId, ThreadPoolExecutor> executors = new ConcurrentHashMap<>();
+    private final ConcurrentMap<NetworkId, ThreadPoolExecutor> lookupExecutors = new ConcurrentHashMap<>();
+
+    public void setThreadsPerNetwork(final int threadsPerNetwork) {
+        this.threadsPerNetwork = threadsPerNetwork;
+    }
+
+    public void setQueueSizePerNetwork(final int queueSizePerNetwork) {
+        this.queueSizePerNetwork = queueSizePerNetwork;
+    }
+
+    public void setLookupThreadsPerNetwork(final int lookupThreadsPerNetwork) {
+        this.lookupThreadsPerNetwork = lookupThreadsPerNetwork;
+    }
+
+    public void setTimeoutMillis(final long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public <T> DeferredResult<T> submit(final NetworkId network, final Callable<T> call) {
+        final DeferredResult<T> result = new DeferredResult<>(timeoutMillis,
+                new ServiceOverloadedException(network + " didn't answer within " + timeoutMillis + " ms"));
+        try {
+            final Future<?> future = executor(network).submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        result.setResult(call.call());
+                    } catch (final Exception x) {
+                        result.setErrorResult(x);
+                    }
+                }
+            });
+            result.onTimeout(new Runnable() {
+                @Override
+                public void run() {
+                    future.cancel(true);
+                }
+            });
+        } catch (final RejectedExecutionException x) {
+            result.setErrorResult(new ServiceOverloadedException(network + " is saturated"));
+        }
+        return result;
+    }
+
+    /**
+     * Runs a task on the pool of the given network. Unlike {@link #submit(NetworkId, Callable)}, the caller is in
+     * charge of the deadline.
+     *
+     * @throws RejectedExecutionException
+     *             if the pool of the network is saturated
+     */
+    public Future<?> execute(final NetworkId network, final Runnable task) {
+        return executor(network).submit(task);
+    }
+
+    /**
+     * Returns the pool for the concurrent lookups of the given network.
+     */
+    @Override
+    public ExecutorService get(final NetworkId network) {
+        ThreadPoolExecutor executor = lookupExecutors.get(network);
+        if (executor == null) {
+            final ThreadPoolExecutor newExecutor = new ThreadPoolExecutor(lookupThreadsPerNetwork,
+                    lookupThreadsPerNetwork, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                    new ThreadFactoryBuilder()
+                            .setNameFormat(network.name().toLowerCase(Locale.ENGLISH) + "-lookup-%d").setDaemon(true)
+                            .build(),
+                    CALLER_RUNS_WHILE_RUNNING);
+            newExecutor.allowCoreThreadTimeOut(true);
+            executor = lookupExecutors.putIfAbsent(network, newExecutor);
+            if (executor == null)
+                executor = newExecutor;
+            else
+                newExecutor.shutdown();
+        }
+        return executor;
+    }
+
+    private ThreadPoolExecutor executor(final NetworkId network) {
+        ThreadPoolExecutor executor = executors.get(network);
+        if (executor == null) {
+            final ThreadPoolExecutor newExecutor = new ThreadPoolExecutor(threadsPerNetwork, threadsPerNetwork, 60,
+                    TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSizePerNetwork),
+                    new ThreadFactoryBuilder().setNameFormat(network.name().toLowerCase(Locale.ENGLISH) + "-%d")
+                            .setDaemon(true).build());
+            newExecutor.allowCoreThreadTimeOut(true);
+            executor = executors.putIfAbsent(network, newExecutor);
+            if (executor == null)
+                executor = newExecutor;
+            else
+                newExecutor.shutdown();
+        }
+        return executor;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (final ThreadPoolExecutor executor : executors.values())
+            executor.shutdownNow();
+        for (final ThreadPoolExecutor executor : lookupExecutors.values())
+            executor.shutdownNow();
+    }
+}
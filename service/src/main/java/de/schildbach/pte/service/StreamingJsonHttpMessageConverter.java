@@ -0,0 +1,70 @@
+/*
+ * Copyright the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import java.io.IOException;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Writes result DTOs straight to the response body using {@link JsonResultWriter}, including those on their way into
+ * the {@link JsonResponseCache}. Types it doesn't know are left to the next converter in line.
+ */
+public class StreamingJsonHttpMessageConverter extends AbstractHttpMessageConverter<Object> {
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    public StreamingJsonHttpMessageConverter() {
+        super(new MediaType("application", "json", Charsets.UTF_8));
+    }
+
+    @Override
+    protected boolean supports(final Class<?> clazz) {
+        return JsonResultWriter.canWrite(clazz) || JsonResponseCache.Pending.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public boolean canRead(final Class<?> clazz, final MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected Object readInternal(final Class<? extends Object> clazz, final HttpInputMessage inputMessage)
+            throws IOException, HttpMessageNotReadableException {
+        throw new HttpMessageNotReadableException(getClass().getSimpleName() + " can only write");
+    }
+
+    @Override
+    protected void writeInternal(final Object result, final HttpOutputMessage outputMessage) throws IOException {
+        if (result instanceof JsonResponseCache.Pending) {
+            ((JsonResponseCache.Pending) result).writeTo(outputMessage.getBody());
+            return;
+        }
+        final JsonGenerator gen = jsonFactory.createJsonGenerator(outputMessage.getBody(), JsonEncoding.UTF8);
+        new JsonResultWriter(gen).write(result);
+        gen.flush();
+    }
+}
@@ -19,16 +19,24 @@ package de.schildbach.pte.service;
 
 import java.io.IOException;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
-import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.async.DeferredResult;
 
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.NetworkProvider;
 import de.schildbach.pte.NetworkProvider.Accessibility;
 import de.schildbach.pte.NetworkProvider.WalkSpeed;
-import de.schildbach.pte.RtProvider;
+import de.schildbach.pte.NetworkProviderRegistry;
 import de.schildbach.pte.dto.Location;
 import de.schildbach.pte.dto.LocationType;
 import de.schildbach.pte.dto.Product;
@@ -39,20 +47,36 @@ import de.schildbach.pte.dto.QueryTripsResult;
  */
 @Controller
 public class TripController {
-    private final RtProvider provider = new RtProvider();
+    @Autowired
+    private NetworkProviderRegistry providers;
+
+    @Autowired
+    private JsonResponseCache responseCache;
+
+    private static final long MAX_AGE_MILLIS = TimeUnit.MINUTES.toMillis(1);
 
     @RequestMapping(value = "/trip", method = RequestMethod.GET)
-    @ResponseBody
-    public QueryTripsResult trip(
+    public DeferredResult<ResponseEntity<?>> trip(
+            @RequestParam(value = "network", required = false, defaultValue = "RT") final NetworkId network,
             @RequestParam(value = "fromType", required = false, defaultValue = "ANY") final LocationType fromType,
             @RequestParam(value = "from", required = false) final String from,
             @RequestParam(value = "fromId", required = false) final String fromId,
             @RequestParam(value = "toType", required = false, defaultValue = "ANY") final LocationType toType,
             @RequestParam(value = "to", required = false) final String to,
-            @RequestParam(value = "toId", required = false) final String toId) throws IOException {
+            @RequestParam(value = "toId", required = false) final String toId,
+            @RequestHeader(value = "If-None-Match", required = false) final String ifNoneMatch) {
+        final NetworkProvider provider = providers.get(network);
         final Location fromLocation = new Location(fromType, fromId, null, from);
         final Location toLocation = new Location(toType, toId, null, to);
-        return provider.queryTrips(fromLocation, null, toLocation, new Date(), true, Product.ALL, null,
-                WalkSpeed.NORMAL, Accessibility.NEUTRAL, null);
+        final Date date = new Date();
+        final List<?> key = JsonResponseCache.key("trip", network, fromType, from, fromId, toType, to, toId);
+        return responseCache.respond(network, key, MAX_AGE_MILLIS, ifNoneMatch,
+                new Callable<QueryTripsResult>() {
+                    @Override
+                    public QueryTripsResult call() throws IOException {
+                        return provider.queryTrips(fromLocation, null, toLocation, date, true, Product.ALL, null,
+                                WalkSpeed.NORMAL, Accessibility.NEUTRAL, null);
+                    }
+                });
     }
 }